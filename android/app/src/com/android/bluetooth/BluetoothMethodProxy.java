@@ -35,6 +35,7 @@ import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.Telephony;
 import android.util.Log;
 
@@ -185,6 +186,13 @@ public class BluetoothMethodProxy {
         return handler.sendEmptyMessage(what);
     }
 
+    /**
+     * Proxies {@link SystemClock#elapsedRealtime()}.
+     */
+    public long systemClockElapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
     /**
      * Proxies {@link HeaderSet#getHeader}.
      */
@@ -4064,13 +4064,8 @@ public class AdapterService extends Service {
     }
 
     public String getIdentityAddress(String address) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address.toUpperCase());
-        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
-        if (deviceProp != null && deviceProp.getIdentityAddress() != null) {
-            return deviceProp.getIdentityAddress();
-        } else {
-            return address;
-        }
+        // Runs for every LE scan result, resolved through a lock-free cache.
+        return mRemoteDevices.getIdentityAddress(address);
     }
 
     private class CallerInfo {
@@ -5197,6 +5192,10 @@ public class AdapterService extends Service {
         writer.println();
 
         mAdapterStateMachine.dump(fd, writer, args);
+        mRemoteDevices.dumpIdentityAddressCache(writer);
+        if (mMetricsLogger != null) {
+            mMetricsLogger.dump(writer);
+        }
 
         StringBuilder sb = new StringBuilder();
         for (ProfileService profile : mRegisteredProfiles) {
@@ -5323,6 +5322,14 @@ public class AdapterService extends Service {
     private int mScanUpgradeDurationMillis =
             DeviceConfigListener.DEFAULT_SCAN_UPGRADE_DURATION_MILLIS;
     @GuardedBy("mDeviceConfigLock")
+    private long mScanResultCoalescingWindowMillis =
+            DeviceConfigListener.DEFAULT_SCAN_RESULT_COALESCING_WINDOW_MILLIS;
+    @GuardedBy("mDeviceConfigLock")
+    private int mScanResultCoalescingMaxResults =
+            DeviceConfigListener.DEFAULT_SCAN_RESULT_COALESCING_MAX_RESULTS;
+    @GuardedBy("mDeviceConfigLock")
+    private int mGattWriteQueueDepth = DeviceConfigListener.DEFAULT_GATT_WRITE_QUEUE_DEPTH;
+    @GuardedBy("mDeviceConfigLock")
     private int mScreenOffLowPowerWindowMillis =
             ScanManager.SCAN_MODE_SCREEN_OFF_LOW_POWER_WINDOW_MS;
     @GuardedBy("mDeviceConfigLock")
@@ -5389,6 +5396,34 @@ public class AdapterService extends Service {
         }
     }
 
+    /**
+     * Returns how long scan results are held to be delivered together to a scanner, in millis.
+     * Results are delivered one by one when 0.
+     */
+    public long getScanResultCoalescingWindowMillis() {
+        synchronized (mDeviceConfigLock) {
+            return mScanResultCoalescingWindowMillis;
+        }
+    }
+
+    /**
+     * Returns the number of held scan results that triggers an early delivery to a scanner.
+     */
+    public int getScanResultCoalescingMaxResults() {
+        synchronized (mDeviceConfigLock) {
+            return mScanResultCoalescingMaxResults;
+        }
+    }
+
+    /**
+     * Returns how many characteristic writes may be outstanding on a remote device at once.
+     */
+    public int getGattWriteQueueDepth() {
+        synchronized (mDeviceConfigLock) {
+            return mGattWriteQueueDepth;
+        }
+    }
+
     /**
      * Returns SCREEN_OFF_BALANCED scan window in millis.
      */
@@ -5442,6 +5477,12 @@ public class AdapterService extends Service {
                 "scan_timeout_millis";
         private static final String SCAN_UPGRADE_DURATION_MILLIS =
                 "scan_upgrade_duration_millis";
+        private static final String SCAN_RESULT_COALESCING_WINDOW_MILLIS =
+                "scan_result_coalescing_window_millis";
+        private static final String SCAN_RESULT_COALESCING_MAX_RESULTS =
+                "scan_result_coalescing_max_results";
+        private static final String GATT_WRITE_QUEUE_DEPTH =
+                "gatt_write_queue_depth";
         private static final String SCREEN_OFF_LOW_POWER_WINDOW_MILLIS =
                 "screen_off_low_power_window_millis";
         private static final String SCREEN_OFF_LOW_POWER_INTERVAL_MILLIS =
@@ -5461,6 +5502,9 @@ public class AdapterService extends Service {
         private static final long DEFAULT_SCAN_QUOTA_WINDOW_MILLIS = 30 * SECOND_IN_MILLIS;
         private static final long DEFAULT_SCAN_TIMEOUT_MILLIS = 30 * MINUTE_IN_MILLIS;
         private static final int DEFAULT_SCAN_UPGRADE_DURATION_MILLIS = (int) SECOND_IN_MILLIS * 6;
+        private static final long DEFAULT_SCAN_RESULT_COALESCING_WINDOW_MILLIS = 0;
+        private static final int DEFAULT_SCAN_RESULT_COALESCING_MAX_RESULTS = 32;
+        private static final int DEFAULT_GATT_WRITE_QUEUE_DEPTH = 1;
 
         public void start() {
             DeviceConfig.addOnPropertiesChangedListener(DeviceConfig.NAMESPACE_BLUETOOTH,
@@ -5488,6 +5532,14 @@ public class AdapterService extends Service {
                         DEFAULT_SCAN_TIMEOUT_MILLIS);
                 mScanUpgradeDurationMillis = properties.getInt(SCAN_UPGRADE_DURATION_MILLIS,
                         DEFAULT_SCAN_UPGRADE_DURATION_MILLIS);
+                mScanResultCoalescingWindowMillis = properties.getLong(
+                        SCAN_RESULT_COALESCING_WINDOW_MILLIS,
+                        DEFAULT_SCAN_RESULT_COALESCING_WINDOW_MILLIS);
+                mScanResultCoalescingMaxResults = properties.getInt(
+                        SCAN_RESULT_COALESCING_MAX_RESULTS,
+                        DEFAULT_SCAN_RESULT_COALESCING_MAX_RESULTS);
+                mGattWriteQueueDepth = properties.getInt(GATT_WRITE_QUEUE_DEPTH,
+                        DEFAULT_GATT_WRITE_QUEUE_DEPTH);
                 mScreenOffLowPowerWindowMillis = properties.getInt(
                         SCREEN_OFF_LOW_POWER_WINDOW_MILLIS,
                         ScanManager.SCAN_MODE_SCREEN_OFF_LOW_POWER_WINDOW_MS);
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters keyed by int, updated without locks or boxing.
+ *
+ * Keys are kept in a sorted array that is copied when a key is first seen, so updates of known
+ * keys only touch their own counter. Counters saturate at {@link Long#MAX_VALUE}.
+ */
+final class CounterRegistry {
+    interface CounterConsumer {
+        void accept(int key, long value);
+    }
+
+    private static final long MILLIS_PER_HOUR = 3600L * 1000L;
+
+    // Published together, replaced under the registry lock when a key is added.
+    private static final class Table {
+        final int[] mKeys;
+        final AtomicLong[] mCounters;
+
+        Table(int[] keys, AtomicLong[] counters) {
+            mKeys = keys;
+            mCounters = counters;
+        }
+    }
+
+    private volatile Table mTable = new Table(new int[0], new AtomicLong[0]);
+    private volatile long mLastDrainMillis = SystemClock.elapsedRealtime();
+
+    /**
+     * Adds {@code delta} to the counter of {@code key}.
+     *
+     * @return false if the counter overflowed and was saturated at {@link Long#MAX_VALUE}
+     */
+    boolean add(int key, long delta) {
+        AtomicLong counter = getCounter(key);
+        while (true) {
+            long current = counter.get();
+            boolean overflow = Long.MAX_VALUE - current < delta;
+            long next = overflow ? Long.MAX_VALUE : current + delta;
+            if (counter.compareAndSet(current, next)) {
+                return !overflow;
+            }
+        }
+    }
+
+    private AtomicLong getCounter(int key) {
+        Table table = mTable;
+        int index = Arrays.binarySearch(table.mKeys, key);
+        if (index >= 0) {
+            return table.mCounters[index];
+        }
+        synchronized (this) {
+            table = mTable;
+            index = Arrays.binarySearch(table.mKeys, key);
+            if (index >= 0) {
+                return table.mCounters[index];
+            }
+            int insertion = -index - 1;
+            int size = table.mKeys.length;
+            int[] keys = new int[size + 1];
+            AtomicLong[] counters = new AtomicLong[size + 1];
+            System.arraycopy(table.mKeys, 0, keys, 0, insertion);
+            System.arraycopy(table.mCounters, 0, counters, 0, insertion);
+            System.arraycopy(table.mKeys, insertion, keys, insertion + 1, size - insertion);
+            System.arraycopy(table.mCounters, insertion, counters, insertion + 1,
+                    size - insertion);
+            keys[insertion] = key;
+            counters[insertion] = new AtomicLong();
+            mTable = new Table(keys, counters);
+            return counters[insertion];
+        }
+    }
+
+    /**
+     * Resets every counter to zero, passing the non-zero values to {@code consumer} in key order.
+     */
+    void drain(CounterConsumer consumer) {
+        mLastDrainMillis = SystemClock.elapsedRealtime();
+        Table table = mTable;
+        for (int i = 0; i < table.mKeys.length; i++) {
+            long value = table.mCounters[i].getAndSet(0);
+            if (value != 0) {
+                consumer.accept(table.mKeys[i], value);
+            }
+        }
+    }
+
+    /**
+     * Prints the non-zero counters with their rate per hour since the last drain.
+     */
+    void dump(PrintWriter writer, String prefix) {
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - mLastDrainMillis);
+        Table table = mTable;
+        for (int i = 0; i < table.mKeys.length; i++) {
+            long value = table.mCounters[i].get();
+            if (value != 0) {
+                writer.println(prefix + String.format(Locale.US, "%d: %d (%.2f/h)",
+                        table.mKeys[i], value, value * (double) MILLIS_PER_HOUR / elapsedMillis));
+            }
+        }
+    }
+}
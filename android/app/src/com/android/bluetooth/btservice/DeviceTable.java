@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Table of remote device entries keyed by the 48-bit device address packed into a long.
+ *
+ * Entries are evicted in least recently used order once more than the capacity are held.
+ * Pinned entries, such as bonded devices, are kept apart and never evicted. Secondary
+ * addresses of consolidated devices can be registered as aliases of the main address.
+ * All operations are O(1) and take the table lock.
+ */
+final class DeviceTable<V> {
+    static final long INVALID_KEY = -1;
+
+    private static final int BD_ADDR_LEN = 6;
+
+    private final int mCapacity;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<Long, V> mEvictable = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("this")
+    private final HashMap<Long, V> mPinned = new HashMap<>();
+    @GuardedBy("this")
+    private final HashMap<Long, Long> mAliases = new HashMap<>();
+
+    DeviceTable(int capacity) {
+        mCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Packs a 6-byte device address, most significant byte first, or returns
+     * {@link #INVALID_KEY} if it is malformed.
+     */
+    static long toKey(byte[] address) {
+        if (address == null || address.length != BD_ADDR_LEN) {
+            return INVALID_KEY;
+        }
+        long key = 0;
+        for (int i = 0; i < BD_ADDR_LEN; i++) {
+            key = (key << 8) | (address[i] & 0xFF);
+        }
+        return key;
+    }
+
+    /**
+     * Packs a device address of the form "00:11:22:AA:BB:CC", or returns {@link #INVALID_KEY} if
+     * it is malformed.
+     */
+    static long toKey(String address) {
+        if (address == null || address.length() != BD_ADDR_LEN * 3 - 1) {
+            return INVALID_KEY;
+        }
+        long key = 0;
+        for (int i = 0; i < BD_ADDR_LEN; i++) {
+            int high = Character.digit(address.charAt(i * 3), 16);
+            int low = Character.digit(address.charAt(i * 3 + 1), 16);
+            if (high < 0 || low < 0) {
+                return INVALID_KEY;
+            }
+            key = (key << 8) | (high << 4) | low;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the entry for the address, following an alias to its main address if the main
+     * address has an entry.
+     */
+    synchronized V get(long key) {
+        Long mainKey = mAliases.get(key);
+        if (mainKey != null) {
+            V value = getInternal(mainKey);
+            if (value != null) {
+                return value;
+            }
+        }
+        return getInternal(key);
+    }
+
+    @GuardedBy("this")
+    private V getInternal(long key) {
+        V value = mPinned.get(key);
+        return value != null ? value : mEvictable.get(key);
+    }
+
+    /**
+     * Adds or replaces the entry for the address, evicting the least recently used unpinned
+     * entry if the table is over capacity.
+     *
+     * @return the evicted entry, or null if none was evicted
+     */
+    synchronized V put(long key, V value) {
+        if (mPinned.containsKey(key)) {
+            mPinned.put(key, value);
+            return null;
+        }
+        mEvictable.put(key, value);
+        if (mEvictable.size() <= mCapacity) {
+            return null;
+        }
+        Iterator<V> eldest = mEvictable.values().iterator();
+        V evicted = eldest.next();
+        eldest.remove();
+        return evicted;
+    }
+
+    /**
+     * Pins or unpins the entry for the address. Pinned entries are not evicted and do not count
+     * against the capacity.
+     */
+    synchronized void setPinned(long key, boolean pinned) {
+        if (pinned) {
+            V value = mEvictable.remove(key);
+            if (value != null) {
+                mPinned.put(key, value);
+            }
+        } else {
+            V value = mPinned.remove(key);
+            if (value != null) {
+                mEvictable.put(key, value);
+            }
+        }
+    }
+
+    synchronized boolean isPinned(long key) {
+        return mPinned.containsKey(key);
+    }
+
+    /**
+     * Makes lookups of {@code aliasKey} return the entry of {@code mainKey}.
+     */
+    synchronized void putAlias(long aliasKey, long mainKey) {
+        mAliases.put(aliasKey, mainKey);
+    }
+
+    synchronized List<V> values() {
+        List<V> values = new ArrayList<>(mPinned.size() + mEvictable.size());
+        values.addAll(mPinned.values());
+        values.addAll(mEvictable.values());
+        return values;
+    }
+
+    synchronized int size() {
+        return mPinned.size() + mEvictable.size();
+    }
+
+    synchronized void clear() {
+        mEvictable.clear();
+        mPinned.clear();
+        mAliases.clear();
+    }
+}
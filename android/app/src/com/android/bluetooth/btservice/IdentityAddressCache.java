@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothAdapter;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maps device addresses, such as resolvable private addresses, to the identity address learned
+ * for them. Reads take no lock, so the LE scan path can resolve every advertiser cheaply.
+ *
+ * Entries are added when the stack associates an address with an identity address, and removed
+ * when the device properties holding that identity are dropped.
+ */
+final class IdentityAddressCache {
+    // Keys are upper case, as reported by the stack.
+    private final Map<String, String> mIdentityAddresses = new ConcurrentHashMap<>();
+
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+
+    void put(String address, String identityAddress) {
+        mIdentityAddresses.put(address.toUpperCase(Locale.US), identityAddress);
+    }
+
+    void remove(String address) {
+        mIdentityAddresses.remove(address.toUpperCase(Locale.US));
+    }
+
+    void clear() {
+        mIdentityAddresses.clear();
+    }
+
+    /**
+     * Returns the identity address of the device, or {@code address} itself if none is known.
+     *
+     * @throws IllegalArgumentException if {@code address} is not a valid Bluetooth address
+     */
+    String getIdentityAddress(String address) {
+        // Addresses from the stack are already upper case, only convert others.
+        String key = hasLowerCase(address) ? address.toUpperCase(Locale.US) : address;
+        String identityAddress = mIdentityAddresses.get(key);
+        if (identityAddress != null) {
+            mHits.increment();
+            return identityAddress;
+        }
+        if (!BluetoothAdapter.checkBluetoothAddress(key)) {
+            throw new IllegalArgumentException(address + " is not a valid Bluetooth address");
+        }
+        mMisses.increment();
+        return address;
+    }
+
+    private static boolean hasLowerCase(String address) {
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= 'a' && c <= 'f') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("Identity address cache: " + mIdentityAddresses.size() + " entries, hits="
+                + mHits.sum() + ", misses=" + mMisses.sum());
+    }
+}
@@ -19,6 +19,7 @@ import android.app.AlarmManager;
 import android.content.Context;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.bluetooth.BluetoothMetricsProto.BluetoothLog;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileConnectionStats;
@@ -27,16 +28,17 @@ import com.android.bluetooth.BluetoothStatsLog;
 
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
-import com.google.common.hash.Hashing;
+import com.google.common.hash.HashCode;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.regex.Pattern;
 
 /**
  * Class of Bluetooth Metrics
@@ -52,10 +54,27 @@ public class MetricsLogger {
     // 6 hours timeout for counter metrics
     private static final long BLUETOOTH_COUNTER_METRICS_ACTION_DURATION_MILLIS = 6L * 3600L * 1000L;
     private static final int MAX_WORDS_ALLOWED_IN_DEVICE_NAME = 7;
+    private static final int DEVICE_NAME_CACHE_SIZE = 256;
 
-    private static final HashMap<ProfileId, Integer> sProfileConnectionCounts = new HashMap<>();
+    private static final Pattern MULTIPLE_SPACES = Pattern.compile(" +");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-zA-Z0-9 ]");
 
-    HashMap<Integer, Long> mCounters = new HashMap<>();
+    private static final ThreadLocal<MessageDigest> sSha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "No SHA-256 in MessageDigest");
+            return null;
+        }
+    });
+
+    // Cached in place of a device name that matches nothing, LruCache does not take null.
+    private static final MatchedDeviceName NO_MATCH = new MatchedDeviceName(null, null);
+
+    // Keyed by ProfileId number.
+    private static final CounterRegistry sProfileConnectionCounts = new CounterRegistry();
+
+    private final CounterRegistry mCounters = new CounterRegistry();
     private static MetricsLogger sInstance = null;
     private Context mContext = null;
     private AlarmManager mAlarmManager = null;
@@ -63,6 +82,19 @@ public class MetricsLogger {
     static final private Object mLock = new Object();
     private BloomFilter<byte[]> mBloomFilter = null;
     protected boolean mBloomFilterInitialized = false;
+    // Normalized device name to its longest match in the bloom filter.
+    private final LruCache<String, MatchedDeviceName> mDeviceNameCache =
+            new LruCache<>(DEVICE_NAME_CACHE_SIZE);
+
+    private static final class MatchedDeviceName {
+        final String mName;
+        final String mSha256;
+
+        MatchedDeviceName(String name, String sha256) {
+            mName = name;
+            mSha256 = sha256;
+        }
+    }
 
     private AlarmManager.OnAlarmListener mOnAlarmListener = new AlarmManager.OnAlarmListener () {
         @Override
@@ -96,15 +128,15 @@ public class MetricsLogger {
             }
 
             FileInputStream in = new FileInputStream(new File(path));
-            mBloomFilter = BloomFilter.readFrom(in, Funnels.byteArrayFunnel());
+            setBloomfilter(BloomFilter.readFrom(in, Funnels.byteArrayFunnel()));
             mBloomFilterInitialized = true;
         } catch (IOException e1) {
             Log.w(TAG, "MetricsLogger can't read the BloomFilter file.");
             byte[] bloomfilterData = DeviceBloomfilterGenerator.hexStringToByteArray(
                     DeviceBloomfilterGenerator.BLOOM_FILTER_DEFAULT);
             try {
-                mBloomFilter = BloomFilter.readFrom(
-                        new ByteArrayInputStream(bloomfilterData), Funnels.byteArrayFunnel());
+                setBloomfilter(BloomFilter.readFrom(
+                        new ByteArrayInputStream(bloomfilterData), Funnels.byteArrayFunnel()));
                 mBloomFilterInitialized = true;
                 Log.i(TAG, "The default bloomfilter is used");
                 return true;
@@ -118,6 +150,7 @@ public class MetricsLogger {
 
     protected void setBloomfilter(BloomFilter bloomfilter) {
         mBloomFilter = bloomfilter;
+        mDeviceNameCache.evictAll();
     }
 
     public boolean init(Context context) {
@@ -145,18 +178,9 @@ public class MetricsLogger {
             Log.w(TAG, "count is not larger than 0. count: " + count + " key: " + key);
             return false;
         }
-        long total = 0;
-
-        synchronized (mLock) {
-            if (mCounters.containsKey(key)) {
-                total = mCounters.get(key);
-            }
-            if (Long.MAX_VALUE - total < count) {
-                Log.w(TAG, "count overflows. count: " + count + " current total: " + total);
-                mCounters.put(key, Long.MAX_VALUE);
-                return false;
-            }
-            mCounters.put(key, total + count);
+        if (!mCounters.add(key, count)) {
+            Log.w(TAG, "count overflows. count: " + count + " key: " + key);
+            return false;
         }
         return true;
     }
@@ -169,9 +193,7 @@ public class MetricsLogger {
      * @param profileId Bluetooth profile that is connected at this event
      */
     public static void logProfileConnectionEvent(ProfileId profileId) {
-        synchronized (sProfileConnectionCounts) {
-            sProfileConnectionCounts.merge(profileId, 1, Integer::sum);
-        }
+        sProfileConnectionCounts.add(profileId.getNumber(), 1);
     }
 
     /**
@@ -181,15 +203,25 @@ public class MetricsLogger {
      * @param metricsBuilder proto builder for {@link BluetoothLog}
      */
     public static void dumpProto(BluetoothLog.Builder metricsBuilder) {
-        synchronized (sProfileConnectionCounts) {
-            sProfileConnectionCounts.forEach(
-                    (key, value) -> metricsBuilder.addProfileConnectionStats(
-                            ProfileConnectionStats.newBuilder()
-                                    .setProfileId(key)
-                                    .setNumTimesConnected(value)
-                                    .build()));
-            sProfileConnectionCounts.clear();
-        }
+        sProfileConnectionCounts.drain(
+                (key, value) -> metricsBuilder.addProfileConnectionStats(
+                        ProfileConnectionStats.newBuilder()
+                                .setProfileId(ProfileId.forNumber(key))
+                                .setNumTimesConnected((int) Math.min(value, Integer.MAX_VALUE))
+                                .build()));
+    }
+
+    /**
+     * Dump the pending counters and their rates since they were last sent.
+     *
+     * @param writer the PrintWriter to write to
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("MetricsLogger:");
+        writer.println("  Buffered counters:");
+        mCounters.dump(writer, "    ");
+        writer.println("  Profile connections by ProfileId:");
+        sProfileConnectionCounts.dump(writer, "    ");
     }
 
     protected void scheduleDrains() {
@@ -221,13 +253,8 @@ public class MetricsLogger {
 
     protected void drainBufferedCounters() {
         Log.i(TAG, "drainBufferedCounters().");
-        synchronized (mLock) {
-            // send mCounters to statsd
-            for (int key : mCounters.keySet()) {
-                count(key, mCounters.get(key));
-            }
-            mCounters.clear();
-        }
+        // send mCounters to statsd
+        mCounters.drain(this::count);
     }
 
     public boolean close() {
@@ -255,45 +282,69 @@ public class MetricsLogger {
         }
 
         // remove more than one spaces in a row
-        deviceName = deviceName.trim().replaceAll(" +", " ");
+        deviceName = MULTIPLE_SPACES.matcher(deviceName.trim()).replaceAll(" ");
         // remove non alphanumeric characters and spaces, and transform to lower cases.
-        String[] words = deviceName.replaceAll(
-                "[^a-zA-Z0-9 ]", "").toLowerCase().split(" ");
+        String normalizedName =
+                NON_ALPHANUMERIC.matcher(deviceName).replaceAll("").toLowerCase();
 
+        MatchedDeviceName matched = mDeviceNameCache.get(normalizedName);
+        if (matched == null) {
+            matched = matchDeviceName(normalizedName);
+            mDeviceNameCache.put(normalizedName, matched);
+        }
+
+        // upload the sha256 of the longest matched string.
+        if (matched == NO_MATCH) {
+            return false;
+        }
+        statslogBluetoothDeviceNames(metricId, matched.mName, matched.mSha256);
+        return true;
+    }
+
+    /**
+     * Finds the longest run of contiguous words of {@code normalizedName}, joined without
+     * spaces, whose SHA-256 is in the bloom filter.
+     */
+    private MatchedDeviceName matchDeviceName(String normalizedName) {
+        String[] words = normalizedName.split(" ");
         if (words.length > MAX_WORDS_ALLOWED_IN_DEVICE_NAME) {
             // Validity checking here to avoid excessively long sequences
-            return false;
+            return NO_MATCH;
+        }
+        MessageDigest digest = sSha256.get();
+        if (digest == null) {
+            return NO_MATCH;
         }
-        // find the longest matched substring
-        String matchedString = "";
+
+        // The words are ASCII, concatenate them once and hash ranges of the buffer.
+        byte[] chars = String.join("", words).getBytes(StandardCharsets.US_ASCII);
+        int[] wordStarts = new int[words.length + 1];
+        for (int i = 0; i < words.length; i++) {
+            wordStarts[i + 1] = wordStarts[i] + words[i].length();
+        }
+
+        int matchedOffset = 0;
+        int matchedLength = 0;
         byte[] matchedSha256 = null;
         for (int start = 0; start < words.length; start++) {
-
-            String toBeMatched = "";
             for (int end = start; end < words.length; end++) {
-                toBeMatched += words[end];
-                byte[] sha256 = getSha256(toBeMatched);
-                if (sha256 == null) {
-                    continue;
-                }
-
-                if (mBloomFilter.mightContain(sha256)
-                        && toBeMatched.length() > matchedString.length()) {
-                    matchedString = toBeMatched;
+                int length = wordStarts[end + 1] - wordStarts[start];
+                digest.update(chars, wordStarts[start], length);
+                byte[] sha256 = digest.digest();
+                if (mBloomFilter.mightContain(sha256) && length > matchedLength) {
+                    matchedOffset = wordStarts[start];
+                    matchedLength = length;
                     matchedSha256 = sha256;
                 }
             }
         }
 
-        // upload the sha256 of the longest matched string.
         if (matchedSha256 == null) {
-            return false;
+            return NO_MATCH;
         }
-        statslogBluetoothDeviceNames(
-                metricId,
-                matchedString,
-                Hashing.sha256().hashString(matchedString, StandardCharsets.UTF_8).toString());
-        return true;
+        return new MatchedDeviceName(
+                new String(chars, matchedOffset, matchedLength, StandardCharsets.US_ASCII),
+                HashCode.fromBytes(matchedSha256).toString());
     }
 
     protected void statslogBluetoothDeviceNames(int metricId, String matchedString, String sha256) {
@@ -304,11 +355,8 @@ public class MetricsLogger {
     }
 
     protected static byte[] getSha256(String name) {
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            Log.w(TAG, "No SHA-256 in MessageDigest");
+        MessageDigest digest = sSha256.get();
+        if (digest == null) {
             return null;
         }
         return digest.digest(name.getBytes(StandardCharsets.UTF_8));
@@ -49,11 +49,9 @@ import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -61,8 +59,10 @@ final class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
+    // Maximum number of unbonded device properties to remember
     private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    private static final String MAX_DEVICE_QUEUE_SIZE_PROPERTY =
+            "persist.bluetooth.remote_devices.max_cached";
 
     private static BluetoothAdapter sAdapter;
     private static AdapterService sAdapterService;
@@ -72,9 +72,8 @@ final class RemoteDevices {
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private Queue<String> mDeviceQueue;
+    private final DeviceTable<DeviceProperties> mDevices;
+    private final IdentityAddressCache mIdentityAddressCache = new IdentityAddressCache();
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -168,9 +167,8 @@ final class RemoteDevices {
         sAdapter = BluetoothAdapter.getDefaultAdapter();
         sAdapterService = service;
         sSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new LinkedList<String>();
+        mDevices = new DeviceTable<DeviceProperties>(SystemProperties.getInt(
+                MAX_DEVICE_QUEUE_SIZE_PROPERTY, MAX_DEVICE_QUEUE_SIZE));
         mHandler = new RemoteDevicesHandler(looper);
     }
 
@@ -210,33 +208,24 @@ final class RemoteDevices {
         }
 
         synchronized (mDevices) {
-            if (mDevices != null) {
-                debugLog("reset(): Broadcasting ACL_DISCONNECTED");
+            debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                mDevices.forEach((address, deviceProperties) -> {
-                    BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
+            for (DeviceProperties deviceProperties : mDevices.values()) {
+                BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
 
-                    debugLog("reset(): address=" + address + ", connected="
-                            + bluetoothDevice.isConnected());
+                debugLog("reset(): address=" + bluetoothDevice.getAddress() + ", connected="
+                        + bluetoothDevice.isConnected());
 
-                    if (bluetoothDevice.isConnected()) {
-                        Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
-                        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
-                        intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
-                                | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-                        sAdapterService.sendBroadcast(intent, AdapterService.BLUETOOTH_PERM);
-                    }
-                });
-                mDevices.clear();
+                if (bluetoothDevice.isConnected()) {
+                    Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+                    intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
+                    intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
+                            | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
+                    sAdapterService.sendBroadcast(intent, AdapterService.BLUETOOTH_PERM);
+                }
             }
-        }
-
-        if (mDualDevicesMap != null) {
-            mDualDevicesMap.clear();
-        }
-
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
+            mDevices.clear();
+            mIdentityAddressCache.clear();
         }
     }
 
@@ -246,25 +235,12 @@ final class RemoteDevices {
     }
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
-        }
+        // The device address is resolved through the dual device aliases first
+        return mDevices.get(DeviceTable.toKey(device.getAddress()));
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
-        }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
+        DeviceProperties prop = mDevices.get(DeviceTable.toKey(address));
         if (prop != null) {
             return prop.getDevice();
         }
@@ -273,28 +249,27 @@ final class RemoteDevices {
 
     @VisibleForTesting
     DeviceProperties addDeviceProperties(byte[] address) {
-        synchronized (mDevices) {
-            DeviceProperties prop = new DeviceProperties();
-            prop.mDevice = sAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address));
-            prop.mAddress = address;
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
-
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : sAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
-                }
-            }
-            return prop;
-        }
+        DeviceProperties prop = new DeviceProperties();
+        prop.mDevice = sAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address));
+        prop.mAddress = address;
+        DeviceProperties evicted = mDevices.put(DeviceTable.toKey(address), prop);
+        if (evicted != null) {
+            debugLog("Removing device " + evicted.getDevice() + " from property map");
+            mIdentityAddressCache.remove(evicted.getDevice().getAddress());
+        }
+        return prop;
+    }
+
+    /**
+     * Returns the identity address of the device, or {@code address} itself if none is known.
+     * Does not take any lock.
+     */
+    String getIdentityAddress(String address) {
+        return mIdentityAddressCache.getIdentityAddress(address);
+    }
+
+    void dumpIdentityAddressCache(PrintWriter writer) {
+        mIdentityAddressCache.dump(writer);
     }
 
     class DeviceProperties {
@@ -440,6 +415,9 @@ final class RemoteDevices {
                 }
                 mBondState = newBondState;
             }
+            // Devices being bonded or bonded are never evicted from the property map
+            mDevices.setPinned(DeviceTable.toKey(mAddress),
+                    newBondState != BluetoothDevice.BOND_NONE);
         }
 
         /**
@@ -819,7 +797,8 @@ final class RemoteDevices {
         deviceProperties.mIsConsolidated = true;
         deviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
         deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
-        mDualDevicesMap.put(deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
+        mDevices.putAlias(DeviceTable.toKey(secondaryAddress), DeviceTable.toKey(mainAddress));
+        mIdentityAddressCache.put(device.getAddress(), deviceProperties.mIdentityAddress);
     }
 
     /**
@@ -841,6 +820,7 @@ final class RemoteDevices {
 
         DeviceProperties deviceProperties = getDeviceProperties(device);
         deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
+        mIdentityAddressCache.put(device.getAddress(), deviceProperties.mIdentityAddress);
     }
 
     void aclStateChangeCallback(int status, byte[] address, int newState,
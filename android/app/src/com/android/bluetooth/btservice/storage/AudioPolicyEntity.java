@@ -20,6 +20,7 @@ import android.bluetooth.BluetoothSinkAudioPolicy;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 
 @Entity
 class AudioPolicyEntity {
@@ -43,6 +44,13 @@ class AudioPolicyEntity {
         this.inBandRingtoneAudioPolicy = inBandRingtoneAudioPolicy;
     }
 
+    @Ignore
+    AudioPolicyEntity(AudioPolicyEntity other) {
+        callEstablishAudioPolicy = other.callEstablishAudioPolicy;
+        connectingTimeAudioPolicy = other.connectingTimeAudioPolicy;
+        inBandRingtoneAudioPolicy = other.inBandRingtoneAudioPolicy;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("callEstablishAudioPolicy=")
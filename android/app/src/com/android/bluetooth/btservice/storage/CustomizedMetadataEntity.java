@@ -17,6 +17,7 @@
 package com.android.bluetooth.btservice.storage;
 
 import androidx.room.Entity;
+import androidx.room.Ignore;
 
 @Entity
 class CustomizedMetadataEntity {
@@ -50,6 +51,42 @@ class CustomizedMetadataEntity {
     public byte[] gmcs_cccd;
     public byte[] gtbs_cccd;
 
+    CustomizedMetadataEntity() {
+    }
+
+    @Ignore
+    CustomizedMetadataEntity(CustomizedMetadataEntity other) {
+        manufacturer_name = other.manufacturer_name;
+        model_name = other.model_name;
+        software_version = other.software_version;
+        hardware_version = other.hardware_version;
+        companion_app = other.companion_app;
+        main_icon = other.main_icon;
+        is_untethered_headset = other.is_untethered_headset;
+        untethered_left_icon = other.untethered_left_icon;
+        untethered_right_icon = other.untethered_right_icon;
+        untethered_case_icon = other.untethered_case_icon;
+        untethered_left_battery = other.untethered_left_battery;
+        untethered_right_battery = other.untethered_right_battery;
+        untethered_case_battery = other.untethered_case_battery;
+        untethered_left_charging = other.untethered_left_charging;
+        untethered_right_charging = other.untethered_right_charging;
+        untethered_case_charging = other.untethered_case_charging;
+        enhanced_settings_ui_uri = other.enhanced_settings_ui_uri;
+        device_type = other.device_type;
+        main_battery = other.main_battery;
+        main_charging = other.main_charging;
+        main_low_battery_threshold = other.main_low_battery_threshold;
+        untethered_left_low_battery_threshold = other.untethered_left_low_battery_threshold;
+        untethered_right_low_battery_threshold = other.untethered_right_low_battery_threshold;
+        untethered_case_low_battery_threshold = other.untethered_case_low_battery_threshold;
+        spatial_audio = other.spatial_audio;
+        fastpair_customized = other.fastpair_customized;
+        le_audio = other.le_audio;
+        gmcs_cccd = other.gmcs_cccd;
+        gtbs_cccd = other.gtbs_cccd;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("manufacturer_name=")
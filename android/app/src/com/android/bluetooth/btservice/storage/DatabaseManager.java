@@ -40,6 +40,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.common.collect.EvictingQueue;
@@ -48,6 +49,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -70,11 +72,28 @@ public class DatabaseManager {
 
     @VisibleForTesting
     final Map<String, Metadata> mMetadataCache = new HashMap<>();
+    // Updated with mMetadataCache held, read without it.
+    private final RecencyIndex mRecencyIndex = new RecencyIndex();
+    private volatile String mActiveA2dpDeviceAddress = null;
     private final Semaphore mSemaphore = new Semaphore(1);
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
 
+    // Snapshots of the metadata waiting to be written, by address. Updates made within
+    // WRITE_DELAY_MS of the first pending one are coalesced and written in one transaction.
+    @GuardedBy("mPendingWrites")
+    private final Map<String, Metadata> mPendingWrites = new LinkedHashMap<>();
+    @GuardedBy("mPendingWrites")
+    private long mUpdateCount = 0;
+    @GuardedBy("mPendingWrites")
+    private long mCoalescedCount = 0;
+    @GuardedBy("mPendingWrites")
+    private long mTransactionCount = 0;
+    @VisibleForTesting
+    long mWriteDelayMs = WRITE_DELAY_MS;
+
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
+    private static final int WRITE_DELAY_MS = 100;
     private static final int MSG_LOAD_DATABASE = 0;
     private static final int MSG_UPDATE_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
@@ -141,10 +160,7 @@ public class DatabaseManager {
                     break;
                 }
                 case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabase) {
-                        mDatabase.insert(data);
-                    }
+                    flushPendingWrites();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -208,6 +224,10 @@ public class DatabaseManager {
                 Metadata metadata = mMetadataCache.get(address);
                 if (metadata != null) {
                     mMetadataCache.remove(address);
+                    mRecencyIndex.remove(address);
+                    if (address.equals(mActiveA2dpDeviceAddress)) {
+                        mActiveA2dpDeviceAddress = null;
+                    }
                     deleteDatabase(metadata);
                 }
             }
@@ -614,7 +634,9 @@ public class DatabaseManager {
             // Only update is_active_a2dp_device if an a2dp device is connected
             if (isA2dpDevice) {
                 metadata.is_active_a2dp_device = true;
+                mActiveA2dpDeviceAddress = address;
             }
+            mRecencyIndex.update(address, metadata.last_active_time);
 
             Log.d(TAG, "Updating last connected time for device: " + device.getAnonymizedAddress()
                     + " to " + metadata.last_active_time);
@@ -643,6 +665,9 @@ public class DatabaseManager {
             Metadata metadata = mMetadataCache.get(address);
             if (metadata.is_active_a2dp_device) {
                 metadata.is_active_a2dp_device = false;
+                if (address.equals(mActiveA2dpDeviceAddress)) {
+                    mActiveA2dpDeviceAddress = null;
+                }
                 Log.d(TAG, "setDisconnection: Updating is_active_device to false for device: "
                         + device);
                 updateDatabase(metadata);
@@ -656,6 +681,7 @@ public class DatabaseManager {
     private void resetActiveA2dpDevice() {
         synchronized (mMetadataCache) {
             Log.d(TAG, "resetActiveA2dpDevice()");
+            mActiveA2dpDeviceAddress = null;
             for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
                 Metadata metadata = entry.getValue();
                 if (metadata.is_active_a2dp_device) {
@@ -676,17 +702,13 @@ public class DatabaseManager {
      */
     public List<BluetoothDevice> getMostRecentlyConnectedDevices() {
         List<BluetoothDevice> mostRecentlyConnectedDevices = new ArrayList<>();
-        synchronized (mMetadataCache) {
-            List<Metadata> sortedMetadata = new ArrayList<>(mMetadataCache.values());
-            sortedMetadata.sort((o1, o2) -> Long.compare(o2.last_active_time, o1.last_active_time));
-            for (Metadata metadata : sortedMetadata) {
-                try {
-                    mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
-                            .getRemoteDevice(metadata.getAddress()));
-                } catch (IllegalArgumentException ex) {
-                    Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
-                            + "device " + metadata.getAddress());
-                }
+        for (String address : mRecencyIndex.getAddresses()) {
+            try {
+                mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteDevice(address));
+            } catch (IllegalArgumentException ex) {
+                Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
+                        + "device " + address);
             }
         }
         return mostRecentlyConnectedDevices;
@@ -706,22 +728,7 @@ public class DatabaseManager {
         if (devicesList == null) {
             return null;
         }
-
-        BluetoothDevice mostRecentDevice = null;
-        long mostRecentLastActiveTime = -1;
-        synchronized (mMetadataCache) {
-            for (BluetoothDevice device : devicesList) {
-                String address = device.getAddress();
-                Metadata metadata = mMetadataCache.get(address);
-                if (metadata != null && (mostRecentLastActiveTime == -1
-                            || mostRecentLastActiveTime < metadata.last_active_time)) {
-                    mostRecentLastActiveTime = metadata.last_active_time;
-                    mostRecentDevice = device;
-                }
-
-            }
-        }
-        return mostRecentDevice;
+        return mRecencyIndex.getMostRecent(devicesList);
     }
 
     /**
@@ -730,19 +737,15 @@ public class DatabaseManager {
      * @return the most recently active a2dp device or null if the last a2dp device was null
      */
     public BluetoothDevice getMostRecentlyConnectedA2dpDevice() {
-        synchronized (mMetadataCache) {
-            for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-                Metadata metadata = entry.getValue();
-                if (metadata.is_active_a2dp_device) {
-                    try {
-                        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(
-                                metadata.getAddress());
-                    } catch (IllegalArgumentException ex) {
-                        Log.d(TAG, "getMostRecentlyConnectedA2dpDevice: Invalid address for "
-                                + "device " + metadata.getAddress());
-                    }
-                }
-            }
+        String address = mActiveA2dpDeviceAddress;
+        if (address == null) {
+            return null;
+        }
+        try {
+            return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        } catch (IllegalArgumentException ex) {
+            Log.d(TAG, "getMostRecentlyConnectedA2dpDevice: Invalid address for "
+                    + "device " + address);
         }
         return null;
     }
@@ -824,6 +827,10 @@ public class DatabaseManager {
      */
     public void factoryReset() {
         Log.w(TAG, "factoryReset");
+        synchronized (mPendingWrites) {
+            // Everything is about to be deleted, no need to write it first.
+            mPendingWrites.clear();
+        }
         Message message = mHandler.obtainMessage(MSG_CLEAR_DATABASE);
         mHandler.sendMessage(message);
     }
@@ -835,16 +842,25 @@ public class DatabaseManager {
         removeUnusedMetadata();
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
+            // Pending messages are dropped when the thread quits, write the metadata now.
+            mHandler.removeMessages(MSG_UPDATE_DATABASE);
+            flushPendingWrites();
             mHandlerThread.quit();
             mHandlerThread = null;
         }
         mMetadataCache.clear();
+        mRecencyIndex.clear();
+        mActiveA2dpDeviceAddress = null;
     }
 
     void createMetadata(String address, boolean isActiveA2dpDevice) {
         Metadata data = new Metadata(address);
         data.is_active_a2dp_device = isActiveA2dpDevice;
         mMetadataCache.put(address, data);
+        mRecencyIndex.update(address, data.last_active_time);
+        if (isActiveA2dpDevice) {
+            mActiveA2dpDeviceAddress = address;
+        }
         updateDatabase(data);
         logMetadataChange(address, "Metadata created");
     }
@@ -885,10 +901,30 @@ public class DatabaseManager {
                 Log.v(TAG, "cacheMetadata: found device " + data.getAnonymizedAddress());
                 mMetadataCache.put(address, data);
             }
+            rebuildRecencyIndex();
             Log.i(TAG, "cacheMetadata: Database is ready");
         }
     }
 
+    private void rebuildRecencyIndex() {
+        synchronized (mMetadataCache) {
+            mRecencyIndex.clear();
+            Metadata activeA2dpDevice = null;
+            for (Metadata metadata : mMetadataCache.values()) {
+                if (metadata.getAddress().equals(LOCAL_STORAGE)) {
+                    continue;
+                }
+                mRecencyIndex.update(metadata.getAddress(), metadata.last_active_time);
+                if (metadata.is_active_a2dp_device && (activeA2dpDevice == null
+                        || activeA2dpDevice.last_active_time < metadata.last_active_time)) {
+                    activeA2dpDevice = metadata;
+                }
+            }
+            mActiveA2dpDeviceAddress =
+                    activeA2dpDevice != null ? activeA2dpDevice.getAddress() : null;
+        }
+    }
+
     boolean isMigrated(List<Metadata> list) {
         for (Metadata data : list) {
             String address = data.getAddress();
@@ -1090,9 +1126,36 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingWrites) {
+            mUpdateCount++;
+            boolean flushScheduled = !mPendingWrites.isEmpty();
+            // Take a snapshot, the cached metadata keeps changing on other threads.
+            if (mPendingWrites.put(data.getAddress(), new Metadata(data)) != null) {
+                mCoalescedCount++;
+            }
+            if (!flushScheduled) {
+                mHandler.sendEmptyMessageDelayed(MSG_UPDATE_DATABASE, mWriteDelayMs);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending metadata to the database in a single transaction.
+     */
+    private void flushPendingWrites() {
+        // Hold the database lock while taking the batch so that batches are written in order.
+        synchronized (mDatabase) {
+            Metadata[] batch;
+            synchronized (mPendingWrites) {
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                batch = mPendingWrites.values().toArray(new Metadata[0]);
+                mPendingWrites.clear();
+                mTransactionCount++;
+            }
+            mDatabase.insert(batch);
+        }
     }
 
     @VisibleForTesting
@@ -1103,6 +1166,9 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(address, "Metadata deleted");
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1161,6 +1227,11 @@ public class DatabaseManager {
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
         }
+        synchronized (mPendingWrites) {
+            writer.println("  Writes: updates=" + mUpdateCount + ", coalesced=" + mCoalescedCount
+                    + ", transactions=" + mTransactionCount + ", saved="
+                    + (mUpdateCount - mTransactionCount) + ", pending=" + mPendingWrites.size());
+        }
         writer.println("\nMetadata:");
         for (HashMap.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
             if (entry.getKey().equals(LOCAL_STORAGE)) {
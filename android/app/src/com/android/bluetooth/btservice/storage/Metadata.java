@@ -26,6 +26,7 @@ import android.bluetooth.BluetoothUtils;
 import androidx.annotation.NonNull;
 import androidx.room.Embedded;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -91,6 +92,25 @@ public class Metadata {
         preferred_duplex_profile = 0;
     }
 
+    /**
+     * Creates a snapshot of {@code other} that is not affected by later changes to it. The
+     * customized metadata values are shared, as they are replaced rather than modified.
+     */
+    @Ignore
+    Metadata(Metadata other) {
+        address = other.address;
+        migrated = other.migrated;
+        profileConnectionPolicies = new ProfilePrioritiesEntity(other.profileConnectionPolicies);
+        publicMetadata = new CustomizedMetadataEntity(other.publicMetadata);
+        a2dpSupportsOptionalCodecs = other.a2dpSupportsOptionalCodecs;
+        a2dpOptionalCodecsEnabled = other.a2dpOptionalCodecsEnabled;
+        last_active_time = other.last_active_time;
+        is_active_a2dp_device = other.is_active_a2dp_device;
+        audioPolicyMetadata = new AudioPolicyEntity(other.audioPolicyMetadata);
+        preferred_output_only_profile = other.preferred_output_only_profile;
+        preferred_duplex_profile = other.preferred_duplex_profile;
+    }
+
     /**
      * @hide
      */
@@ -19,6 +19,7 @@ package com.android.bluetooth.btservice.storage;
 import android.bluetooth.BluetoothProfile;
 
 import androidx.room.Entity;
+import androidx.room.Ignore;
 
 @Entity
 class ProfilePrioritiesEntity {
@@ -65,6 +66,29 @@ class ProfilePrioritiesEntity {
         battery_connection_policy = BluetoothProfile.CONNECTION_POLICY_UNKNOWN;
     }
 
+    @Ignore
+    ProfilePrioritiesEntity(ProfilePrioritiesEntity other) {
+        a2dp_connection_policy = other.a2dp_connection_policy;
+        a2dp_sink_connection_policy = other.a2dp_sink_connection_policy;
+        hfp_connection_policy = other.hfp_connection_policy;
+        hfp_client_connection_policy = other.hfp_client_connection_policy;
+        hid_host_connection_policy = other.hid_host_connection_policy;
+        pan_connection_policy = other.pan_connection_policy;
+        pbap_connection_policy = other.pbap_connection_policy;
+        pbap_client_connection_policy = other.pbap_client_connection_policy;
+        map_connection_policy = other.map_connection_policy;
+        sap_connection_policy = other.sap_connection_policy;
+        hearing_aid_connection_policy = other.hearing_aid_connection_policy;
+        hap_client_connection_policy = other.hap_client_connection_policy;
+        map_client_connection_policy = other.map_client_connection_policy;
+        le_audio_connection_policy = other.le_audio_connection_policy;
+        volume_control_connection_policy = other.volume_control_connection_policy;
+        csip_set_coordinator_connection_policy = other.csip_set_coordinator_connection_policy;
+        le_call_control_connection_policy = other.le_call_control_connection_policy;
+        bass_client_connection_policy = other.bass_client_connection_policy;
+        battery_connection_policy = other.battery_connection_policy;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("A2DP=").append(a2dp_connection_policy)
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Addresses of the cached devices ordered by last_active_time, most recent first.
+ *
+ * Kept up to date by {@link DatabaseManager} as connection times change, so that recency
+ * queries neither sort the metadata cache nor take its lock.
+ */
+final class RecencyIndex {
+    private static final Comparator<Entry> MOST_RECENT_FIRST =
+            Comparator.<Entry>comparingLong(entry -> entry.mLastActiveTime).reversed()
+                    .thenComparing(entry -> entry.mAddress);
+
+    @GuardedBy("this")
+    private final TreeSet<Entry> mEntries = new TreeSet<>(MOST_RECENT_FIRST);
+    @GuardedBy("this")
+    private final Map<String, Entry> mEntriesByAddress = new HashMap<>();
+
+    private static final class Entry {
+        final String mAddress;
+        final long mLastActiveTime;
+
+        Entry(String address, long lastActiveTime) {
+            mAddress = address;
+            mLastActiveTime = lastActiveTime;
+        }
+    }
+
+    synchronized void update(String address, long lastActiveTime) {
+        Entry entry = mEntriesByAddress.get(address);
+        if (entry != null) {
+            if (entry.mLastActiveTime == lastActiveTime) {
+                return;
+            }
+            mEntries.remove(entry);
+        }
+        entry = new Entry(address, lastActiveTime);
+        mEntries.add(entry);
+        mEntriesByAddress.put(address, entry);
+    }
+
+    synchronized void remove(String address) {
+        Entry entry = mEntriesByAddress.remove(address);
+        if (entry != null) {
+            mEntries.remove(entry);
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mEntriesByAddress.clear();
+    }
+
+    /**
+     * Returns the addresses, most recently active first.
+     */
+    synchronized List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            addresses.add(entry.mAddress);
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the most recently active device of {@code devices}, or null if none of them is
+     * indexed. The first one in the list wins ties.
+     */
+    synchronized BluetoothDevice getMostRecent(List<BluetoothDevice> devices) {
+        BluetoothDevice mostRecentDevice = null;
+        long mostRecentLastActiveTime = 0;
+        for (BluetoothDevice device : devices) {
+            Entry entry = mEntriesByAddress.get(device.getAddress());
+            if (entry != null && (mostRecentDevice == null
+                    || mostRecentLastActiveTime < entry.mLastActiveTime)) {
+                mostRecentLastActiveTime = entry.mLastActiveTime;
+                mostRecentDevice = device;
+            }
+        }
+        return mostRecentDevice;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cursor over the records of a batch scan report, reading each field straight from the report
+ * buffer.
+ *
+ * Truncated records are {@link #TRUNCATED_RESULT_SIZE} bytes: a reversed device address, the
+ * address type, the tx power, the RSSI and a 2-byte timestamp. Full records have the same header
+ * followed by the length-prefixed advertising packet and scan response packet.
+ * @hide
+ */
+/* package */ class BatchScanRecordCursor {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "BatchScanRecordCursor";
+
+    static final int TRUNCATED_RESULT_SIZE = 11;
+    private static final int MAC_ADDRESS_LENGTH = 6;
+    private static final int RSSI_OFFSET = 8;
+    private static final int TIME_STAMP_OFFSET = 9;
+    private static final int TIME_STAMP_LENGTH = 2;
+    // Full records start with the truncated record header.
+    private static final int FULL_RESULT_HEADER_SIZE = TRUNCATED_RESULT_SIZE;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final boolean mTruncated;
+    private final int mNumRecords;
+    private final byte[] mBatchRecord;
+    private final long mNowNanos;
+    private final BluetoothAdapter mAdapter;
+    private final char[] mAddressChars = new char[MAC_ADDRESS_LENGTH * 3 - 1];
+
+    private int mPosition;
+    private int mRecordsRead;
+    // Truncated results carry no advertising data, they all share one empty scan record.
+    private ScanRecord mEmptyScanRecord;
+
+    BatchScanRecordCursor(boolean truncated, int numRecords, byte[] batchRecord, long nowNanos) {
+        mTruncated = truncated;
+        mNumRecords = numRecords;
+        mBatchRecord = batchRecord;
+        mNowNanos = nowNanos;
+        mAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
+
+    /**
+     * Returns whether another complete record can be read from the report.
+     */
+    boolean hasNext() {
+        if (mBatchRecord == null) {
+            return false;
+        }
+        if (mTruncated) {
+            return mRecordsRead < mNumRecords
+                    && mPosition + TRUNCATED_RESULT_SIZE <= mBatchRecord.length;
+        }
+        if (mPosition >= mBatchRecord.length) {
+            return false;
+        }
+        if (getFullRecordLength() < 0) {
+            Log.e(TAG, "Malformed batch scan record at " + mPosition + ", dropping the rest");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next record. Must only be called after {@link #hasNext()} returned true.
+     */
+    ScanResult next() {
+        int start = mPosition;
+        BluetoothDevice device = mAdapter.getRemoteDevice(readReversedAddress(start));
+        int rssi = mBatchRecord[start + RSSI_OFFSET];
+        long timestampNanos = mNowNanos
+                - parseTimestampNanos(mBatchRecord, start + TIME_STAMP_OFFSET);
+        mRecordsRead++;
+
+        if (mTruncated) {
+            mPosition += TRUNCATED_RESULT_SIZE;
+            if (mEmptyScanRecord == null) {
+                mEmptyScanRecord = ScanRecord.parseFromBytes(new byte[0]);
+            }
+            return new ScanResult(device, mEmptyScanRecord, rssi, timestampNanos);
+        }
+
+        // Combine advertise packet and scan response packet.
+        int position = start + FULL_RESULT_HEADER_SIZE;
+        int advertisePacketLen = mBatchRecord[position] & 0xFF;
+        int scanResponsePacketLen = mBatchRecord[position + 1 + advertisePacketLen] & 0xFF;
+        byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
+        System.arraycopy(mBatchRecord, position + 1, scanRecord, 0, advertisePacketLen);
+        System.arraycopy(mBatchRecord, position + 2 + advertisePacketLen, scanRecord,
+                advertisePacketLen, scanResponsePacketLen);
+        mPosition = position + 2 + advertisePacketLen + scanResponsePacketLen;
+        if (DBG) {
+            Log.d(TAG, "ScanRecord length: " + scanRecord.length);
+        }
+        return new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
+                timestampNanos);
+    }
+
+    // Returns the length of the full record at the cursor, or -1 if it overruns the report.
+    private int getFullRecordLength() {
+        int position = mPosition + FULL_RESULT_HEADER_SIZE;
+        if (position >= mBatchRecord.length) {
+            return -1;
+        }
+        position += 1 + (mBatchRecord[position] & 0xFF);
+        if (position >= mBatchRecord.length) {
+            return -1;
+        }
+        position += 1 + (mBatchRecord[position] & 0xFF);
+        if (position > mBatchRecord.length) {
+            return -1;
+        }
+        return position - mPosition;
+    }
+
+    // The address is stored in reverse byte order.
+    private String readReversedAddress(int start) {
+        int c = 0;
+        for (int i = MAC_ADDRESS_LENGTH - 1; i >= 0; i--) {
+            int b = mBatchRecord[start + i] & 0xFF;
+            mAddressChars[c++] = HEX_DIGITS[b >> 4];
+            mAddressChars[c++] = HEX_DIGITS[b & 0x0F];
+            if (i > 0) {
+                mAddressChars[c++] = ':';
+            }
+        }
+        return new String(mAddressChars);
+    }
+
+    /**
+     * Parses the little endian timestamp at {@code offset}, counted in units of 50 ms.
+     */
+    static long parseTimestampNanos(byte[] data, int offset) {
+        long timestampUnit = 0;
+        for (int i = TIME_STAMP_LENGTH - 1; i >= 0; i--) {
+            timestampUnit = (timestampUnit << 8) | (data[offset + i] & 0xFF);
+        }
+        // Timestamp is in every 50 ms.
+        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
+    }
+}
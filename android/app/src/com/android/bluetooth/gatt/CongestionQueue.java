@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * Bounded FIFO of the callbacks held for an app while its link is congested.
+ *
+ * A write callback for the same handle as the newest queued one replaces it rather than taking
+ * another slot. Once the queue is full the oldest callback is dropped, since the stack cannot be
+ * held back from the callback thread.
+ * @hide
+ */
+/* package */ class CongestionQueue {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "CongestionQueue";
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final int mCapacity;
+
+    @GuardedBy("this")
+    private final ArrayDeque<CallbackInfo> mQueue = new ArrayDeque<>();
+    @GuardedBy("this")
+    private int mHighWaterMark;
+    @GuardedBy("this")
+    private long mCoalescedCount;
+    @GuardedBy("this")
+    private long mDroppedCount;
+
+    CongestionQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    CongestionQueue(int capacity) {
+        mCapacity = capacity;
+    }
+
+    synchronized void add(CallbackInfo callbackInfo) {
+        CallbackInfo last = mQueue.peekLast();
+        if (last != null && callbackInfo.handle != 0 && last.handle == callbackInfo.handle
+                && last.status == callbackInfo.status
+                && Objects.equals(last.address, callbackInfo.address)) {
+            last.value = callbackInfo.value;
+            mCoalescedCount++;
+            return;
+        }
+        if (mQueue.size() >= mCapacity) {
+            mQueue.pollFirst();
+            if (mDroppedCount++ == 0) {
+                Log.w(TAG, "Congestion queue full, dropping oldest callbacks");
+            }
+        }
+        mQueue.addLast(callbackInfo);
+        mHighWaterMark = Math.max(mHighWaterMark, mQueue.size());
+    }
+
+    /**
+     * Returns the oldest queued callback, or null if there is none.
+     */
+    synchronized CallbackInfo poll() {
+        return mQueue.pollFirst();
+    }
+
+    synchronized int size() {
+        return mQueue.size();
+    }
+
+    synchronized int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("queued=").append(mQueue.size())
+                .append(", highWaterMark=").append(mHighWaterMark)
+                .append("/").append(mCapacity)
+                .append(", coalesced=").append(mCoalescedCount)
+                .append(", dropped=").append(mDroppedCount);
+    }
+}
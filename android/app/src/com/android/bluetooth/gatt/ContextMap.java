@@ -43,6 +43,8 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Helper class that keeps track of registered GATT applications.
@@ -123,7 +125,10 @@ public class ContextMap<C, T> {
         public List<String> mAssociatedDevices;
 
         /** Internal callback info queue, waiting to be send on congestion clear */
-        private List<CallbackInfo> mCongestionQueue = new ArrayList<CallbackInfo>();
+        private final CongestionQueue mCongestionQueue = new CongestionQueue();
+
+        /** Set once the app is removed, so stale index entries are ignored */
+        private volatile boolean mRemoved;
 
         /**
          * Creates a new app context.
@@ -181,17 +186,24 @@ public class ContextMap<C, T> {
         }
 
         CallbackInfo popQueuedCallback() {
-            if (mCongestionQueue.size() == 0) {
-                return null;
-            }
-            return mCongestionQueue.remove(0);
+            return mCongestionQueue.poll();
+        }
+
+        CongestionQueue getCongestionQueue() {
+            return mCongestionQueue;
         }
     }
 
-    /** Our internal application list */
+    /** Our internal application list, modified under mAppsLock and read without locking */
     private final Object mAppsLock = new Object();
-    @GuardedBy("mAppsLock")
-    private List<App> mApps = new ArrayList<App>();
+    private final List<App> mApps = new CopyOnWriteArrayList<App>();
+
+    /**
+     * Lookup caches in front of mApps. App ids are assigned after registration, so entries are
+     * filled on the first lookup and checked against the app before being returned.
+     */
+    private final Map<Integer, App> mAppsById = new ConcurrentHashMap<>();
+    private final Map<UUID, App> mAppsByUuid = new ConcurrentHashMap<>();
 
     /** Internal map to keep track of logging information by app name */
     private HashMap<Integer, AppScanStats> mAppScanStats = new HashMap<Integer, AppScanStats>();
@@ -205,8 +217,12 @@ public class ContextMap<C, T> {
     private final EvictingQueue<AppAdvertiseStats> mLastAdvertises =
             EvictingQueue.create(ADVERTISE_STATE_MAX_SIZE);
 
-    /** Internal list of connected devices **/
-    private Set<Connection> mConnections = new HashSet<Connection>();
+    /** Internal indexes of connected devices, modified under mConnectionsLock **/
+    private final Object mConnectionsLock = new Object();
+    private final Map<Integer, Connection> mConnectionsByConnId = new ConcurrentHashMap<>();
+    // Connections of each app in the order they were added, an app may have several connections
+    // to the same device.
+    private final Map<Integer, List<Connection>> mConnectionsByAppId = new ConcurrentHashMap<>();
 
     /**
      * Add an entry to the application context list.
@@ -218,7 +234,7 @@ public class ContextMap<C, T> {
             // Assign an app name if one isn't found
             appName = "Unknown App (UID: " + appUid + ")";
         }
-        synchronized (mApps) {
+        synchronized (mAppsLock) {
             AppScanStats appScanStats = mAppScanStats.get(appUid);
             if (appScanStats == null) {
                 appScanStats = new AppScanStats(appName, workSource, this, service);
@@ -259,18 +275,26 @@ public class ContextMap<C, T> {
         }
     }
 
+    /**
+     * Add an application context created by the caller, without scan or advertise statistics.
+     */
+    @VisibleForTesting
+    void add(App app) {
+        synchronized (mAppsLock) {
+            mApps.add(app);
+        }
+    }
+
     /**
      * Remove the context for a given UUID
      */
     void remove(UUID uuid) {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
+        synchronized (mAppsLock) {
+            for (App entry : mApps) {
+                if (uuid.equals(entry.uuid)) {
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
-                    i.remove();
+                    removeApp(entry);
                     break;
                 }
             }
@@ -282,15 +306,13 @@ public class ContextMap<C, T> {
      */
     void remove(int id) {
         boolean find = false;
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
+        synchronized (mAppsLock) {
+            for (App entry : mApps) {
                 if (entry.id == id) {
                     find = true;
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
-                    i.remove();
+                    removeApp(entry);
                     break;
                 }
             }
@@ -300,14 +322,18 @@ public class ContextMap<C, T> {
         }
     }
 
+    @GuardedBy("mAppsLock")
+    private void removeApp(App entry) {
+        entry.mRemoved = true;
+        mApps.remove(entry);
+        mAppsById.values().remove(entry);
+        mAppsByUuid.values().remove(entry);
+    }
+
     List<Integer> getAllAppsIds() {
         List<Integer> appIds = new ArrayList();
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                appIds.add(entry.id);
-            }
+        for (App entry : mApps) {
+            appIds.add(entry.id);
         }
         return appIds;
     }
@@ -316,10 +342,16 @@ public class ContextMap<C, T> {
      * Add a new connection for a given application ID.
      */
     void addConnection(int id, int connId, String address) {
-        synchronized (mConnections) {
+        synchronized (mConnectionsLock) {
             App entry = getById(id);
             if (entry != null) {
-                mConnections.add(new Connection(connId, address, id));
+                Connection connection = new Connection(connId, address, id);
+                Connection previous = mConnectionsByConnId.put(connId, connection);
+                if (previous != null) {
+                    removeFromAppIndex(previous);
+                }
+                mConnectionsByAppId.computeIfAbsent(id, k -> new CopyOnWriteArrayList<>())
+                        .add(connection);
             }
         }
     }
@@ -328,30 +360,33 @@ public class ContextMap<C, T> {
      * Remove a connection with the given ID.
      */
     void removeConnection(int id, int connId) {
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    i.remove();
-                    break;
-                }
+        synchronized (mConnectionsLock) {
+            Connection connection = mConnectionsByConnId.remove(connId);
+            if (connection != null) {
+                removeFromAppIndex(connection);
             }
         }
     }
 
+    @GuardedBy("mConnectionsLock")
+    private void removeFromAppIndex(Connection connection) {
+        List<Connection> appConnections = mConnectionsByAppId.get(connection.appId);
+        if (appConnections == null) {
+            return;
+        }
+        appConnections.remove(connection);
+        if (appConnections.isEmpty()) {
+            mConnectionsByAppId.remove(connection.appId);
+        }
+    }
+
     /**
      * Remove all connections for a given application ID.
      */
     void removeConnectionsByAppId(int appId) {
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.appId == appId) {
-                    i.remove();
-                }
-            }
+        synchronized (mConnectionsLock) {
+            mConnectionsByAppId.remove(appId);
+            mConnectionsByConnId.values().removeIf(connection -> connection.appId == appId);
         }
     }
 
@@ -359,13 +394,17 @@ public class ContextMap<C, T> {
      * Get an application context by ID.
      */
     App getById(int id) {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.id == id) {
-                    return entry;
-                }
+        App entry = mAppsById.get(id);
+        if (entry != null) {
+            if (entry.id == id && !entry.mRemoved) {
+                return entry;
+            }
+            mAppsById.remove(id, entry);
+        }
+        for (App app : mApps) {
+            if (app.id == id) {
+                mAppsById.put(id, app);
+                return app;
             }
         }
         Log.e(TAG, "Context not found for ID " + id);
@@ -376,13 +415,17 @@ public class ContextMap<C, T> {
      * Get an application context by UUID.
      */
     App getByUuid(UUID uuid) {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
-                    return entry;
-                }
+        App entry = mAppsByUuid.get(uuid);
+        if (entry != null) {
+            if (uuid.equals(entry.uuid) && !entry.mRemoved) {
+                return entry;
+            }
+            mAppsByUuid.remove(uuid, entry);
+        }
+        for (App app : mApps) {
+            if (uuid.equals(app.uuid)) {
+                mAppsByUuid.put(uuid, app);
+                return app;
             }
         }
         Log.e(TAG, "Context not found for UUID " + uuid);
@@ -393,13 +436,9 @@ public class ContextMap<C, T> {
      * Get an application context by the calling Apps name.
      */
     App getByName(String name) {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.name.equals(name)) {
-                    return entry;
-                }
+        for (App entry : mApps) {
+            if (entry.name.equals(name)) {
+                return entry;
             }
         }
         Log.e(TAG, "Context not found for name " + name);
@@ -410,13 +449,9 @@ public class ContextMap<C, T> {
      * Get an application context by the context info object.
      */
     App getByContextInfo(T contextInfo) {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.info != null && entry.info.equals(contextInfo)) {
-                    return entry;
-                }
+        for (App entry : mApps) {
+            if (entry.info != null && entry.info.equals(contextInfo)) {
+                return entry;
             }
         }
         Log.e(TAG, "Context not found for info " + contextInfo);
@@ -575,12 +610,8 @@ public class ContextMap<C, T> {
      */
     Set<String> getConnectedDevices() {
         Set<String> addresses = new HashSet<String>();
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                addresses.add(connection.address);
-            }
+        for (Connection connection : mConnectionsByConnId.values()) {
+            addresses.add(connection.address);
         }
         return addresses;
     }
@@ -589,19 +620,9 @@ public class ContextMap<C, T> {
      * Get an application context by a connection ID.
      */
     App getByConnId(int connId) {
-        int appId = -1;
-        synchronized (mConnections) {
-            Iterator<Connection> ii = mConnections.iterator();
-            while (ii.hasNext()) {
-                Connection connection = ii.next();
-                if (connection.connId == connId) {
-                    appId = connection.appId;
-                    break;
-                }
-            }
-        }
-        if (appId >= 0) {
-            return getById(appId);
+        Connection connection = mConnectionsByConnId.get(connId);
+        if (connection != null && connection.appId >= 0) {
+            return getById(connection.appId);
         }
         return null;
     }
@@ -614,13 +635,13 @@ public class ContextMap<C, T> {
         if (entry == null) {
             return null;
         }
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.address.equalsIgnoreCase(address) && connection.appId == id) {
-                    return connection.connId;
-                }
+        List<Connection> appConnections = mConnectionsByAppId.get(id);
+        if (appConnections == null) {
+            return null;
+        }
+        for (Connection connection : appConnections) {
+            if (connection.address.equalsIgnoreCase(address)) {
+                return connection.connId;
             }
         }
         return null;
@@ -630,28 +651,15 @@ public class ContextMap<C, T> {
      * Returns the device address for a given connection ID.
      */
     String addressByConnId(int connId) {
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    return connection.address;
-                }
-            }
-        }
-        return null;
+        Connection connection = mConnectionsByConnId.get(connId);
+        return connection == null ? null : connection.address;
     }
 
     List<Connection> getConnectionByApp(int appId) {
         List<Connection> currentConnections = new ArrayList<Connection>();
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.appId == appId) {
-                    currentConnections.add(connection);
-                }
-            }
+        List<Connection> appConnections = mConnectionsByAppId.get(appId);
+        if (appConnections != null) {
+            currentConnections.addAll(appConnections);
         }
         return currentConnections;
     }
@@ -660,20 +668,22 @@ public class ContextMap<C, T> {
      * Erases all application context entries.
      */
     void clear() {
-        synchronized (mApps) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
+        synchronized (mAppsLock) {
+            for (App entry : mApps) {
                 entry.unlinkToDeath();
                 if (entry.appScanStats != null) {
                     entry.appScanStats.isRegistered = false;
                 }
-                i.remove();
+                entry.mRemoved = true;
             }
+            mApps.clear();
+            mAppsById.clear();
+            mAppsByUuid.clear();
         }
 
-        synchronized (mConnections) {
-            mConnections.clear();
+        synchronized (mConnectionsLock) {
+            mConnectionsByConnId.clear();
+            mConnectionsByAppId.clear();
         }
 
         synchronized (this) {
@@ -687,10 +697,8 @@ public class ContextMap<C, T> {
      */
     Map<Integer, String> getConnectedMap() {
         Map<Integer, String> connectedmap = new HashMap<Integer, String>();
-        synchronized (mConnections) {
-            for (Connection conn : mConnections) {
-                connectedmap.put(conn.appId, conn.address);
-            }
+        for (Connection conn : mConnectionsByConnId.values()) {
+            connectedmap.put(conn.appId, conn.address);
         }
         return connectedmap;
     }
@@ -710,6 +718,21 @@ public class ContextMap<C, T> {
         }
     }
 
+    /**
+     * Logs the congestion queue statistics of the apps that had callbacks queued.
+     */
+    void dumpCongestion(StringBuilder sb) {
+        for (App app : mApps) {
+            CongestionQueue queue = app.getCongestionQueue();
+            if (queue.getHighWaterMark() == 0) {
+                continue;
+            }
+            sb.append("  ").append(app.id).append(" ").append(app.name).append(": ");
+            queue.dump(sb);
+            sb.append("\n");
+        }
+    }
+
     /**
      * Logs advertiser debug information.
      */
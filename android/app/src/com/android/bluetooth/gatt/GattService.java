@@ -59,6 +59,7 @@ import android.net.MacAddress;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.ParcelUuid;
@@ -81,7 +82,6 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.btservice.CompanionManager;
 import com.android.bluetooth.btservice.ProfileService;
-import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -97,7 +97,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
@@ -118,15 +117,14 @@ public class GattService extends ProfileService {
 
     private static final int MAC_ADDRESS_LENGTH = 6;
     // Batch scan related constants.
-    private static final int TRUNCATED_RESULT_SIZE = 11;
-    private static final int TIME_STAMP_LENGTH = 2;
+    private static final int BATCH_SCAN_RESULTS_CHUNK_SIZE = 128;
 
-    private enum MatchOrigin {
+    enum MatchOrigin {
         PSEUDO_ADDRESS,
         ORIGINAL_ADDRESS
     }
 
-    private static class MatchResult {
+    static class MatchResult {
         private final boolean mMatches;
         private final MatchOrigin mOrigin;
         private MatchResult(boolean matches, MatchOrigin origin) {
@@ -255,6 +253,11 @@ public class GattService extends ProfileService {
 
     private int mMaxScanFilters;
 
+    /**
+     * Number of advertising data parses avoided by sharing a {@link ScanReport} between clients.
+     */
+    private long mScanRecordParsesAvoided;
+
     private static final int NUM_SCAN_EVENTS_KEPT = 20;
 
     /**
@@ -269,10 +272,9 @@ public class GattService extends ProfileService {
     private final Map<Integer, Set<Integer>> mRestrictedHandles = new HashMap<>();
 
     /**
-     * HashMap used to synchronize writeCharacteristic calls mapping remote device address to
-     * available permit (connectId or -1).
+     * Characteristic writes outstanding on each connected remote device.
      */
-    private final HashMap<String, Integer> mPermits = new HashMap<>();
+    private final GattWriteLimiter mWriteLimiter = new GattWriteLimiter();
 
     private AdapterService mAdapterService;
     private BluetoothAdapterProxy mBluetoothAdapterProxy;
@@ -282,6 +284,9 @@ public class GattService extends ProfileService {
     PeriodicScanManager mPeriodicScanManager;
     @VisibleForTesting
     ScanManager mScanManager;
+    @VisibleForTesting
+    ScanResultCoalescer mScanResultCoalescer;
+    private HandlerThread mScanResultCoalescerThread;
     private AppOpsManager mAppOps;
     private CompanionDeviceManager mCompanionManager;
     private String mExposureNotificationPackage;
@@ -346,6 +351,11 @@ public class GattService extends ProfileService {
         mScanManager = new ScanManager(this, mAdapterService, mBluetoothAdapterProxy);
         mScanManager.start();
 
+        mScanResultCoalescerThread = new HandlerThread("BluetoothScanResultCoalescer");
+        mScanResultCoalescerThread.start();
+        mScanResultCoalescer =
+                new ScanResultCoalescer(this, mScanResultCoalescerThread.getLooper());
+
         mPeriodicScanManager = new PeriodicScanManager(mAdapterService);
         mPeriodicScanManager.start();
 
@@ -365,12 +375,20 @@ public class GattService extends ProfileService {
         mServerMap.clear();
         mHandleMap.clear();
         mReliableQueue.clear();
+        mWriteLimiter.clear();
         if (mAdvertiseManager != null) {
             mAdvertiseManager.cleanup();
         }
         if (mScanManager != null) {
             mScanManager.cleanup();
         }
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.cleanup();
+        }
+        if (mScanResultCoalescerThread != null) {
+            mScanResultCoalescerThread.quitSafely();
+            mScanResultCoalescerThread = null;
+        }
         if (mPeriodicScanManager != null) {
             mPeriodicScanManager.cleanup();
         }
@@ -389,6 +407,13 @@ public class GattService extends ProfileService {
         if (mScanManager != null) {
             mScanManager.cleanup();
         }
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.cleanup();
+        }
+        if (mScanResultCoalescerThread != null) {
+            mScanResultCoalescerThread.quitSafely();
+            mScanResultCoalescerThread = null;
+        }
         if (mPeriodicScanManager != null) {
             mPeriodicScanManager.cleanup();
         }
@@ -1816,10 +1841,32 @@ public class GattService extends ProfileService {
             originalAddress = identityAddress;
         }
 
-
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        // The device, scan record and result are built at most once per variant and shared by
+        // every client this report is dispatched to.
+        ScanReport report = new ScanReport(eventType, address, primaryPhy, secondaryPhy,
+                advertisingSid, txPower, rssi, periodicAdvInt, advData,
+                SystemClock.elapsedRealtimeNanos());
+        ScanFilterIndex filterIndex = mScanManager.getRegularScanFilterIndex();
+        Set<ScanClient> candidates = null;
+        long coalescingWindowMillis = mAdapterService.getScanResultCoalescingWindowMillis();
 
         for (ScanClient client : mScanManager.getRegularScanQueue()) {
+            if (filterIndex.isIndexed(client)) {
+                if (candidates == null) {
+                    // A legacy report is never longer than the legacy scan record, so both
+                    // variants carry the same fields.
+                    candidates = filterIndex.getCandidates(
+                            report.getResult((eventType & ET_LEGACY_MASK) != 0),
+                            originalAddress);
+                }
+                if (!candidates.contains(client)) {
+                    if (VDBG) {
+                        Log.d(TAG, "Skipping client: no filter candidate");
+                    }
+                    continue;
+                }
+            }
+
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
             if (app == null) {
                 if (VDBG) {
@@ -1828,31 +1875,17 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
             // This is for compability with applications that assume fixed size scan data.
-            if (settings.getLegacy()) {
-                if ((eventType & ET_LEGACY_MASK) == 0) {
-                    // If this is legacy scan, but nonlegacy result - skip.
-                    if (VDBG) {
-                        Log.d(TAG, "Legacy scan, non legacy result; skip.");
-                    }
-                    continue;
-                } else {
-                    // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+            if (settings.getLegacy() && (eventType & ET_LEGACY_MASK) == 0) {
+                // If this is legacy scan, but nonlegacy result - skip.
+                if (VDBG) {
+                    Log.d(TAG, "Legacy scan, non legacy result; skip.");
                 }
-            } else {
-                scanRecordData = advData;
+                continue;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
+            ScanResult result = report.getResult(settings.getLegacy());
 
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
@@ -1895,7 +1928,11 @@ public class GattService extends ProfileService {
 
             try {
                 app.appScanStats.addResult(client.scannerId);
-                if (app.callback != null) {
+                if (coalescingWindowMillis > 0 && mScanResultCoalescer != null) {
+                    // Delivered later, together with the other results of the window.
+                    mScanResultCoalescer.add(client, result, coalescingWindowMillis,
+                            mAdapterService.getScanResultCoalescingMaxResults());
+                } else if (app.callback != null) {
                     app.callback.onScanResult(result);
                 } else {
                     // Send the PendingIntent
@@ -1908,8 +1945,31 @@ public class GattService extends ProfileService {
                 Log.e(TAG, "Exception: " + e);
                 mScannerMap.remove(client.scannerId);
                 mScanManager.stopScan(client.scannerId);
+                removeCoalescedScanResults(client.scannerId);
             }
         }
+        mScanRecordParsesAvoided += report.getParsesAvoided();
+    }
+
+    /**
+     * Drops the results held by {@link ScanResultCoalescer} for a scanner, called by
+     * {@link ScanManager} whenever a scan stops.
+     */
+    void removeCoalescedScanResults(int scannerId) {
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.removeScanner(scannerId);
+        }
+    }
+
+    /**
+     * Delivers the results held by {@link ScanResultCoalescer} for a regular scan client.
+     */
+    void deliverCoalescedScanResults(ScanClient client, ArrayList<ScanResult> results) {
+        ScannerMap.App app = mScannerMap.getById(client.scannerId);
+        if (app == null) {
+            return;
+        }
+        sendBatchScanResults(app, client, results);
     }
 
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
@@ -1988,12 +2048,13 @@ public class GattService extends ProfileService {
     }
 
     // Check if a scan record matches a specific filters.
-    private MatchResult matchesFilters(ScanClient client, ScanResult scanResult) {
+    private static MatchResult matchesFilters(ScanClient client, ScanResult scanResult) {
         return matchesFilters(client, scanResult, null);
     }
 
     // Check if a scan record matches a specific filters or original address
-    private MatchResult matchesFilters(ScanClient client, ScanResult scanResult,
+    @VisibleForTesting
+    static MatchResult matchesFilters(ScanClient client, ScanResult scanResult,
             String originalAddress) {
         if (client.filters == null || client.filters.isEmpty()) {
             // TODO: Do we really wanna return true here?
@@ -2039,12 +2100,9 @@ public class GattService extends ProfileService {
         if (status == 0) {
             mClientMap.addConnection(clientIf, connId, address);
 
-            // Allow one writeCharacteristic operation at a time for each connected remote device.
-            synchronized (mPermits) {
-                Log.d(TAG, "onConnected() - adding permit for address="
-                    + address);
-                mPermits.putIfAbsent(address, -1);
-            }
+            // Track the writeCharacteristic operations outstanding on the remote device.
+            Log.d(TAG, "onConnected() - tracking writes for address=" + address);
+            mWriteLimiter.addDevice(address);
             connectionState = BluetoothProtoEnums.CONNECTION_STATE_CONNECTED;
 
         }
@@ -2068,20 +2126,12 @@ public class GattService extends ProfileService {
         mClientMap.removeConnection(clientIf, connId);
         ClientMap.App app = mClientMap.getById(clientIf);
 
-        // Remove AtomicBoolean representing permit if no other connections rely on this remote device.
+        // Stop tracking writes if no other connections rely on this remote device.
         if (!mClientMap.getConnectedDevices().contains(address)) {
-            synchronized (mPermits) {
-                Log.d(TAG, "onDisconnected() - removing permit for address="
-                    + address);
-                mPermits.remove(address);
-            }
+            Log.d(TAG, "onDisconnected() - untracking writes for address=" + address);
+            mWriteLimiter.removeDevice(address);
         } else {
-            synchronized (mPermits) {
-                if (mPermits.get(address) == connId) {
-                    Log.d(TAG, "onDisconnected() - set permit -1 for address=" + address);
-                    mPermits.put(address, -1);
-                }
-            }
+            mWriteLimiter.removeConnection(address, connId);
         }
 
         if (app != null) {
@@ -2384,10 +2434,9 @@ public class GattService extends ProfileService {
     void onWriteCharacteristic(int connId, int status, int handle, byte[] data)
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
-        synchronized (mPermits) {
-            Log.d(TAG, "onWriteCharacteristic() - increasing permit for address="
-                    + address);
-            mPermits.put(address, -1);
+        // The connection may be gone already, its writes were dropped on disconnect.
+        if (address != null) {
+            mWriteLimiter.onWriteComplete(address, connId);
         }
 
         if (VDBG) {
@@ -2539,55 +2588,81 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
         mScanManager.callbackDone(scannerId, status);
-        Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
-        if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
+        if (DBG) {
+            Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
+            Log.d(TAG, "batch record " + Arrays.toString(recordData));
+        }
+        boolean truncated = reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED;
+        BatchScanRecordCursor cursor = new BatchScanRecordCursor(truncated, numRecords,
+                recordData, SystemClock.elapsedRealtimeNanos());
+        ScannerMap.App app = null;
+        ScanClient truncatedClient = null;
+        Set<ScanClient> fullBatchClients = null;
+        if (truncated) {
             // We only support single client for truncated mode.
-            ScannerMap.App app = mScannerMap.getById(scannerId);
+            app = mScannerMap.getById(scannerId);
             if (app == null) {
                 return;
             }
-
-            ScanClient client = findBatchScanClientById(scannerId);
-            if (client == null) {
+            truncatedClient = findBatchScanClientById(scannerId);
+            if (truncatedClient == null) {
                 return;
             }
+        } else {
+            fullBatchClients = mScanManager.getFullBatchScanQueue();
+        }
 
-            ArrayList<ScanResult> permittedResults;
-            if (hasScanResultPermission(client)) {
-                permittedResults = new ArrayList<ScanResult>(results);
+        // Stream the records in bounded chunks rather than materializing the whole report. An
+        // empty report is still delivered once, as an empty list.
+        do {
+            ArrayList<ScanResult> results =
+                    new ArrayList<>(Math.min(numRecords, BATCH_SCAN_RESULTS_CHUNK_SIZE));
+            while (cursor.hasNext() && results.size() < BATCH_SCAN_RESULTS_CHUNK_SIZE) {
+                results.add(cursor.next());
+            }
+            if (truncated) {
+                deliverTruncatedBatchScan(app, truncatedClient, results);
             } else {
-                permittedResults = new ArrayList<ScanResult>();
-                for (ScanResult scanResult : results) {
-                    for (String associatedDevice : client.associatedDevices) {
-                        if (associatedDevice.equalsIgnoreCase(scanResult.getDevice()
-                                    .getAddress())) {
-                            permittedResults.add(scanResult);
-                        }
-                    }
+                for (ScanClient client : fullBatchClients) {
+                    // Deliver results for each client.
+                    deliverBatchScan(client, results);
                 }
-                if (permittedResults.isEmpty()) {
-                    return;
-                }
-            }
-
-            if (client.hasDisavowedLocation) {
-                permittedResults.removeIf(mLocationDenylistPredicate);
             }
+        } while (cursor.hasNext());
+    }
 
-            if (app.callback != null) {
-                app.callback.onBatchScanResults(permittedResults);
-            } else {
-                // PendingIntent based
-                try {
-                    sendResultsByPendingIntent(app.info, permittedResults,
-                            ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
-                } catch (PendingIntent.CanceledException e) {
+    private void deliverTruncatedBatchScan(ScannerMap.App app, ScanClient client,
+            ArrayList<ScanResult> results) throws RemoteException {
+        ArrayList<ScanResult> permittedResults;
+        if (hasScanResultPermission(client)) {
+            permittedResults = results;
+        } else {
+            permittedResults = new ArrayList<ScanResult>();
+            for (ScanResult scanResult : results) {
+                for (String associatedDevice : client.associatedDevices) {
+                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice()
+                                .getAddress())) {
+                        permittedResults.add(scanResult);
+                    }
                 }
             }
+            if (permittedResults.isEmpty()) {
+                return;
+            }
+        }
+
+        if (client.hasDisavowedLocation) {
+            permittedResults.removeIf(mLocationDenylistPredicate);
+        }
+
+        if (app.callback != null) {
+            app.callback.onBatchScanResults(permittedResults);
         } else {
-            for (ScanClient client : mScanManager.getFullBatchScanQueue()) {
-                // Deliver results for each client.
-                deliverBatchScan(client, results);
+            // PendingIntent based
+            try {
+                sendResultsByPendingIntent(app.info, permittedResults,
+                        ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
+            } catch (PendingIntent.CanceledException e) {
             }
         }
     }
@@ -2605,11 +2680,12 @@ public class GattService extends ProfileService {
             Log.e(TAG, "Exception: " + e);
             mScannerMap.remove(client.scannerId);
             mScanManager.stopScan(client.scannerId);
+            removeCoalescedScanResults(client.scannerId);
         }
     }
 
     // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
+    private void deliverBatchScan(ScanClient client, List<ScanResult> allResults)
             throws RemoteException {
         ScannerMap.App app = mScannerMap.getById(client.scannerId);
         if (app == null) {
@@ -2647,104 +2723,9 @@ public class GattService extends ProfileService {
         sendBatchScanResults(app, client, results);
     }
 
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
-            byte[] batchRecord) {
-        if (numRecords == 0) {
-            return Collections.emptySet();
-        }
-        if (DBG) {
-            Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
-        }
-        if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
-            return parseTruncatedResults(numRecords, batchRecord);
-        } else {
-            return parseFullResults(numRecords, batchRecord);
-        }
-    }
-
-    private Set<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        long now = SystemClock.elapsedRealtimeNanos();
-        for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
-        // Timestamp is in every 50 ms.
-        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
-    }
-
-    private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
-        long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
-
-            // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
-            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
-            if (DBG) {
-                Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
-            }
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
-        }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return BatchScanRecordCursor.parseTimestampNanos(data, 0);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -2971,6 +2952,8 @@ public class GattService extends ProfileService {
         }
         mScannerMap.remove(scannerId);
         mScanManager.unregisterScanner(scannerId);
+        // The scanner ID can be reused by the next registered scanner
+        removeCoalescedScanResults(scannerId);
     }
 
     private List<String> getAssociatedDevices(String callingPackage) {
@@ -3186,6 +3169,8 @@ public class GattService extends ProfileService {
         }
 
         mScanManager.stopScan(scannerId);
+        // Also dropped by ScanManager once stopped, do it now so none are flushed in between
+        removeCoalescedScanResults(scannerId);
         mAdapterService.notifyActivityAttributionInfo(getAttributionSource(),
                 AdapterService.ACTIVITY_ATTRIBUTION_NO_ACTIVE_DEVICE_ADDRESS);
     }
@@ -3677,21 +3662,12 @@ public class GattService extends ProfileService {
         }
         permissionCheck(connId, handle);
 
-        Log.d(TAG, "writeCharacteristic() - trying to acquire permit.");
-        // Lock the thread until onCharacteristicWrite callback comes back.
-        synchronized (mPermits) {
-            Integer permit = mPermits.get(address);
-            if (permit == null) {
-                Log.d(TAG, "writeCharacteristic() -  atomicBoolean uninitialized!");
-                return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
-            }
-
-            boolean success = (permit == -1);
-            if (!success) {
-                Log.d(TAG, "writeCharacteristic() - no permit available.");
-                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
-            }
-            mPermits.put(address, connId);
+        // Hold a write slot until onCharacteristicWrite callback comes back.
+        int status = mWriteLimiter.tryAcquire(address, connId,
+                mAdapterService.getGattWriteQueueDepth());
+        if (status != BluetoothStatusCodes.SUCCESS) {
+            Log.d(TAG, "writeCharacteristic() - no write slot available, status=" + status);
+            return status;
         }
 
         gattClientWriteCharacteristicNative(connId, handle, writeType, authReq, value);
@@ -4609,10 +4585,8 @@ public class GattService extends ProfileService {
         }
 
         if (status == 0) {
-            List<HandleMap.Entry> entries = mHandleMap.getEntries();
-            for (HandleMap.Entry entry : entries) {
-                if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf
-                        || !entry.started) {
+            for (HandleMap.Entry entry : mHandleMap.getServices(serverIf)) {
+                if (!entry.started) {
                     continue;
                 }
 
@@ -4632,11 +4606,7 @@ public class GattService extends ProfileService {
          * The handles are copied into a new list to avoid race conditions.
          */
         List<Integer> handleList = new ArrayList<Integer>();
-        List<HandleMap.Entry> entries = mHandleMap.getEntries();
-        for (HandleMap.Entry entry : entries) {
-            if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf) {
-                continue;
-            }
+        for (HandleMap.Entry entry : mHandleMap.getServices(serverIf)) {
             handleList.add(entry.handle);
         }
 
@@ -4671,6 +4641,16 @@ public class GattService extends ProfileService {
         }
 
         println(sb, "mMaxScanFilters: " + mMaxScanFilters);
+        println(sb, "mScanRecordParsesAvoided: " + mScanRecordParsesAvoided);
+        if (mScanManager != null) {
+            ScanFilterIndex filterIndex = mScanManager.getRegularScanFilterIndex();
+            println(sb, "Scan filter index: " + filterIndex.size() + " clients, "
+                    + filterIndex.getUnconditionalCount() + " unconditional");
+        }
+
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.dump(sb);
+        }
 
         sb.append("\nRegistered App\n");
         dumpRegisterId(sb);
@@ -4689,6 +4669,13 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
+
+        sb.append("GATT Outstanding Writes\n");
+        mWriteLimiter.dump(sb);
+
+        sb.append("GATT Congestion Queues\n");
+        mClientMap.dumpCongestion(sb);
+        mServerMap.dumpCongestion(sb);
     }
 
     void addScanEvent(BluetoothMetricsProto.ScanEvent event) {
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of characteristic writes outstanding on each connected remote device.
+ *
+ * Each device has its own lock, so writes to different devices never contend. Up to a
+ * configurable number of writes are handed to the stack per device; a write over that limit is
+ * not held back but rejected with {@link BluetoothStatusCodes#ERROR_GATT_WRITE_REQUEST_BUSY},
+ * and the app is expected to retry once {@link #onWriteComplete} has released a slot.
+ * @hide
+ */
+/* package */ class GattWriteLimiter {
+
+    private final Map<String, DeviceWrites> mDevices = new ConcurrentHashMap<>();
+
+    private static class PendingWrite {
+        final int mConnId;
+        final long mStartNanos;
+
+        PendingWrite(int connId, long startNanos) {
+            mConnId = connId;
+            mStartNanos = startNanos;
+        }
+    }
+
+    private static class DeviceWrites {
+        @GuardedBy("this")
+        final ArrayDeque<PendingWrite> mPending = new ArrayDeque<>();
+        @GuardedBy("this")
+        boolean mRemoved;
+        @GuardedBy("this")
+        int mMaxDepth;
+        @GuardedBy("this")
+        long mCompletedCount;
+        @GuardedBy("this")
+        long mBusyCount;
+        @GuardedBy("this")
+        long mTotalLatencyNanos;
+        @GuardedBy("this")
+        long mMaxLatencyNanos;
+    }
+
+    /**
+     * Starts tracking writes to a newly connected device.
+     */
+    void addDevice(String address) {
+        if (address == null) {
+            return;
+        }
+        mDevices.computeIfAbsent(address, k -> new DeviceWrites());
+    }
+
+    /**
+     * Stops tracking a device once no connection relies on it anymore.
+     */
+    void removeDevice(String address) {
+        DeviceWrites writes = address != null ? mDevices.remove(address) : null;
+        if (writes != null) {
+            synchronized (writes) {
+                writes.mRemoved = true;
+                writes.mPending.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops the writes issued on a connection that went away, while other connections to the
+     * device remain.
+     */
+    void removeConnection(String address, int connId) {
+        DeviceWrites writes = getWrites(address);
+        if (writes == null) {
+            return;
+        }
+        synchronized (writes) {
+            writes.mPending.removeIf(write -> write.mConnId == connId);
+        }
+    }
+
+    /**
+     * Reserves a slot for a write to the device.
+     *
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the write can be sent,
+     * {@link BluetoothStatusCodes#ERROR_DEVICE_NOT_CONNECTED} if the device is not tracked, or
+     * {@link BluetoothStatusCodes#ERROR_GATT_WRITE_REQUEST_BUSY} if {@code maxDepth} writes are
+     * already outstanding
+     */
+    int tryAcquire(String address, int connId, int maxDepth) {
+        DeviceWrites writes = getWrites(address);
+        if (writes == null) {
+            return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+        }
+        synchronized (writes) {
+            if (writes.mRemoved) {
+                return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+            }
+            if (writes.mPending.size() >= Math.max(1, maxDepth)) {
+                writes.mBusyCount++;
+                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+            }
+            writes.mPending.add(new PendingWrite(connId, SystemClock.elapsedRealtimeNanos()));
+            writes.mMaxDepth = Math.max(writes.mMaxDepth, writes.mPending.size());
+            return BluetoothStatusCodes.SUCCESS;
+        }
+    }
+
+    /**
+     * Completes the oldest write outstanding on the connection.
+     */
+    void onWriteComplete(String address, int connId) {
+        DeviceWrites writes = getWrites(address);
+        if (writes == null) {
+            return;
+        }
+        synchronized (writes) {
+            Iterator<PendingWrite> it = writes.mPending.iterator();
+            while (it.hasNext()) {
+                PendingWrite write = it.next();
+                if (write.mConnId == connId) {
+                    it.remove();
+                    long latencyNanos = SystemClock.elapsedRealtimeNanos() - write.mStartNanos;
+                    writes.mCompletedCount++;
+                    writes.mTotalLatencyNanos += latencyNanos;
+                    writes.mMaxLatencyNanos = Math.max(writes.mMaxLatencyNanos, latencyNanos);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of writes outstanding on the device.
+     */
+    int getDepth(String address) {
+        DeviceWrites writes = getWrites(address);
+        if (writes == null) {
+            return 0;
+        }
+        synchronized (writes) {
+            return writes.mPending.size();
+        }
+    }
+
+    // The address of a connection that went away is null, which the map does not accept.
+    private DeviceWrites getWrites(String address) {
+        return address != null ? mDevices.get(address) : null;
+    }
+
+    void clear() {
+        for (String address : mDevices.keySet()) {
+            removeDevice(address);
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        for (Map.Entry<String, DeviceWrites> entry : mDevices.entrySet()) {
+            DeviceWrites writes = entry.getValue();
+            synchronized (writes) {
+                sb.append("  ").append(entry.getKey())
+                        .append(": depth=").append(writes.mPending.size())
+                        .append(", maxDepth=").append(writes.mMaxDepth)
+                        .append(", writes=").append(writes.mCompletedCount)
+                        .append(", busy=").append(writes.mBusyCount)
+                        .append(", avgLatencyMs=").append(writes.mCompletedCount == 0 ? 0
+                                : TimeUnit.NANOSECONDS.toMillis(
+                                        writes.mTotalLatencyNanos / writes.mCompletedCount))
+                        .append(", maxLatencyMs=")
+                        .append(TimeUnit.NANOSECONDS.toMillis(writes.mMaxLatencyNanos))
+                        .append("\n");
+            }
+        }
+    }
+}
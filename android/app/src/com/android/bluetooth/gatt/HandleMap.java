@@ -17,6 +17,7 @@ package com.android.bluetooth.gatt;
 
 import android.util.Log;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -82,75 +83,162 @@ class HandleMap {
         }
     }
 
+    /**
+     * Open addressing table from attribute handle to entry. Tables are never modified once
+     * published, changes build a new one so lookups need no locking.
+     */
+    private static class HandleTable {
+        static final HandleTable EMPTY = new HandleTable(new Entry[2], 0);
+
+        final Entry[] mSlots;
+        final int mSize;
+
+        private HandleTable(Entry[] slots, int size) {
+            mSlots = slots;
+            mSize = size;
+        }
+
+        static HandleTable build(List<Entry> entries) {
+            int capacity = 2;
+            while (capacity < entries.size() * 2) {
+                capacity <<= 1;
+            }
+            Entry[] slots = new Entry[capacity];
+            int size = 0;
+            for (Entry entry : entries) {
+                if (insert(slots, entry)) {
+                    size++;
+                }
+            }
+            return new HandleTable(slots, size);
+        }
+
+        HandleTable with(Entry entry, List<Entry> entries) {
+            // Keep the load factor at or below one half, so every probe ends on an empty slot.
+            if ((mSize + 1) * 2 > mSlots.length) {
+                return build(entries);
+            }
+            Entry[] slots = mSlots.clone();
+            return insert(slots, entry) ? new HandleTable(slots, mSize + 1) : this;
+        }
+
+        // Handles are allocated sequentially, so the low bits spread them evenly.
+        private static boolean insert(Entry[] slots, Entry entry) {
+            int mask = slots.length - 1;
+            for (int i = entry.handle & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == null) {
+                    slots[i] = entry;
+                    return true;
+                }
+                if (slots[i].handle == entry.handle) {
+                    // The first entry registered for a handle wins, as in the entry list.
+                    return false;
+                }
+            }
+        }
+
+        Entry get(int handle) {
+            int mask = mSlots.length - 1;
+            for (int i = handle & mask; ; i = (i + 1) & mask) {
+                Entry entry = mSlots[i];
+                if (entry == null || entry.handle == handle) {
+                    return entry;
+                }
+            }
+        }
+    }
+
     List<Entry> mEntries = null;
     Map<Integer, Integer> mRequestMap = null;
     int mLastCharacteristic = 0;
 
+    /** Index of mEntries by handle, replaced under the HandleMap lock */
+    private volatile HandleTable mHandleTable = HandleTable.EMPTY;
+    /** Service entries of each server */
+    private final Map<Integer, List<Entry>> mServicesByServer = new ConcurrentHashMap<>();
+
     HandleMap() {
         mEntries = new CopyOnWriteArrayList<Entry>();
         mRequestMap = new ConcurrentHashMap<Integer, Integer>();
     }
 
-    void clear() {
+    synchronized void clear() {
         mEntries.clear();
+        mHandleTable = HandleTable.EMPTY;
+        mServicesByServer.clear();
         mRequestMap.clear();
     }
 
-    void addService(int serverIf, int handle, UUID uuid, int serviceType, int instance,
-            boolean advertisePreferred) {
-        mEntries.add(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
+    synchronized void addService(int serverIf, int handle, UUID uuid, int serviceType,
+            int instance, boolean advertisePreferred) {
+        Entry entry = new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred);
+        addEntry(entry);
+        mServicesByServer.computeIfAbsent(serverIf, k -> new CopyOnWriteArrayList<>()).add(entry);
     }
 
-    void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
+    synchronized void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
         mLastCharacteristic = handle;
-        mEntries.add(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
+        addEntry(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
     }
 
-    void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
-        mEntries.add(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
+    synchronized void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
+        addEntry(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
                 mLastCharacteristic));
     }
 
-    void setStarted(int serverIf, int handle, boolean started) {
-        for (Entry entry : mEntries) {
-            if (entry.type != TYPE_SERVICE || entry.serverIf != serverIf
-                    || entry.handle != handle) {
-                continue;
-            }
+    private void addEntry(Entry entry) {
+        mEntries.add(entry);
+        mHandleTable = mHandleTable.with(entry, mEntries);
+    }
 
-            entry.started = started;
+    void setStarted(int serverIf, int handle, boolean started) {
+        Entry entry = mHandleTable.get(handle);
+        if (entry == null || entry.type != TYPE_SERVICE || entry.serverIf != serverIf) {
             return;
         }
+        entry.started = started;
     }
 
     Entry getByHandle(int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.handle == handle) {
-                return entry;
-            }
+        Entry entry = mHandleTable.get(handle);
+        if (entry == null) {
+            Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
         }
-        Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
-        return null;
+        return entry;
     }
 
     boolean checkServiceExists(UUID uuid, int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.type == TYPE_SERVICE && entry.handle == handle && entry.uuid.equals(uuid)) {
-                return true;
-            }
-        }
-        return false;
+        Entry entry = mHandleTable.get(handle);
+        return entry != null && entry.type == TYPE_SERVICE && entry.uuid.equals(uuid);
     }
 
-    void deleteService(int serverIf, int serviceHandle) {
-        mEntries.removeIf(entry -> ((entry.serverIf == serverIf)
-                && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)));
+    synchronized void deleteService(int serverIf, int serviceHandle) {
+        if (!mEntries.removeIf(entry -> ((entry.serverIf == serverIf)
+                && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)))) {
+            return;
+        }
+        mHandleTable = HandleTable.build(mEntries);
+        List<Entry> services = mServicesByServer.get(serverIf);
+        if (services != null) {
+            services.removeIf(entry -> entry.handle == serviceHandle);
+            if (services.isEmpty()) {
+                mServicesByServer.remove(serverIf);
+            }
+        }
     }
 
     List<Entry> getEntries() {
         return mEntries;
     }
 
+    /**
+     * Returns the service entries registered by a server, in registration order.
+     */
+    List<Entry> getServices(int serverIf) {
+        List<Entry> services = mServicesByServer.get(serverIf);
+        return services == null ? Collections.emptyList() : services;
+    }
+
     void addRequest(int requestId, int handle) {
         mRequestMap.put(requestId, handle);
     }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of the software scan filters of a set of scan clients.
+ *
+ * Every filter is keyed on its most selective exact-match field (device address, manufacturer
+ * ID, service data UUID or unmasked service UUID), so a single lookup per advertising report
+ * returns the clients that may match it. Clients with no filters, or with a filter that has none
+ * of these fields, are always returned. Candidates still have to be verified with
+ * {@link ScanFilter#matches}.
+ * @hide
+ */
+/* package */ class ScanFilterIndex {
+    static final ScanFilterIndex EMPTY = new ScanFilterIndex();
+
+    private final Set<ScanClient> mIndexedClients = new HashSet<>();
+    private final Set<ScanClient> mUnconditionalClients = new HashSet<>();
+    private final Map<String, List<ScanClient>> mByAddress = new HashMap<>();
+    private final SparseArray<List<ScanClient>> mByManufacturerId = new SparseArray<>();
+    private final Map<ParcelUuid, List<ScanClient>> mByServiceDataUuid = new HashMap<>();
+    private final Map<ParcelUuid, List<ScanClient>> mByServiceUuid = new HashMap<>();
+
+    private ScanFilterIndex() {}
+
+    /**
+     * Builds an index over the filters of the given clients.
+     */
+    static ScanFilterIndex build(Collection<ScanClient> clients) {
+        ScanFilterIndex index = new ScanFilterIndex();
+        for (ScanClient client : clients) {
+            index.add(client);
+        }
+        return index;
+    }
+
+    private void add(ScanClient client) {
+        mIndexedClients.add(client);
+        if (client.filters == null || client.filters.isEmpty()) {
+            mUnconditionalClients.add(client);
+            return;
+        }
+        for (ScanFilter filter : client.filters) {
+            if (filter.getDeviceAddress() != null) {
+                addTo(mByAddress, filter.getDeviceAddress().toUpperCase(Locale.US), client);
+            } else if (filter.getManufacturerId() >= 0) {
+                List<ScanClient> list = mByManufacturerId.get(filter.getManufacturerId());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    mByManufacturerId.put(filter.getManufacturerId(), list);
+                }
+                addUnique(list, client);
+            } else if (filter.getServiceDataUuid() != null) {
+                addTo(mByServiceDataUuid, filter.getServiceDataUuid(), client);
+            } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+                addTo(mByServiceUuid, filter.getServiceUuid(), client);
+            } else {
+                // Nothing we can look up on, the client has to see every report.
+                mUnconditionalClients.add(client);
+                return;
+            }
+        }
+    }
+
+    private static <K> void addTo(Map<K, List<ScanClient>> map, K key, ScanClient client) {
+        List<ScanClient> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        addUnique(list, client);
+    }
+
+    private static void addUnique(List<ScanClient> list, ScanClient client) {
+        if (!list.contains(client)) {
+            list.add(client);
+        }
+    }
+
+    /**
+     * Returns whether the client was known when this index was built. Clients that are not
+     * indexed must be treated as candidates for every report.
+     */
+    boolean isIndexed(ScanClient client) {
+        return mIndexedClients.contains(client);
+    }
+
+    /**
+     * Returns the clients whose filters may match the given result, or whose filters may match
+     * the original (identity) address of the advertiser.
+     */
+    Set<ScanClient> getCandidates(ScanResult result, String originalAddress) {
+        if (mIndexedClients.size() == mUnconditionalClients.size()) {
+            return mUnconditionalClients;
+        }
+        Set<ScanClient> candidates = new HashSet<>(mUnconditionalClients);
+
+        if (!mByAddress.isEmpty()) {
+            BluetoothDevice device = result.getDevice();
+            if (device != null) {
+                addAll(candidates, mByAddress.get(device.getAddress().toUpperCase(Locale.US)));
+            }
+            if (originalAddress != null) {
+                addAll(candidates, mByAddress.get(originalAddress.toUpperCase(Locale.US)));
+            }
+        }
+
+        ScanRecord record = result.getScanRecord();
+        if (record == null || record.getBytes() == null) {
+            return candidates;
+        }
+        // Walk the raw AD structures rather than the ScanRecord getters, so that reports no
+        // client is interested in never get fully decoded.
+        byte[] bytes = record.getBytes();
+        int pos = 0;
+        while (pos < bytes.length) {
+            int length = bytes[pos] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            if (pos + length >= bytes.length) {
+                // Malformed record, let the filters decide.
+                candidates.addAll(mIndexedClients);
+                return candidates;
+            }
+            int fieldType = bytes[pos + 1] & 0xFF;
+            int dataStart = pos + 2;
+            int dataLength = length - 1;
+            switch (fieldType) {
+                case ScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    if (dataLength >= 2 && mByManufacturerId.size() != 0) {
+                        addAll(candidates, mByManufacturerId.get(
+                                ((bytes[dataStart + 1] & 0xFF) << 8)
+                                        + (bytes[dataStart] & 0xFF)));
+                    }
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_DATA_16_BIT:
+                    addServiceDataCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_16_BIT);
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_DATA_32_BIT:
+                    addServiceDataCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_32_BIT);
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_DATA_128_BIT:
+                    addServiceDataCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_128_BIT);
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    addServiceUuidCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_16_BIT);
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    addServiceUuidCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_32_BIT);
+                    break;
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case ScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    addServiceUuidCandidates(candidates, bytes, dataStart, dataLength,
+                            BluetoothUuid.UUID_BYTES_128_BIT);
+                    break;
+                default:
+                    break;
+            }
+            pos += length + 1;
+        }
+        return candidates;
+    }
+
+    private void addServiceDataCandidates(Set<ScanClient> candidates, byte[] bytes, int start,
+            int length, int uuidLength) {
+        if (length >= uuidLength && !mByServiceDataUuid.isEmpty()) {
+            addAll(candidates, mByServiceDataUuid.get(parseUuid(bytes, start, uuidLength)));
+        }
+    }
+
+    private void addServiceUuidCandidates(Set<ScanClient> candidates, byte[] bytes, int start,
+            int length, int uuidLength) {
+        if (mByServiceUuid.isEmpty()) {
+            return;
+        }
+        for (int pos = start; pos + uuidLength <= start + length; pos += uuidLength) {
+            addAll(candidates, mByServiceUuid.get(parseUuid(bytes, pos, uuidLength)));
+        }
+    }
+
+    private static ParcelUuid parseUuid(byte[] bytes, int start, int uuidLength) {
+        return BluetoothUuid.parseUuidFrom(Arrays.copyOfRange(bytes, start, start + uuidLength));
+    }
+
+    private static void addAll(Set<ScanClient> candidates, List<ScanClient> clients) {
+        if (clients != null) {
+            candidates.addAll(clients);
+        }
+    }
+
+    /**
+     * Returns the number of clients covered by this index.
+     */
+    int size() {
+        return mIndexedClients.size();
+    }
+
+    /**
+     * Returns the number of clients that have to be checked against every report.
+     */
+    int getUnconditionalCount() {
+        return mUnconditionalClients.size();
+    }
+}
@@ -122,6 +122,7 @@ public class ScanManager {
     private Set<ScanClient> mRegularScanClients;
     private Set<ScanClient> mBatchClients;
     private Set<ScanClient> mSuspendedScanClients;
+    private volatile ScanFilterIndex mRegularScanFilterIndex = ScanFilterIndex.EMPTY;
     private SparseIntArray mPriorityMap = new SparseIntArray();
 
     private CountDownLatch mLatch;
@@ -192,6 +193,7 @@ public class ScanManager {
 
     void cleanup() {
         mRegularScanClients.clear();
+        updateRegularScanFilterIndex();
         mBatchClients.clear();
         mSuspendedScanClients.clear();
         mScanNative.cleanup();
@@ -241,6 +243,18 @@ public class ScanManager {
         return mRegularScanClients;
     }
 
+    /**
+     * Returns the filter index of the regular scan queue.
+     */
+    ScanFilterIndex getRegularScanFilterIndex() {
+        return mRegularScanFilterIndex;
+    }
+
+    // Must be called whenever a client is added to or removed from the regular scan queue.
+    private void updateRegularScanFilterIndex() {
+        mRegularScanFilterIndex = ScanFilterIndex.build(mRegularScanClients);
+    }
+
     /**
      * Returns the suspended scan queue.
      */
@@ -411,6 +425,7 @@ public class ScanManager {
             } else {
                 updateScanModeBeforeStart(client);
                 mRegularScanClients.add(client);
+                updateRegularScanFilterIndex();
                 mScanNative.startRegularScan(client);
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
@@ -464,6 +479,8 @@ public class ScanManager {
             } else {
                 mScanNative.stopBatchScan(client);
             }
+            // Whichever path stopped the scan, its coalesced results must not be delivered
+            mService.removeCoalescedScanResults(client.scannerId);
             if (client.appDied) {
                 if (DBG) {
                     Log.d(TAG, "app died, unregister scanner - " + client.scannerId);
@@ -1067,6 +1084,7 @@ public class ScanManager {
                 }
             }
             mRegularScanClients.remove(client);
+            updateRegularScanFilterIndex();
             if (numRegularScanClients() == 0) {
                 if (DBG) {
                     Log.d(TAG, "stop gattClientScanNative");
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+
+import java.util.Arrays;
+
+/**
+ * Helper class holding a single advertising report received from the stack.
+ *
+ * The {@link BluetoothDevice}, {@link ScanRecord} and {@link ScanResult} for each scan record
+ * variant (legacy or extended) are built lazily and at most once per report, then shared by all
+ * scan clients the report is dispatched to.
+ * @hide
+ */
+/* package */ class ScanReport {
+    // Some apps are used to fixed-size legacy advertise data.
+    static final int LEGACY_ADV_DATA_LENGTH = 62;
+
+    private final int mEventType;
+    private final String mAddress;
+    private final int mPrimaryPhy;
+    private final int mSecondaryPhy;
+    private final int mAdvertisingSid;
+    private final int mTxPower;
+    private final int mRssi;
+    private final int mPeriodicAdvInt;
+    private final byte[] mAdvData;
+    private final long mTimestampNanos;
+
+    private BluetoothDevice mDevice;
+    private ScanResult mLegacyResult;
+    private ScanResult mExtendedResult;
+    private int mParsesAvoided;
+
+    ScanReport(int eventType, String address, int primaryPhy, int secondaryPhy,
+            int advertisingSid, int txPower, int rssi, int periodicAdvInt, byte[] advData,
+            long timestampNanos) {
+        mEventType = eventType;
+        mAddress = address;
+        mPrimaryPhy = primaryPhy;
+        mSecondaryPhy = secondaryPhy;
+        mAdvertisingSid = advertisingSid;
+        mTxPower = txPower;
+        mRssi = rssi;
+        mPeriodicAdvInt = periodicAdvInt;
+        mAdvData = advData;
+        mTimestampNanos = timestampNanos;
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    int getEventType() {
+        return mEventType;
+    }
+
+    /**
+     * Returns the shared {@link ScanResult} for the requested scan record variant, parsing the
+     * advertising data only the first time the variant is requested.
+     */
+    ScanResult getResult(boolean legacy) {
+        if (legacy) {
+            if (mLegacyResult == null) {
+                mLegacyResult = buildResult(
+                        Arrays.copyOfRange(mAdvData, 0, LEGACY_ADV_DATA_LENGTH));
+            } else {
+                mParsesAvoided++;
+            }
+            return mLegacyResult;
+        }
+        if (mExtendedResult == null) {
+            mExtendedResult = buildResult(mAdvData);
+        } else {
+            mParsesAvoided++;
+        }
+        return mExtendedResult;
+    }
+
+    /**
+     * Returns how many times a previously built result was reused instead of parsing the
+     * advertising data again.
+     */
+    int getParsesAvoided() {
+        return mParsesAvoided;
+    }
+
+    private ScanResult buildResult(byte[] scanRecordData) {
+        if (mDevice == null) {
+            mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(mAddress);
+        }
+        // Most reports are dropped by the filters, only decode the fields that get used.
+        ScanRecord scanRecord = ScanRecord.parseFromBytesLazy(scanRecordData);
+        return new ScanResult(mDevice, mEventType, mPrimaryPhy, mSecondaryPhy, mAdvertisingSid,
+                mTxPower, mRssi, mPeriodicAdvInt, scanRecord, mTimestampNanos);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+
+/**
+ * Holds the scan results of each scanner for a short window, so they reach the app in a single
+ * {@code onBatchScanResults} transaction instead of one transaction per result.
+ *
+ * All deliveries happen on the handler thread in the order results were added, which keeps the
+ * per-device ordering of the results.
+ * @hide
+ */
+/* package */ class ScanResultCoalescer {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanResultCoalescer";
+
+    private static final int MSG_FLUSH = 1;
+
+    private final GattService mService;
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final SparseArray<PendingResults> mPendingResults = new SparseArray<>();
+
+    @GuardedBy("mLock")
+    private long mFlushCount;
+    @GuardedBy("mLock")
+    private long mDeliveredResultCount;
+    @GuardedBy("mLock")
+    private long mTotalFlushLatencyMillis;
+    @GuardedBy("mLock")
+    private long mMaxFlushLatencyMillis;
+
+    private static class PendingResults {
+        final ScanClient mClient;
+        ArrayList<ScanResult> mResults = new ArrayList<>();
+        long mFirstResultTimeMillis;
+        boolean mFlushRequested;
+
+        PendingResults(ScanClient client) {
+            mClient = client;
+        }
+    }
+
+    ScanResultCoalescer(GattService service, Looper looper) {
+        mService = service;
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_FLUSH) {
+                    flush((PendingResults) msg.obj);
+                }
+            }
+        };
+    }
+
+    /**
+     * Holds a result for the client. The pending results are delivered once the oldest one is
+     * {@code windowMillis} old, or as soon as {@code maxResults} are pending.
+     */
+    void add(ScanClient client, ScanResult result, long windowMillis, int maxResults) {
+        synchronized (mLock) {
+            PendingResults pending = mPendingResults.get(client.scannerId);
+            if (pending != null && pending.mClient != client) {
+                // The scanner ID was reused by a new client, drop the results of the old one
+                mHandler.removeMessages(MSG_FLUSH, pending);
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new PendingResults(client);
+                mPendingResults.put(client.scannerId, pending);
+            }
+            if (pending.mResults.isEmpty()) {
+                pending.mFirstResultTimeMillis = SystemClock.elapsedRealtime();
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_FLUSH, pending),
+                        windowMillis);
+            }
+            pending.mResults.add(result);
+            if (pending.mResults.size() >= maxResults && !pending.mFlushRequested) {
+                pending.mFlushRequested = true;
+                mHandler.removeMessages(MSG_FLUSH, pending);
+                mHandler.sendMessage(mHandler.obtainMessage(MSG_FLUSH, pending));
+            }
+        }
+    }
+
+    /**
+     * Drops the pending results of a scanner that stopped scanning.
+     */
+    void removeScanner(int scannerId) {
+        synchronized (mLock) {
+            PendingResults pending = mPendingResults.get(scannerId);
+            if (pending != null) {
+                mPendingResults.remove(scannerId);
+                mHandler.removeMessages(MSG_FLUSH, pending);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getPendingScannerCount() {
+        synchronized (mLock) {
+            return mPendingResults.size();
+        }
+    }
+
+    void cleanup() {
+        synchronized (mLock) {
+            mPendingResults.clear();
+        }
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void flush(PendingResults pending) {
+        ArrayList<ScanResult> results;
+        synchronized (mLock) {
+            if (pending.mResults.isEmpty() || mPendingResults.get(pending.mClient.scannerId)
+                    != pending) {
+                return;
+            }
+            results = pending.mResults;
+            pending.mResults = new ArrayList<>();
+            pending.mFlushRequested = false;
+
+            long latencyMillis = SystemClock.elapsedRealtime() - pending.mFirstResultTimeMillis;
+            mFlushCount++;
+            mDeliveredResultCount += results.size();
+            mTotalFlushLatencyMillis += latencyMillis;
+            mMaxFlushLatencyMillis = Math.max(mMaxFlushLatencyMillis, latencyMillis);
+        }
+        if (DBG) {
+            Log.d(TAG, "flush() - scannerId=" + pending.mClient.scannerId + ", results="
+                    + results.size());
+        }
+        mService.deliverCoalescedScanResults(pending.mClient, results);
+    }
+
+    void dump(StringBuilder sb) {
+        synchronized (mLock) {
+            sb.append("  Coalesced scan results: flushes=").append(mFlushCount)
+                    .append(", results=").append(mDeliveredResultCount)
+                    .append(", avgFlushLatencyMs=")
+                    .append(mFlushCount == 0 ? 0 : mTotalFlushLatencyMillis / mFlushCount)
+                    .append(", maxFlushLatencyMs=").append(mMaxFlushLatencyMillis)
+                    .append(", pendingScanners=").append(mPendingResults.size())
+                    .append("\n");
+        }
+    }
+}
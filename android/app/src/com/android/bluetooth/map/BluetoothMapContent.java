@@ -59,8 +59,10 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 
 @TargetApi(19)
 public class BluetoothMapContent {
@@ -1413,38 +1415,13 @@ public class BluetoothMapContent {
         return e;
     }
 
-    /* TODO: Change to use SmsMmsContacts.getContactNameFromPhone() with proper use of
-     *       caching. */
+    /**
+     * Returns the display name of the contact with the given phone number, or null if there is
+     * none. Lookups go through the {@link ContactNameCache} shared by all MAS instances.
+     */
     public static String getContactNameFromPhone(String phone, ContentResolver resolver) {
-        String name = null;
-        //Handle possible exception for empty phone address
-        if (TextUtils.isEmpty(phone)) {
-            return name;
-        }
-
-        Uri uri =
-                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
-
-        String[] projection = {Contacts._ID, Contacts.DISPLAY_NAME};
-        String selection = Contacts.IN_VISIBLE_GROUP + "=1";
-        String orderBy = Contacts.DISPLAY_NAME + " ASC";
-        Cursor c = null;
-        try {
-            c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver, uri, projection,
-                    selection, null, orderBy);
-            if (c != null) {
-                int colIndex = c.getColumnIndex(Contacts.DISPLAY_NAME);
-                if (c.getCount() >= 1) {
-                    c.moveToFirst();
-                    name = c.getString(colIndex);
-                }
-            }
-        } finally {
-            if (c != null) {
-                c.close();
-            }
-        }
-        return name;
+        MapContact contact = ContactNameCache.getInstance().getContact(phone, resolver);
+        return contact != null ? contact.getName() : null;
     }
 
     private static final String[] RECIPIENT_ID_PROJECTION = {Threads.RECIPIENT_IDS};
@@ -2262,6 +2239,8 @@ public class BluetoothMapContent {
         Cursor mmsCursor = null;
         Cursor emailCursor = null;
         Cursor imCursor = null;
+        // Date ordered cursors, in the order their rows are listed when dates are equal
+        List<ListingSource> sources = new ArrayList<>(4);
         String limit = "";
         int countNum = ap.getMaxListCount();
         int offsetNum = ap.getStartOffset();
@@ -2295,21 +2274,12 @@ public class BluetoothMapContent {
                             Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(smsCursor, FilterInfo.TYPE_SMS));
                     }
                 }
             }
@@ -2338,21 +2308,12 @@ public class BluetoothMapContent {
                             Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(mmsCursor, FilterInfo.TYPE_MMS));
                     }
                 }
             }
@@ -2382,21 +2343,12 @@ public class BluetoothMapContent {
                             contentUri, BluetoothMapContract.BT_MESSAGE_PROJECTION, where, null,
                             BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
-                        int cnt = 0;
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
+                        sources.add(new ListingSource(emailCursor, FilterInfo.TYPE_EMAIL));
                     }
                 }
             }
@@ -2425,25 +2377,17 @@ public class BluetoothMapContent {
                         contentUri, BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
-                    }
+                    sources.add(new ListingSource(imCursor, FilterInfo.TYPE_IM));
                 }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
+            mergeListingSources(sources, bmList, offsetNum,
+                    ap.getMaxListCount() > 0 ? ap.getMaxListCount() : Integer.MAX_VALUE, fi, ap);
             List<BluetoothMapMessageListingElement> list = bmList.getList();
             int listSize = list.size();
             Cursor tmpCursor = null;
@@ -2511,6 +2455,121 @@ public class BluetoothMapContent {
         return bmList;
     }
 
+    /**
+     * A message listing cursor of one message type, ordered by date, most recent first.
+     */
+    private static final class ListingSource {
+        final Cursor mCursor;
+        final int mMsgType;
+        // Listing date of the current row
+        long mDate;
+
+        ListingSource(Cursor cursor, int msgType) {
+            mCursor = cursor;
+            mMsgType = msgType;
+        }
+    }
+
+    // Most recent first, then in message type order as the listing was sorted by a stable sort
+    private static final Comparator<ListingSource> LISTING_SOURCE_ORDER =
+            Comparator.<ListingSource>comparingLong(source -> source.mDate).reversed()
+                    .thenComparingInt(source -> source.mMsgType);
+
+    /**
+     * Merges the rows of the date ordered sources into {@code bmList}, most recent first. The
+     * first {@code offset} rows are skipped and at most {@code count} rows are listed, and
+     * elements are only built for the listed rows.
+     */
+    private void mergeListingSources(List<ListingSource> sourceList,
+            BluetoothMapMessageListing bmList, int offset, int count, FilterInfo fi,
+            BluetoothMapAppParams ap) {
+        PriorityQueue<ListingSource> sources =
+                new PriorityQueue<>(Math.max(1, sourceList.size()), LISTING_SOURCE_ORDER);
+        for (ListingSource source : sourceList) {
+            if (moveToNextListed(source, fi, ap)) {
+                sources.add(source);
+            }
+        }
+        while (!sources.isEmpty() && bmList.getCount() < count) {
+            ListingSource source = sources.poll();
+            fi.mMsgType = source.mMsgType;
+            if (offset > 0) {
+                offset--;
+                if (!isRead(source.mCursor, fi)) {
+                    bmList.setHasUnread();
+                }
+            } else {
+                bmList.add(element(source.mCursor, fi, ap));
+            }
+            if (moveToNextListed(source, fi, ap)) {
+                sources.add(source);
+            }
+        }
+        // Unread messages are reported for all the rows queried, not only for the listed ones.
+        while (!bmList.hasUnread() && !sources.isEmpty()) {
+            ListingSource source = sources.poll();
+            fi.mMsgType = source.mMsgType;
+            if (!isRead(source.mCursor, fi)) {
+                bmList.setHasUnread();
+            }
+            if (moveToNextListed(source, fi, ap)) {
+                sources.add(source);
+            }
+        }
+    }
+
+    /**
+     * Moves the source to its next row matching the address filters, and updates its date.
+     *
+     * @return false if there are no more rows
+     */
+    private boolean moveToNextListed(ListingSource source, FilterInfo fi,
+            BluetoothMapAppParams ap) {
+        Cursor c = source.mCursor;
+        fi.mMsgType = source.mMsgType;
+        boolean filterAddresses =
+                fi.mMsgType == FilterInfo.TYPE_SMS || fi.mMsgType == FilterInfo.TYPE_MMS;
+        while (c.moveToNext()) {
+            if (filterAddresses && !matchAddresses(c, fi, ap)) {
+                continue;
+            }
+            if (V) {
+                BluetoothMapUtils.printCursor(c);
+            }
+            source.mDate = getListingDate(c, fi, ap);
+            return true;
+        }
+        return false;
+    }
+
+    // Same date as set on the listing element by setDateTime()
+    private static long getListingDate(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
+        if ((ap.getParameterMask() & MASK_DATETIME) == 0) {
+            return 0;
+        }
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            return c.getLong(fi.mSmsColDate);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            return c.getLong(fi.mMmsColDate) * 1000L;
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            return c.getLong(fi.mMessageColDate);
+        }
+        return 0;
+    }
+
+    // Same read status as set on the listing element by setRead()
+    private static boolean isRead(Cursor c, FilterInfo fi) {
+        int read = 0;
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            read = c.getInt(fi.mSmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            read = c.getInt(fi.mMmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            read = c.getInt(fi.mMessageColRead);
+        }
+        return read == 1;
+    }
+
     /**
      * Get the size of the message listing
      * @param folderElement Must contain a valid folder string != null
@@ -482,7 +482,37 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    // Message list changes are handled CHANGE_DELAY_MS after the first onChange() of a burst.
+    // SMS and MMS rows are then only queried above the highest known _id. Only when that finds
+    // no new message, the change is a read status change, move or deletion, and the whole tables
+    // are reconciled, at most once per RECONCILE_INTERVAL_MS. All of this runs on the observer
+    // handler.
+    private static final long CHANGE_DELAY_MS = 100;
+    private static final long RECONCILE_INTERVAL_MS = 2000;
+
+    @VisibleForTesting
+    final Handler mHandler = new Handler();
+    private Uri mPendingMsgChangeUri = null;
+    private long mFirstPendingChangeMillis = 0;
+    private long mLastReconcileMillis = 0;
+    // Highest _id in the SMS and MMS lists, or -1 until the table has been reconciled.
+    private long mSmsHighWaterMark = -1;
+    private long mMmsHighWaterMark = -1;
+
+    // Statistics for the dump
+    private long mChangeNotificationCount = 0;
+    private long mChangeHandledCount = 0;
+    private long mReconcileCount = 0;
+    private long mRowsScanned = 0;
+    private long mLastChangeLatencyMillis = 0;
+    private long mMaxChangeLatencyMillis = 0;
+
+    @VisibleForTesting
+    final Runnable mHandleMsgListChanges = this::handlePendingMsgListChanges;
+    @VisibleForTesting
+    final Runnable mReconcileMsgList = this::reconcileMsgList;
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -508,11 +538,65 @@ public class BluetoothMapContentObserver {
             if (uri.toString().contains(BluetoothMapContract.TABLE_CONVOCONTACT)) {
                 handleContactListChanges(uri);
             } else {
-                handleMsgListChanges(uri);
+                scheduleMsgListChanges(uri);
             }
         }
     };
 
+    @VisibleForTesting
+    void scheduleMsgListChanges(Uri uri) {
+        mChangeNotificationCount++;
+        if (uri.getAuthority().equals(mAuthority)) {
+            mPendingMsgChangeUri = uri;
+        }
+        if (mFirstPendingChangeMillis == 0) {
+            mFirstPendingChangeMillis =
+                    BluetoothMethodProxy.getInstance().systemClockElapsedRealtime();
+            mHandler.postDelayed(mHandleMsgListChanges, CHANGE_DELAY_MS);
+        }
+    }
+
+    @VisibleForTesting
+    void handlePendingMsgListChanges() {
+        Uri msgChangeUri = mPendingMsgChangeUri;
+        mPendingMsgChangeUri = null;
+
+        long smsHighWaterMark = mSmsHighWaterMark;
+        long mmsHighWaterMark = mMmsHighWaterMark;
+        handleMsgListChanges(msgChangeUri);
+        if (mEnableSmsMms) {
+            long now = BluetoothMethodProxy.getInstance().systemClockElapsedRealtime();
+            if (smsHighWaterMark < 0 || mmsHighWaterMark < 0) {
+                // Not reconciled yet, the whole tables were just queried
+                mLastReconcileMillis = now;
+                mReconcileCount++;
+            } else if (mSmsHighWaterMark == smsHighWaterMark
+                    && mMmsHighWaterMark == mmsHighWaterMark
+                    && !mHandler.hasCallbacks(mReconcileMsgList)) {
+                mHandler.postDelayed(mReconcileMsgList,
+                        Math.max(0, mLastReconcileMillis + RECONCILE_INTERVAL_MS - now));
+            }
+        }
+
+        long latency = BluetoothMethodProxy.getInstance().systemClockElapsedRealtime()
+                - mFirstPendingChangeMillis;
+        mFirstPendingChangeMillis = 0;
+        mChangeHandledCount++;
+        mLastChangeLatencyMillis = latency;
+        mMaxChangeLatencyMillis = Math.max(mMaxChangeLatencyMillis, latency);
+    }
+
+    @VisibleForTesting
+    void reconcileMsgList() {
+        if (!mEnableSmsMms) {
+            return;
+        }
+        mLastReconcileMillis = BluetoothMethodProxy.getInstance().systemClockElapsedRealtime();
+        mReconcileCount++;
+        handleMsgListChangesSms(false);
+        handleMsgListChangesMms(false);
+    }
+
     private static final HashMap<Integer, String> FOLDER_SMS_MAP;
 
     static {
@@ -1081,6 +1165,9 @@ public class BluetoothMapContentObserver {
         }
         mResolver.unregisterContentObserver(mObserver);
         mObserverRegistered = false;
+        mHandler.removeCallbacks(mHandleMsgListChanges);
+        mHandler.removeCallbacks(mReconcileMsgList);
+        mFirstPendingChangeMillis = 0;
         if (mProviderClient != null) {
             mProviderClient.close();
             mProviderClient = null;
@@ -1308,6 +1395,7 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListSms()) {
                 getMsgListSms().clear();
                 setMsgListSms(msgListSms, true); // Set initial folder version counter
+                mSmsHighWaterMark = -1;
             }
 
             HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
@@ -1335,6 +1423,7 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListMms()) {
                 getMsgListMms().clear();
                 setMsgListMms(msgListMms, true); // Set initial folder version counter
+                mMmsHighWaterMark = -1;
             }
         }
 
@@ -1425,34 +1514,53 @@ public class BluetoothMapContentObserver {
 
     @VisibleForTesting
     void handleMsgListChangesSms() {
+        handleMsgListChangesSms(false);
+    }
+
+    /**
+     * @param newRowsOnly true to only query the messages above the high water mark, and keep
+     *                    the others as they are, false to reconcile the whole table
+     */
+    @VisibleForTesting
+    void handleMsgListChangesSms(boolean newRowsOnly) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesSms");
+            Log.d(TAG, "handleMsgListChangesSms newRowsOnly=" + newRowsOnly);
         }
-
         HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
         boolean listChanged = false;
 
         Cursor c;
         synchronized (getMsgListSms()) {
+            newRowsOnly &= mSmsHighWaterMark >= 0;
+            long highWaterMark = newRowsOnly ? mSmsHighWaterMark : -1;
+            String selection = newRowsOnly ? Sms._ID + " > " + mSmsHighWaterMark : null;
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, selection, null, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, selection, null, null);
             }
             try {
                 if (c != null && c.moveToFirst()) {
+                    mRowsScanned += c.getCount();
+                    int idIndex = c.getColumnIndexOrThrow(Sms._ID);
+                    int typeIndex = c.getColumnIndex(Sms.TYPE);
+                    int threadIdIndex = c.getColumnIndex(Sms.THREAD_ID);
+                    int readIndex = c.getColumnIndex(Sms.READ);
+                    int dateIndex = c.getColumnIndex(Sms.DATE);
+                    int bodyIndex = c.getColumnIndex(Sms.BODY);
+                    int addressIndex = c.getColumnIndex(Sms.ADDRESS);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Sms._ID);
                         if (c.isNull(idIndex)) {
                             Log.w(TAG, "handleMsgListChangesSms, ID is null");
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
+                        highWaterMark = Math.max(highWaterMark, id);
+                        int type = c.getInt(typeIndex);
+                        int threadId = c.getInt(threadIdIndex);
+                        int read = c.getInt(readIndex);
 
                         Msg msg = getMsgListSms().remove(id);
 
@@ -1468,7 +1576,7 @@ public class BluetoothMapContentObserver {
                             if (mTransmitEvents && // extract contact details only if needed
                                     mMapEventReportVersion
                                             > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                long timestamp = c.getLong(c.getColumnIndex(Sms.DATE));
+                                long timestamp = c.getLong(dateIndex);
                                 String date = BluetoothMapUtils.getDateTimeString(timestamp);
                                 if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
                                     // Skip sending message events older than one year
@@ -1476,14 +1584,14 @@ public class BluetoothMapContentObserver {
                                     msgListSms.remove(id);
                                     continue;
                                 }
-                                String subject = c.getString(c.getColumnIndex(Sms.BODY));
+                                String subject = c.getString(bodyIndex);
                                 if (subject == null) {
                                     subject = "";
                                 }
                                 String name = "";
                                 String phone = "";
                                 if (type == 1) { //inbox
-                                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
+                                    phone = c.getString(addressIndex);
                                     if (phone != null && !phone.isEmpty()) {
                                         name = BluetoothMapContent.getContactNameFromPhone(phone,
                                                 mResolver);
@@ -1575,6 +1683,17 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
+            if (c != null && !newRowsOnly) {
+                // Every row was queried, an empty table is reconciled too.
+                highWaterMark = Math.max(highWaterMark, 0);
+            }
+            mSmsHighWaterMark = highWaterMark;
+            if (newRowsOnly) {
+                // Rows below the high water mark were not queried, keep them as they are.
+                getMsgListSms().putAll(msgListSms);
+                setMsgListSms(getMsgListSms(), listChanged);
+                return;
+            }
             String eventType = EVENT_TYPE_DELETE;
             for (Msg msg : getMsgListSms().values()) {
                 // "old_folder" used only for MessageShift event
@@ -1594,37 +1713,58 @@ public class BluetoothMapContentObserver {
 
     @VisibleForTesting
     void handleMsgListChangesMms() {
+        handleMsgListChangesMms(false);
+    }
+
+    /**
+     * @param newRowsOnly true to only query the messages above the high water mark, and keep
+     *                    the others as they are, false to reconcile the whole table
+     */
+    private void handleMsgListChangesMms(boolean newRowsOnly) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesMms");
+            Log.d(TAG, "handleMsgListChangesMms newRowsOnly=" + newRowsOnly);
         }
-
         HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
         boolean listChanged = false;
+        // Incoming MMS are not listed until retrieved, keep them above the high water mark.
+        long firstNotRetrievedId = Long.MAX_VALUE;
         Cursor c;
         synchronized (getMsgListMms()) {
+            newRowsOnly &= mMmsHighWaterMark >= 0;
+            long highWaterMark = newRowsOnly ? mMmsHighWaterMark : -1;
+            String selection = newRowsOnly ? Mms._ID + " > " + mMmsHighWaterMark : null;
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, selection, null, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, selection, null, null);
             }
 
             try {
                 if (c != null && c.moveToFirst()) {
+                    mRowsScanned += c.getCount();
+                    int idIndex = c.getColumnIndexOrThrow(Mms._ID);
+                    int typeIndex = c.getColumnIndex(Mms.MESSAGE_BOX);
+                    int mtypeIndex = c.getColumnIndex(Mms.MESSAGE_TYPE);
+                    int threadIdIndex = c.getColumnIndex(Mms.THREAD_ID);
+                    int readIndex = c.getColumnIndex(Mms.READ);
+                    int dateIndex = c.getColumnIndex(Mms.DATE);
+                    int subjectIndex = c.getColumnIndex(Mms.SUBJECT);
+                    int priorityIndex = c.getColumnIndex(Mms.PRIORITY);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Mms._ID);
                         if (c.isNull(idIndex)) {
                             Log.w(TAG, "handleMsgListChangesMms, ID is null");
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
+                        highWaterMark = Math.max(highWaterMark, id);
+                        int type = c.getInt(typeIndex);
+                        int mtype = c.getInt(mtypeIndex);
+                        int threadId = c.getInt(threadIdIndex);
                         // TODO: Go through code to see if we have an issue with mismatch in types
                         //       for threadId. Seems to be a long in DB??
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
+                        int read = c.getInt(readIndex);
 
                         Msg msg = getMsgListMms().remove(id);
 
@@ -1637,6 +1777,7 @@ public class BluetoothMapContentObserver {
                             if (getMmsFolderName(type).equalsIgnoreCase(
                                     BluetoothMapContract.FOLDER_NAME_INBOX)
                                     && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
+                                firstNotRetrievedId = Math.min(firstNotRetrievedId, id);
                                 continue;
                             }
                             msg = new Msg(id, type, threadId, read);
@@ -1647,15 +1788,14 @@ public class BluetoothMapContentObserver {
                                             != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                                 // MMS date field is in seconds
                                 long timestamp =
-                                        TimeUnit.SECONDS.toMillis(
-                                            c.getLong(c.getColumnIndex(Mms.DATE)));
+                                        TimeUnit.SECONDS.toMillis(c.getLong(dateIndex));
                                 String date = BluetoothMapUtils.getDateTimeString(timestamp);
                                 if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
                                     // Skip sending new message events older than one year
                                     msgListMms.remove(id);
                                     continue;
                                 }
-                                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
+                                String subject = c.getString(subjectIndex);
                                 if (subject == null || subject.length() == 0) {
                                     /* Get subject from mms text body parts - if any exists */
                                     subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
@@ -1663,7 +1803,7 @@ public class BluetoothMapContentObserver {
                                         subject = "";
                                     }
                                 }
-                                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
+                                int tmpPri = c.getInt(priorityIndex);
                                 Log.d(TAG, "TEMP handleMsgListChangesMms, "
                                         + "newMessage 'read' state: " + read + "priority: "
                                         + tmpPri);
@@ -1760,6 +1900,17 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
+            if (c != null && !newRowsOnly) {
+                // Every row was queried, an empty table is reconciled too.
+                highWaterMark = Math.max(highWaterMark, 0);
+            }
+            mMmsHighWaterMark = Math.min(highWaterMark, firstNotRetrievedId - 1);
+            if (newRowsOnly) {
+                // Rows below the high water mark were not queried, keep them as they are.
+                getMsgListMms().putAll(msgListMms);
+                setMsgListMms(getMsgListMms(), listChanged);
+                return;
+            }
             for (Msg msg : getMsgListMms().values()) {
                 // "old_folder" used only for MessageShift event
                 Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
@@ -1964,8 +2115,14 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    /**
+     * Looks for SMS and MMS above the high water marks, or in the whole tables until they have
+     * been reconciled, and for the changes of the account messages.
+     *
+     * @param uri the changed message URI of the account, or null if it did not change
+     */
     private void handleMsgListChanges(Uri uri) {
-        if (uri.getAuthority().equals(mAuthority)) {
+        if (uri != null) {
             try {
                 if (D) {
                     Log.d(TAG, "handleMsgListChanges: account type = " + mAccount.getType()
@@ -1981,8 +2138,8 @@ public class BluetoothMapContentObserver {
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
         if (mEnableSmsMms) {
-            handleMsgListChangesSms();
-            handleMsgListChangesMms();
+            handleMsgListChangesSms(true);
+            handleMsgListChangesMms(true);
         }
     }
 
@@ -3779,6 +3936,16 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    void dump(StringBuilder sb) {
+        sb.append("  Message list changes: notifications=").append(mChangeNotificationCount)
+                .append(", handled=").append(mChangeHandledCount)
+                .append(", reconciles=").append(mReconcileCount)
+                .append(", rowsScanned=").append(mRowsScanned)
+                .append(", lastLatencyMs=").append(mLastChangeLatencyMillis)
+                .append(", maxLatencyMs=").append(mMaxChangeLatencyMillis)
+                .append("\n");
+    }
+
     public boolean handleSmsSendIntent(Context context, Intent intent) {
         TYPE type = TYPE.fromOrdinal(
                 intent.getIntExtra(EXTRA_MESSAGE_SENT_MSG_TYPE, TYPE.NONE.ordinal()));
@@ -25,6 +25,7 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
@@ -93,17 +94,7 @@ public class BluetoothMapConvoListing {
         XmlSerializer xmlConvoElement = Xml.newSerializer();
         try {
             xmlConvoElement.setOutput(sw);
-            xmlConvoElement.startDocument("UTF-8", true);
-            xmlConvoElement.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                    true);
-            xmlConvoElement.startTag(null, XML_TAG);
-            xmlConvoElement.attribute(null, "version", "1.0");
-            // Do the XML encoding of list
-            for (BluetoothMapConvoListingElement element : mList) {
-                element.encode(xmlConvoElement); // Append the list element
-            }
-            xmlConvoElement.endTag(null, XML_TAG);
-            xmlConvoElement.endDocument();
+            encode(xmlConvoElement);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
@@ -114,6 +105,39 @@ public class BluetoothMapConvoListing {
         return sw.toString().getBytes("UTF-8");
     }
 
+    /**
+     * Encode the list as UTF-8 XML directly into {@code out}, one element at a time, so that no
+     * copy of the whole listing is held in memory. The caller is expected to buffer {@code out}
+     * to its transport packet size, and to close it.
+     *
+     * @throws IOException if writing to {@code out} failed, e.g. because the transfer was aborted
+     */
+    public void encode(OutputStream out) throws IOException {
+        XmlSerializer xmlConvoElement = Xml.newSerializer();
+        try {
+            xmlConvoElement.setOutput(out, "UTF-8");
+            encode(xmlConvoElement);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, e);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, e);
+        }
+    }
+
+    private void encode(XmlSerializer xmlConvoElement) throws IOException {
+        xmlConvoElement.startDocument("UTF-8", true);
+        xmlConvoElement.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
+                true);
+        xmlConvoElement.startTag(null, XML_TAG);
+        xmlConvoElement.attribute(null, "version", "1.0");
+        // Do the XML encoding of list
+        for (BluetoothMapConvoListingElement element : mList) {
+            element.encode(xmlConvoElement); // Append the list element
+        }
+        xmlConvoElement.endTag(null, XML_TAG);
+        xmlConvoElement.endDocument();
+    }
+
     public void sort() {
         Collections.sort(mList);
     }
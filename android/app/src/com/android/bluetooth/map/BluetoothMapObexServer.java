@@ -39,6 +39,8 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -1146,6 +1148,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
         BluetoothMapMessageListing outList;
+        // Set if the listing is to be encoded straight into the body stream
+        BluetoothMapMessageListing bodyList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1194,7 +1199,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 outList = mOutContent.msgListing(folderToList, appParams);
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
@@ -1203,7 +1207,11 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 }
                 /* This will only set the version, the bit must also be checked before adding any
                  * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
+                if (BluetoothMapMessageListing.needsUnescapedOutput()) {
+                    outBytes = outList.encode(mThreadIdSupport, version);
+                } else {
+                    bodyList = outList;
+                }
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1264,7 +1272,21 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (bodyList != null) {
+            try (OutputStream bodyStream = openBodyStream(outStream, maxChunkSize)) {
+                bodyList.encode(bodyStream, mThreadIdSupport, version);
+            } catch (IOException e) {
+                if (D) {
+                    Log.w(TAG, e);
+                }
+                // We were probably aborted or disconnected
+                if (!mIsAborted) {
+                    Log.w(TAG, "sendMessageListingRsp: streaming the listing failed"
+                            + " - sending OBEX_HTTP_BAD_REQUEST");
+                    return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
+                }
+            }
+        } else if (outBytes != null) {
             try {
                 while (bytesWritten < outBytes.length && !mIsAborted) {
                     bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
@@ -1356,12 +1378,13 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private int sendConvoListingRsp(Operation op, BluetoothMapAppParams appParams,
             String folderName) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0;
+        int maxChunkSize;
         //boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
         BluetoothMapConvoListing outList;
+        // Set if the listing is to be encoded straight into the body stream
+        BluetoothMapConvoListing bodyList = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1384,11 +1407,7 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             if (appParams.getMaxListCount() != 0) {
                 outList = mOutContent.convoListing(appParams, false);
                 outAppParams.setConvoListingSize(outList.getCount());
-                // Generate the byte stream
-                outBytes = outList.encode(); // Include thread ID for clients that supports it.
-                if (D) {
-                    Log.d(TAG, "outBytes size:" + outBytes.length);
-                }
+                bodyList = outList;
             } else {
                 outList = mOutContent.convoListing(appParams, true);
                 outAppParams.setConvoListingSize(outList.getCount());
@@ -1451,31 +1470,20 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
-            try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+        if (bodyList != null) {
+            try (OutputStream bodyStream = openBodyStream(outStream, maxChunkSize)) {
+                bodyList.encode(bodyStream);
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
                 }
                 // We were probably aborted or disconnected
-            } finally {
-                if (outStream != null) {
-                    try {
-                        outStream.close();
-                    } catch (IOException e) {
-                    }
+                if (!mIsAborted) {
+                    Log.w(TAG, "sendConvoListingRsp: streaming the listing failed"
+                            + " - sending OBEX_HTTP_BAD_REQUEST");
+                    return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendConvoListingRsp: bytesWritten != outBytes.length"
-                        + " - sending OBEX_HTTP_BAD_REQUEST");
-                return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
-            }
         } else {
             if (outStream != null) {
                 try {
@@ -1487,6 +1495,23 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         return ResponseCodes.OBEX_HTTP_OK;
     }
 
+    /**
+     * Wraps the OBEX body stream so that listings are encoded into it one packet at a time.
+     * Writing a packet blocks until the peer has taken it, which paces the encoder, and fails
+     * once the operation is aborted.
+     */
+    private OutputStream openBodyStream(OutputStream outStream, int maxChunkSize) {
+        return new BufferedOutputStream(new FilterOutputStream(outStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (mIsAborted) {
+                    throw new IOException("Operation aborted");
+                }
+                out.write(b, off, len);
+            }
+        }, maxChunkSize);
+    }
+
     /**
      * Generate and send the Folder listing response based on an application
      * parameter header. This function call will block until complete or aborted
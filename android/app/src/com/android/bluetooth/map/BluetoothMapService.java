@@ -705,6 +705,7 @@ public class BluetoothMapService extends ProfileService {
         }
         mAdapterService = AdapterService.getAdapterService();
         mAppObserver = new BluetoothMapAppObserver(this, this);
+        ContactNameCache.getInstance().register(getContentResolver());
 
         TelephonyManager tm = getSystemService(TelephonyManager.class);
         mSmsCapable = tm.isSmsCapable();
@@ -899,6 +900,7 @@ public class BluetoothMapService extends ProfileService {
             unregisterReceiver(mMapReceiver);
             mAppObserver.shutdown();
         }
+        ContactNameCache.getInstance().unregister();
         sendShutdownMessage();
         setComponentAvailable(MAP_SETTINGS_ACTIVITY, false);
         setComponentAvailable(MAP_FILE_PROVIDER, false);
@@ -1422,6 +1424,15 @@ public class BluetoothMapService extends ProfileService {
         for (BluetoothMapAccountItem key : mMasInstanceMap.keySet()) {
             println(sb, "  " + key + " : " + mMasInstanceMap.get(key));
         }
+        println(sb, "mMasInstances:");
+        for (int i = 0; i < mMasInstances.size(); i++) {
+            BluetoothMapMasInstance masInstance = mMasInstances.valueAt(i);
+            println(sb, "  " + mMasInstances.keyAt(i) + " : " + masInstance);
+            if (masInstance.mObserver != null) {
+                masInstance.mObserver.dump(sb);
+            }
+        }
+        ContactNameCache.getInstance().dump(sb);
         println(sb, "mEnabledAccounts:");
         for (BluetoothMapAccountItem account : mEnabledAccounts) {
             println(sb, "  " + account);
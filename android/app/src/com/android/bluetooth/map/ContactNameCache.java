@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.PhoneLookup;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Locale;
+
+/**
+ * Phone number to contact cache shared by the message listings, bMessages and event reports of
+ * all MAS instances, so that each number is looked up in the Contacts provider only once.
+ *
+ * Numbers without a contact are cached too. The cache is only used while registered, as it is
+ * cleared whenever the Contacts provider reports a change.
+ */
+final class ContactNameCache {
+    private static final int MAX_ENTRIES = 512;
+
+    private static final String CONTACT_SEL_VISIBLE = Contacts.IN_VISIBLE_GROUP + "=1";
+    private static final String CONTACT_ORDER = Contacts.DISPLAY_NAME + " ASC";
+
+    // Cached for numbers without any visible contact
+    private static final MapContact NO_CONTACT = MapContact.create(-1, null);
+
+    private static final ContactNameCache sInstance = new ContactNameCache();
+
+    private final LruCache<String, MapContact> mContacts = new LruCache<>(MAX_ENTRIES);
+
+    @GuardedBy("this")
+    private ContentResolver mResolver = null;
+    @GuardedBy("this")
+    private ContentObserver mObserver = null;
+    // Incremented on each invalidation, so that lookups racing with it are not cached.
+    @GuardedBy("this")
+    private long mGeneration = 0;
+    @GuardedBy("this")
+    private long mInvalidationCount = 0;
+
+    static ContactNameCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Starts caching, until {@link #unregister()} is called.
+     */
+    synchronized void register(ContentResolver resolver) {
+        if (mObserver != null) {
+            return;
+        }
+        mObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        mResolver = resolver;
+        mResolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, mObserver);
+    }
+
+    synchronized void unregister() {
+        if (mObserver == null) {
+            return;
+        }
+        mResolver.unregisterContentObserver(mObserver);
+        mObserver = null;
+        mResolver = null;
+        invalidate();
+    }
+
+    @VisibleForTesting
+    synchronized void invalidate() {
+        mGeneration++;
+        mInvalidationCount++;
+        mContacts.evictAll();
+    }
+
+    /**
+     * Returns the cached contact of {@code phone}, {@link #NO_CONTACT} if it is known not to have
+     * one, or null if it is not cached.
+     */
+    private MapContact peek(String phone) {
+        synchronized (this) {
+            if (mObserver == null) {
+                return null;
+            }
+        }
+        return mContacts.get(phone);
+    }
+
+    /**
+     * Returns the contact of {@code phone}, looking it up in the Contacts provider if needed.
+     *
+     * @return the contact, or null if the phone number has no visible contact
+     */
+    MapContact getContact(String phone, ContentResolver resolver) {
+        return getContact(phone, resolver, null);
+    }
+
+    /**
+     * Returns the contact of {@code phone}, looking it up in the Contacts provider if needed.
+     *
+     * @param contactNameFilter if not null, only return the contact if its name contains the
+     *                          filter, with '*' matching any characters
+     * @return the contact, or null if the phone number has no visible contact or it does not
+     *         match the filter
+     */
+    MapContact getContact(String phone, ContentResolver resolver, String contactNameFilter) {
+        if (TextUtils.isEmpty(phone)) {
+            return null;
+        }
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        MapContact contact = peek(phone);
+        if (contact == null) {
+            contact = query(phone, resolver, null);
+            synchronized (this) {
+                if (mObserver != null && generation == mGeneration) {
+                    mContacts.put(phone, contact);
+                }
+            }
+        }
+        if (contact == NO_CONTACT) {
+            return null;
+        }
+        if (contactNameFilter != null && !matches(contact.getName(), contactNameFilter)) {
+            // Another contact sharing the number may match, only the first one is cached.
+            contact = query(phone, resolver, contactNameFilter);
+            return contact == NO_CONTACT ? null : contact;
+        }
+        return contact;
+    }
+
+    /**
+     * Looks up the first visible contact of {@code phone} in the Contacts provider.
+     *
+     * @param contactNameFilter if not null, only look for contacts whose name contains the filter
+     */
+    private static MapContact query(String phone, ContentResolver resolver,
+            String contactNameFilter) {
+        Uri uri =
+                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
+        String selection = CONTACT_SEL_VISIBLE;
+        String[] selectionArgs = null;
+        if (contactNameFilter != null) {
+            selection += " AND " + Contacts.DISPLAY_NAME + " like ?";
+            selectionArgs = new String[] {"%" + contactNameFilter.replace("*", "%") + "%"};
+        }
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver, uri,
+                SmsMmsContacts.CONTACT_PROJECTION, selection, selectionArgs, CONTACT_ORDER);
+        try {
+            if (c != null && c.getCount() >= 1) {
+                c.moveToFirst();
+                return MapContact.create(c.getLong(c.getColumnIndex(Contacts._ID)),
+                        c.getString(c.getColumnIndex(Contacts.DISPLAY_NAME)));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return NO_CONTACT;
+    }
+
+    // Same as the "like %filter%" selection used to query the Contacts provider.
+    private static boolean matches(String name, String contactNameFilter) {
+        if (name == null) {
+            return false;
+        }
+        String lowerName = name.toLowerCase(Locale.US);
+        String[] parts = contactNameFilter.toLowerCase(Locale.US).split("\\*", -1);
+        int from = 0;
+        for (String part : parts) {
+            int index = lowerName.indexOf(part, from);
+            if (index < 0) {
+                return false;
+            }
+            from = index + part.length();
+        }
+        return true;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Contact name cache: registered=").append(mObserver != null)
+                .append(", size=").append(mContacts.size())
+                .append(", hits=").append(mContacts.hitCount())
+                .append(", misses=").append(mContacts.missCount())
+                .append(", evictions=").append(mContacts.evictionCount())
+                .append(", invalidations=").append(mInvalidationCount)
+                .append("\n");
+    }
+}
@@ -19,9 +19,7 @@ import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.database.Cursor;
 import android.net.Uri;
-import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Telephony.CanonicalAddressesColumns;
 import android.provider.Telephony.MmsSms;
 import android.util.Log;
@@ -31,7 +29,6 @@ import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.regex.Pattern;
 
 /**
  * Use these functions when extracting data for listings. It caches frequently used data to
@@ -43,8 +40,6 @@ public class SmsMmsContacts {
     private static final String TAG = "SmsMmsContacts";
 
     private HashMap<Long, String> mPhoneNumbers = null;
-    @VisibleForTesting
-    final HashMap<String, MapContact> mNames = new HashMap<String, MapContact>(10);
 
     private static final Uri ADDRESS_URI =
             MmsSms.CONTENT_URI.buildUpon().appendPath("canonical-addresses").build();
@@ -60,11 +55,6 @@ public class SmsMmsContacts {
 
     @VisibleForTesting
     static final String[] CONTACT_PROJECTION = {Contacts._ID, Contacts.DISPLAY_NAME};
-    private static final String CONTACT_SEL_VISIBLE = Contacts.IN_VISIBLE_GROUP + "=1";
-    private static final int COL_CONTACT_ID =
-            Arrays.asList(CONTACT_PROJECTION).indexOf(Contacts._ID);
-    private static final int COL_CONTACT_NAME =
-            Arrays.asList(CONTACT_PROJECTION).indexOf(Contacts.DISPLAY_NAME);
 
     /**
      * Get a contacts phone number based on the canonical addresses id of the contact.
@@ -108,9 +98,6 @@ public class SmsMmsContacts {
         if (mPhoneNumbers != null) {
             mPhoneNumbers.clear();
         }
-        if (mNames != null) {
-            mNames.clear();
-        }
     }
 
     /**
@@ -156,62 +143,16 @@ public class SmsMmsContacts {
     }
 
     /**
-     * Lookup a contacts name in the Android Contacts database.
+     * Lookup a contacts name in the Android Contacts database. Contacts are cached across
+     * listings by {@link ContactNameCache}.
      * @param phone the phone number of the contact
      * @param resolver the ContentResolver to use.
-     * @return the name of the contact or null, if no contact was found.
+     * @param contactNameFilter if not null, only return the contact if its name contains the
+     *                          filter, with '*' matching any characters
+     * @return the name of the contact or null, if no matching contact was found.
      */
     public MapContact getContactNameFromPhone(String phone, ContentResolver resolver,
             String contactNameFilter) {
-        MapContact contact = mNames.get(phone);
-
-        if (contact != null) {
-            if (contact.getId() < 0) {
-                return null;
-            }
-            if (contactNameFilter == null) {
-                return contact;
-            }
-            // Validate filter
-            String searchString = contactNameFilter.replace("*", ".*");
-            searchString = ".*" + searchString + ".*";
-            Pattern p = Pattern.compile(Pattern.quote(searchString), Pattern.CASE_INSENSITIVE);
-            if (p.matcher(contact.getName()).find()) {
-                return contact;
-            }
-            return null;
-        }
-
-        // TODO: Should we change to extract both formatted name, and display name?
-
-        Uri uri =
-                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
-        String selection = CONTACT_SEL_VISIBLE;
-        String[] selectionArgs = null;
-        if (contactNameFilter != null) {
-            selection += "AND " + ContactsContract.Contacts.DISPLAY_NAME + " like ?";
-            selectionArgs = new String[]{"%" + contactNameFilter.replace("*", "%") + "%"};
-        }
-
-        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver, uri,
-                CONTACT_PROJECTION, selection, selectionArgs, null);
-        try {
-            if (c != null && c.getCount() >= 1) {
-                c.moveToFirst();
-                long id = c.getLong(COL_CONTACT_ID);
-                String name = c.getString(COL_CONTACT_NAME);
-                contact = MapContact.create(id, name);
-                mNames.put(phone, contact);
-            } else {
-                contact = MapContact.create(-1, null);
-                mNames.put(phone, contact);
-                contact = null;
-            }
-        } finally {
-            if (c != null) {
-                c.close();
-            }
-        }
-        return contact;
+        return ContactNameCache.getInstance().getContact(phone, resolver, contactNameFilter);
     }
 }
@@ -627,9 +627,16 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
         mContactChangeObserver = null;
         setComponentAvailable(PBAP_ACTIVITY, false);
         mPbapStateMachineMap.clear();
+        VCardCache.getInstance().clear();
         return true;
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        VCardCache.getInstance().dump(sb);
+    }
+
     /**
      * Get the current instance of {@link BluetoothPbapService}
      *
@@ -34,6 +34,7 @@
 package com.android.bluetooth.pbap;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWindowAllocationException;
@@ -63,8 +64,14 @@ import com.android.vcard.VCardConfig;
 import com.android.vcard.VCardPhoneNumberTranslationCallback;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 public class BluetoothPbapVcardManager {
     private static final String TAG = "BluetoothPbapVcardManager";
@@ -702,6 +709,27 @@ public class BluetoothPbapVcardManager {
         }
     }
 
+    /**
+     * Returns the contact IDs of {@code contactIdCursor}, leaving it at its first row.
+     */
+    private static long[] getContactIds(Cursor contactIdCursor, int idColumn) {
+        long[] contactIds = new long[contactIdCursor.getCount()];
+        for (int i = 0; contactIdCursor.moveToPosition(i); i++) {
+            contactIds[i] = contactIdCursor.getLong(idColumn);
+        }
+        contactIdCursor.moveToFirst();
+        return contactIds;
+    }
+
+    /**
+     * Returns the vCard type to cache composed vCards with, including the configured photo
+     * export added by {@link BluetoothPbapUtils#createFilteredVCardComposer}.
+     */
+    private static int getCachedVCardType(int vcardType) {
+        return BluetoothPbapConfig.includePhotosInVcard() ? vcardType
+                : vcardType | VCardConfig.FLAG_REFRAIN_IMAGE_EXPORT;
+    }
+
     private int composeContactsAndSendVCards(Operation op, final Cursor contactIdCursor,
             final boolean vcardType21, String ownerVCard, boolean ignorefilter, byte[] filter) {
         long timestamp = 0;
@@ -710,9 +738,12 @@ public class BluetoothPbapVcardManager {
         }
 
         VCardComposer composer = null;
-        VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
+        VCardStreamFilter vcardfilter = new VCardStreamFilter(ignorefilter ? null : filter,
+                vcardType21, /*stripTelephoneNumbers=*/true, /*selector=*/null,
+                /*selectorOperator=*/null);
 
         HandlerForStringBuffer buffer = null;
+        RawContactEntityLoader loader = null;
         try {
             // Currently only support Generic Vcard 2.1 and 3.0
             int vcardType;
@@ -757,15 +788,17 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            VCardCache.Lookup cachedVCards = VCardCache.getInstance().lookup(mResolver,
+                    getContactIds(contactIdCursor, idColumn), getCachedVCardType(vcardType));
+            loader = new RawContactEntityLoader(mResolver, cachedVCards.getMissingContactIds());
 
-            while (!contactIdCursor.isAfterLast()) {
+            for (int i = 0; !contactIdCursor.isAfterLast(); i++) {
                 if (BluetoothPbapObexServer.sIsAborted) {
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                String vcard = getVCard(cachedVCards, i, loader, composer);
                 if (!contactIdCursor.moveToNext()) {
                     Log.e(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -780,19 +813,21 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "vCard from composer: " + vcard);
                 }
 
-                vcard = vcardfilter.apply(vcard, vcardType21);
-                vcard = stripTelephoneNumber(vcard);
+                vcardfilter.apply(vcard);
 
                 if (V) {
-                    Log.v(TAG, "vCard after cleanup: " + vcard);
+                    Log.v(TAG, "vCard after cleanup: " + vcardfilter.getEncoded());
                 }
 
-                if (!buffer.writeVCard(vcard)) {
+                if (!vcardfilter.writeTo(buffer)) {
                     // onEntryCreate() already emits error.
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
             }
         } finally {
+            if (loader != null) {
+                loader.close();
+            }
             if (composer != null) {
                 composer.terminate();
             }
@@ -809,6 +844,39 @@ public class BluetoothPbapVcardManager {
         return ResponseCodes.OBEX_HTTP_OK;
     }
 
+    /**
+     * Returns the vCard of the contact at {@code index}, from the cache or composed from the
+     * entities loaded by {@code loader}.
+     *
+     * @return the vCard, "" if the contact does not exist anymore, or null if it could not be
+     *         loaded. Only vCards composed from loaded entities are cached, so that a contact
+     *         that failed to load is composed again on the next pull.
+     */
+    @VisibleForTesting
+    static String getVCard(VCardCache.Lookup cachedVCards, int index,
+            RawContactEntityLoader loader, VCardComposer composer) {
+        String vcard = cachedVCards.get(index);
+        if (vcard != null) {
+            return vcard;
+        }
+        Map<String, List<ContentValues>> entities;
+        try {
+            entities = loader.next();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to load raw contact entities", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (entities == null) {
+            return "";
+        }
+        vcard = composer.buildVCard(entities);
+        cachedVCards.put(index, vcard);
+        return vcard;
+    }
+
     private int composeContactsAndSendSelectedVCards(Operation op, final Cursor contactIdCursor,
             final boolean vcardType21, String ownerVCard, int needSendBody, int pbSize,
             boolean ignorefilter, byte[] filter, byte[] selector, String vcardselectorop) {
@@ -818,10 +886,11 @@ public class BluetoothPbapVcardManager {
         }
 
         VCardComposer composer = null;
-        VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
-        PropertySelector vcardselector = new PropertySelector(selector);
+        VCardStreamFilter vcardfilter = new VCardStreamFilter(ignorefilter ? null : filter,
+                vcardType21, /*stripTelephoneNumbers=*/true, selector, vcardselectorop);
 
         HandlerForStringBuffer buffer = null;
+        RawContactEntityLoader loader = null;
 
         try {
             // Currently only support Generic Vcard 2.1 and 3.0
@@ -862,15 +931,17 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            VCardCache.Lookup cachedVCards = VCardCache.getInstance().lookup(mResolver,
+                    getContactIds(contactIdCursor, idColumn), getCachedVCardType(vcardType));
+            loader = new RawContactEntityLoader(mResolver, cachedVCards.getMissingContactIds());
 
-            while (!contactIdCursor.isAfterLast()) {
+            for (int i = 0; !contactIdCursor.isAfterLast(); i++) {
                 if (BluetoothPbapObexServer.sIsAborted) {
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                String vcard = getVCard(cachedVCards, i, loader, composer);
                 if (!contactIdCursor.moveToNext()) {
                     Log.e(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -885,24 +956,25 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "Checking selected bits in the vcard composer" + vcard);
                 }
 
-                if (!vcardselector.checkVCardSelector(vcard, vcardselectorop)) {
+                boolean selected = needSendBody == NEED_SEND_BODY ? vcardfilter.apply(vcard)
+                        : vcardfilter.isSelected(vcard);
+                if (!selected) {
                     Log.e(TAG, "vcard selector check fail");
                     vcard = null;
                     pbSize--;
                     continue;
                 }
 
-                Log.e(TAG, "vcard selector check pass");
+                if (V) {
+                    Log.v(TAG, "vcard selector check pass");
+                }
 
                 if (needSendBody == NEED_SEND_BODY) {
-                    vcard = vcardfilter.apply(vcard, vcardType21);
-                    vcard = stripTelephoneNumber(vcard);
-
                     if (V) {
-                        Log.v(TAG, "vCard after cleanup: " + vcard);
+                        Log.v(TAG, "vCard after cleanup: " + vcardfilter.getEncoded());
                     }
 
-                    if (!buffer.writeVCard(vcard)) {
+                    if (!vcardfilter.writeTo(buffer)) {
                         // onEntryCreate() already emits error.
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
@@ -913,6 +985,9 @@ public class BluetoothPbapVcardManager {
                 return pbSize;
             }
         } finally {
+            if (loader != null) {
+                loader.close();
+            }
             if (composer != null) {
                 composer.terminate();
             }
@@ -942,8 +1017,8 @@ public class BluetoothPbapVcardManager {
         HandlerForStringBuffer buffer = null;
 
         try {
-            VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
-            PropertySelector vcardselector = new PropertySelector(selector);
+            VCardStreamFilter vcardfilter = new VCardStreamFilter(ignorefilter ? null : filter,
+                    vcardType21, /*stripTelephoneNumbers=*/false, selector, vcardselectorop);
             composer = new BluetoothPbapCallLogComposer(mContext);
             buffer = new HandlerForStringBuffer(op, ownerVCard);
             if (!composer.init(CallLog.Calls.CONTENT_URI, selection, null, CALLLOG_SORT_ORDER)
@@ -959,29 +1034,31 @@ public class BluetoothPbapVcardManager {
                 }
                 String vcard = composer.createOneEntry(vcardType21);
                 if (vCardSelct) {
-                    if (!vcardselector.checkVCardSelector(vcard, vcardselectorop)) {
+                    if (needSendBody != NEED_SEND_BODY) {
+                        if (!vcardfilter.isSelected(vcard)) {
+                            Log.e(TAG, "Checking vcard selector for call log");
+                            pbSize--;
+                        }
+                        continue;
+                    }
+                    if (vcard == null) {
+                        Log.e(TAG, "Failed to read a contact. Error reason: "
+                                + composer.getErrorReason());
+                        return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+                    } else if (vcard.isEmpty()) {
+                        Log.i(TAG, "Call Log may have been deleted during operation");
+                        continue;
+                    }
+                    if (!vcardfilter.apply(vcard)) {
                         Log.e(TAG, "Checking vcard selector for call log");
-                        vcard = null;
-                        pbSize--;
                         continue;
                     }
-                    if (needSendBody == NEED_SEND_BODY) {
-                        if (vcard == null) {
-                            Log.e(TAG, "Failed to read a contact. Error reason: "
-                                    + composer.getErrorReason());
-                            return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
-                        } else if (vcard.isEmpty()) {
-                            Log.i(TAG, "Call Log may have been deleted during operation");
-                            continue;
-                        }
-                        vcard = vcardfilter.apply(vcard, vcardType21);
 
-                        if (V) {
-                            Log.v(TAG, "Vcard Entry:");
-                            Log.v(TAG, vcard);
-                        }
-                        buffer.writeVCard(vcard);
+                    if (V) {
+                        Log.v(TAG, "Vcard Entry:");
+                        Log.v(TAG, vcardfilter.getEncoded());
                     }
+                    vcardfilter.writeTo(buffer);
                 } else {
                     if (vcard == null) {
                         Log.e(TAG, "Failed to read a contact. Error reason: "
@@ -1231,6 +1308,269 @@ public class BluetoothPbapVcardManager {
         }
     }
 
+    /**
+     * Applies a {@link VCardFilter}, {@link #stripTelephoneNumber(String)} and a {@link
+     * PropertySelector} to composed vCards in a single pass, encoding the kept lines straight into
+     * a reused buffer for {@link HandlerForStringBuffer#writeVCard(byte[], int)}.
+     *
+     * The output is the same as the bytes of the separately filtered, stripped and selected vCard.
+     * Property names are looked up in a precomputed table without copying them.
+     */
+    @VisibleForTesting
+    static class VCardStreamFilter {
+        private static final String X_PROPERTY_PREFIX = "X-";
+        private static final String DATETIME_PROPERTY = "X-IRMC-CALL-DATETIME";
+        private static final String TEL_PROPERTY = "TEL";
+
+        // Known property names, with their filter bit and selector bit, if any
+        private static final String[] PROPERTY_NAMES;
+        private static final VCardFilter.FilterBit[] PROPERTY_FILTER_BITS;
+        private static final long[] PROPERTY_SELECTOR_MASKS;
+        // Indexes in PROPERTY_NAMES by first character
+        private static final int[][] PROPERTY_INDEXES = new int[128][];
+
+        static {
+            Map<String, Integer> indexes = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            for (VCardFilter.FilterBit bit : VCardFilter.FilterBit.values()) {
+                indexes.put(bit.prop, names.size());
+                names.add(bit.prop);
+            }
+            for (PropertySelector.PropertyMask mask : PropertySelector.PropertyMask.values()) {
+                if (!indexes.containsKey(mask.mProperty)) {
+                    indexes.put(mask.mProperty, names.size());
+                    names.add(mask.mProperty);
+                }
+            }
+            PROPERTY_NAMES = names.toArray(new String[0]);
+            PROPERTY_FILTER_BITS = new VCardFilter.FilterBit[PROPERTY_NAMES.length];
+            PROPERTY_SELECTOR_MASKS = new long[PROPERTY_NAMES.length];
+            for (VCardFilter.FilterBit bit : VCardFilter.FilterBit.values()) {
+                PROPERTY_FILTER_BITS[indexes.get(bit.prop)] = bit;
+            }
+            for (PropertySelector.PropertyMask mask : PropertySelector.PropertyMask.values()) {
+                PROPERTY_SELECTOR_MASKS[indexes.get(mask.mProperty)] = 1L << mask.mBitPosition;
+            }
+            for (int i = 0; i < PROPERTY_NAMES.length; i++) {
+                char first = PROPERTY_NAMES[i].charAt(0);
+                int[] bucket = PROPERTY_INDEXES[first];
+                bucket = bucket == null ? new int[1] : Arrays.copyOf(bucket, bucket.length + 1);
+                bucket[bucket.length - 1] = i;
+                PROPERTY_INDEXES[first] = bucket;
+            }
+        }
+
+        private final VCardFilter mFilter;
+        private final boolean mFiltered;
+        private final boolean mStripTelephoneNumbers;
+        // Whether each known property is filtered in
+        private final boolean[] mFilteredIn = new boolean[PROPERTY_NAMES.length];
+        private final long mSelectedMask;
+        private final boolean mCheckAtLeastOnePropertyExists;
+        private final boolean mCheckAllPropertiesExist;
+        private final boolean mSelecting;
+
+        private byte[] mBuffer = new byte[1024];
+        private int mLength = 0;
+
+        /**
+         * @param selector the property selector, or null to select all vCards
+         * @param selectorOperator "0" to select vCards with any of the selected properties, "1"
+         *                         to select vCards with all of them
+         */
+        VCardStreamFilter(byte[] filter, boolean vCardType21, boolean stripTelephoneNumbers,
+                byte[] selector, String selectorOperator) {
+            mFilter = new VCardFilter(filter);
+            mFiltered = filter != null;
+            mStripTelephoneNumbers = stripTelephoneNumbers;
+            for (int i = 0; i < PROPERTY_NAMES.length; i++) {
+                // Same as VCardFilter#apply(), which drops all X- properties but the call datetime
+                if (PROPERTY_NAMES[i].startsWith(X_PROPERTY_PREFIX)) {
+                    mFilteredIn[i] = PROPERTY_NAMES[i].equals(DATETIME_PROPERTY);
+                } else {
+                    mFilteredIn[i] = PROPERTY_FILTER_BITS[i] == null
+                            || mFilter.isFilteredIn(PROPERTY_FILTER_BITS[i], vCardType21);
+                }
+            }
+            PropertySelector propertySelector = new PropertySelector(selector);
+            long selectedMask = 0;
+            for (PropertySelector.PropertyMask mask : PropertySelector.PropertyMask.values()) {
+                if (propertySelector.checkBit(mask.mBitPosition, selector)) {
+                    selectedMask |= 1L << mask.mBitPosition;
+                }
+            }
+            mSelectedMask = selectedMask;
+            mCheckAtLeastOnePropertyExists = "0".equals(selectorOperator);
+            mCheckAllPropertiesExist = "1".equals(selectorOperator);
+            mSelecting = mCheckAtLeastOnePropertyExists || mCheckAllPropertiesExist;
+        }
+
+        boolean isPhotoEnabled() {
+            return mFilter.isPhotoEnabled();
+        }
+
+        /**
+         * Returns true if {@code vCard} is selected, like {@link
+         * PropertySelector#checkVCardSelector(String, String)}.
+         */
+        boolean isSelected(String vCard) {
+            return !mSelecting || isSelected(scan(vCard, false));
+        }
+
+        /**
+         * Filters and encodes {@code vCard} if it is selected.
+         *
+         * @return false if the vCard is not selected, in which case nothing is encoded
+         */
+        boolean apply(String vCard) {
+            mLength = 0;
+            if (!mFiltered && !mStripTelephoneNumbers) {
+                if (!isSelected(vCard)) {
+                    return false;
+                }
+                appendUtf8(vCard, 0, vCard.length());
+                return true;
+            }
+            if (!isSelected(scan(vCard, true))) {
+                mLength = 0;
+                return false;
+            }
+            return true;
+        }
+
+        boolean writeTo(HandlerForStringBuffer buffer) {
+            return buffer.writeVCard(mBuffer, mLength);
+        }
+
+        /**
+         * Returns the last encoded vCard as a string, for logging.
+         */
+        String getEncoded() {
+            return new String(mBuffer, 0, mLength, StandardCharsets.UTF_8);
+        }
+
+        private boolean isSelected(long presentMask) {
+            if (mCheckAtLeastOnePropertyExists) {
+                return mSelectedMask == 0 || (presentMask & mSelectedMask) != 0;
+            } else if (mCheckAllPropertiesExist) {
+                return (presentMask & mSelectedMask) == mSelectedMask;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the selector mask of the properties in {@code vCard}, appending its filtered in
+         * lines to the buffer if {@code encode} is true. Lines end with '\n', the line separator.
+         */
+        private long scan(String vCard, boolean encode) {
+            long presentMask = 0;
+            boolean filteredIn = false;
+            int length = vCard.length();
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = vCard.indexOf('\n', lineStart);
+                if (lineEnd < 0) {
+                    lineEnd = length;
+                }
+                if (lineEnd == lineStart) {
+                    lineStart++;
+                    continue;
+                }
+                // Continuation lines belong to the current property
+                char first = vCard.charAt(lineStart);
+                if (!Character.isWhitespace(first) && first != '=') {
+                    int nameEnd = lineStart;
+                    while (nameEnd < lineEnd && vCard.charAt(nameEnd) != ';'
+                            && vCard.charAt(nameEnd) != ':') {
+                        nameEnd++;
+                    }
+                    int index = findProperty(vCard, lineStart, nameEnd);
+                    if (index >= 0) {
+                        presentMask |= PROPERTY_SELECTOR_MASKS[index];
+                        filteredIn = mFilteredIn[index];
+                    } else {
+                        filteredIn = !vCard.startsWith(X_PROPERTY_PREFIX, lineStart);
+                    }
+                }
+                if (encode && (filteredIn || !mFiltered)) {
+                    appendLine(vCard, lineStart, lineEnd);
+                }
+                lineStart = lineEnd + 1;
+            }
+            return presentMask;
+        }
+
+        private static int findProperty(String vCard, int start, int end) {
+            char first = vCard.charAt(start);
+            if (first >= PROPERTY_INDEXES.length || PROPERTY_INDEXES[first] == null) {
+                return -1;
+            }
+            for (int index : PROPERTY_INDEXES[first]) {
+                String name = PROPERTY_NAMES[index];
+                if (name.length() == end - start
+                        && vCard.regionMatches(start, name, 0, name.length())) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        private void appendLine(String vCard, int start, int end) {
+            int valueStart = mStripTelephoneNumbers && vCard.startsWith(TEL_PROPERTY, start)
+                    ? vCard.indexOf(':', start) + 1 : 0;
+            if (valueStart <= 0 || valueStart > end) {
+                appendUtf8(vCard, start, end);
+            } else {
+                // Remove '-', '(', ')' or ' ' from TEL number
+                appendUtf8(vCard, start, valueStart);
+                int runStart = valueStart;
+                for (int i = valueStart; i < end; i++) {
+                    char c = vCard.charAt(i);
+                    if (c == '-' || c == '(' || c == ')' || c == ' ') {
+                        appendUtf8(vCard, runStart, i);
+                        runStart = i + 1;
+                    }
+                }
+                appendUtf8(vCard, runStart, end);
+            }
+            ensureCapacity(1);
+            mBuffer[mLength++] = '\n';
+        }
+
+        // Same bytes as String#getBytes(), which replaces unpaired surrogates with '?'
+        private void appendUtf8(String s, int start, int end) {
+            ensureCapacity((end - start) * 3);
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    mBuffer[mLength++] = (byte) c;
+                } else if (c < 0x800) {
+                    mBuffer[mLength++] = (byte) (0xc0 | (c >> 6));
+                    mBuffer[mLength++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    mBuffer[mLength++] = (byte) (0xf0 | (codePoint >> 18));
+                    mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    mBuffer[mLength++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    mBuffer[mLength++] = '?';
+                } else {
+                    mBuffer[mLength++] = (byte) (0xe0 | (c >> 12));
+                    mBuffer[mLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    mBuffer[mLength++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mLength + extra > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + extra));
+            }
+        }
+    }
+
     private static Uri getPhoneLookupFilterUri() {
         return PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI;
     }
@@ -67,6 +67,19 @@ public class HandlerForStringBuffer {
         return false;
     }
 
+    /**
+     * Writes the first {@code length} bytes of {@code vCard}, already encoded.
+     */
+    public boolean writeVCard(byte[] vCard, int length) {
+        try {
+            mOutputStream.write(vCard, 0, length);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+        }
+        return false;
+    }
+
     public void terminate() {
         boolean result = BluetoothPbapObexServer.closeStream(mOutputStream, mOperation);
         if (BluetoothPbapService.VERBOSE) {
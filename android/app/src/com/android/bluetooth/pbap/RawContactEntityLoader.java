@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Entity;
+import android.content.EntityIterator;
+import android.database.Cursor;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the raw contact entities of a list of contacts for {@link
+ * com.android.vcard.VCardComposer#buildVCard(Map)}, one query per chunk of contacts instead of
+ * one per contact.
+ *
+ * The next chunk is queried in the background while the current one is composed and sent.
+ */
+final class RawContactEntityLoader implements AutoCloseable {
+    @VisibleForTesting
+    static final int CONTACTS_PER_QUERY = 100;
+
+    private static final String ORDER_BY_RAW_CONTACT = RawContactsEntity._ID + " ASC";
+
+    private final ContentResolver mResolver;
+    private final long[] mContactIds;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // Index in mContactIds of the contact returned by the next call to next()
+    private int mNextIndex = 0;
+    private Map<Long, Map<String, List<ContentValues>>> mChunk = null;
+    private int mChunkEnd = 0;
+    private Future<Map<Long, Map<String, List<ContentValues>>>> mPendingChunk = null;
+
+    /**
+     * @param contactIds the contacts to load, in order
+     */
+    RawContactEntityLoader(ContentResolver resolver, long[] contactIds) {
+        mResolver = resolver;
+        mContactIds = contactIds;
+        mPendingChunk = submitChunk(0);
+    }
+
+    /**
+     * Returns the raw contact entities of the next contact, keyed by mime type as returned by
+     * {@code RawContactsEntity.queryRawContactEntity()}, or null if the contact has none, as when
+     * it was deleted since its id was read.
+     *
+     * @throws ExecutionException if the entities of the contact could not be queried
+     */
+    Map<String, List<ContentValues>> next() throws ExecutionException, InterruptedException {
+        if (mNextIndex >= mContactIds.length) {
+            return null;
+        }
+        if (mNextIndex >= mChunkEnd) {
+            mChunk = mPendingChunk.get();
+            mChunkEnd = Math.min(mNextIndex + CONTACTS_PER_QUERY, mContactIds.length);
+            mPendingChunk = submitChunk(mChunkEnd);
+        }
+        Map<String, List<ContentValues>> entities = mChunk.get(mContactIds[mNextIndex++]);
+        return entities == null || entities.isEmpty() ? null : entities;
+    }
+
+    private Future<Map<Long, Map<String, List<ContentValues>>>> submitChunk(int start) {
+        if (start >= mContactIds.length) {
+            return null;
+        }
+        int end = Math.min(start + CONTACTS_PER_QUERY, mContactIds.length);
+        return mExecutor.submit(() -> loadChunk(start, end));
+    }
+
+    private Map<Long, Map<String, List<ContentValues>>> loadChunk(int start, int end) {
+        Map<Long, Map<String, List<ContentValues>>> chunk = new HashMap<>();
+        StringBuilder selection = new StringBuilder(RawContactsEntity.CONTACT_ID + " IN (");
+        List<String> selectionArgs = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            long contactId = mContactIds[i];
+            if (Contacts.isEnterpriseContactId(contactId)) {
+                // Work profile contacts live behind a different URI, keep querying them one by one
+                chunk.put(contactId,
+                        RawContactsEntity.queryRawContactEntity(mResolver, contactId));
+                continue;
+            }
+            selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+            selectionArgs.add(String.valueOf(contactId));
+        }
+        if (selectionArgs.isEmpty()) {
+            return chunk;
+        }
+        selection.append(')');
+
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                RawContactsEntity.CONTENT_URI, null, selection.toString(),
+                selectionArgs.toArray(new String[0]), ORDER_BY_RAW_CONTACT);
+        if (cursor == null) {
+            // Fails the pull rather than sending the contacts of the chunk as deleted
+            throw new IllegalStateException("Raw contact entities query returned null");
+        }
+        EntityIterator entityIterator = RawContacts.newEntityIterator(cursor);
+        try {
+            while (entityIterator.hasNext()) {
+                Entity entity = entityIterator.next();
+                Long contactId = entity.getEntityValues().getAsLong(RawContacts.CONTACT_ID);
+                if (contactId == null) {
+                    continue;
+                }
+                Map<String, List<ContentValues>> entities =
+                        chunk.computeIfAbsent(contactId, id -> new HashMap<>());
+                for (Entity.NamedContentValues namedContentValues : entity.getSubValues()) {
+                    ContentValues contentValues = namedContentValues.values;
+                    String mimeType = contentValues.getAsString(Data.MIMETYPE);
+                    if (mimeType != null) {
+                        entities.computeIfAbsent(mimeType, type -> new ArrayList<>())
+                                .add(contentValues);
+                    }
+                }
+            }
+        } finally {
+            entityIterator.close();
+        }
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+    }
+}
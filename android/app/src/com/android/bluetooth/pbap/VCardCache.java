@@ -0,0 +1,244 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.Contacts;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Composed contact vCards, kept across phonebook pulls so that unchanged contacts are not
+ * composed again.
+ *
+ * Entries are keyed by contact ID and vCard type, and are only returned while the contact's
+ * {@link Contacts#CONTACT_LAST_UPDATED_TIMESTAMP}, which also drives the folder version counters,
+ * is the one they were composed at. All entries are dropped when the database identifier changes.
+ */
+final class VCardCache {
+    private static final String TAG = "VCardCache";
+
+    // In chars, about 4 MB
+    private static final int MAX_SIZE = 2 * 1024 * 1024;
+    // Larger vCards, usually with a photo, are not cached so they do not evict many others
+    private static final int MAX_ENTRY_SIZE = MAX_SIZE / 16;
+
+    // Contacts are queried by ID up to this count, all of them are queried otherwise
+    private static final int MAX_SELECTED_CONTACTS = 100;
+
+    private static final String[] LAST_UPDATED_PROJECTION =
+            new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP};
+
+    private static final VCardCache sInstance = new VCardCache();
+
+    private static final class Key {
+        final long mContactId;
+        final int mVCardType;
+
+        Key(long contactId, int vCardType) {
+            mContactId = contactId;
+            mVCardType = vCardType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mContactId == other.mContactId && mVCardType == other.mVCardType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mContactId, mVCardType);
+        }
+    }
+
+    private static final class Entry {
+        final long mLastUpdated;
+        final String mVCard;
+
+        Entry(long lastUpdated, String vCard) {
+            mLastUpdated = lastUpdated;
+            mVCard = vCard;
+        }
+    }
+
+    private final LruCache<Key, Entry> mEntries = new LruCache<Key, Entry>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(Key key, Entry entry) {
+            return entry.mVCard.length();
+        }
+    };
+
+    @GuardedBy("this")
+    private long mDbIdentifier = 0;
+
+    static VCardCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * The vCards of the contacts of one phonebook pull.
+     */
+    final class Lookup {
+        private final long mDbIdentifier;
+        private final int mVCardType;
+        private final long[] mContactIds;
+        // Null for contacts without a known last updated timestamp, which are not cached
+        private final Long[] mLastUpdated;
+        private final String[] mVCards;
+
+        private Lookup(long dbIdentifier, int vCardType, long[] contactIds, Long[] lastUpdated,
+                String[] vCards) {
+            mDbIdentifier = dbIdentifier;
+            mVCardType = vCardType;
+            mContactIds = contactIds;
+            mLastUpdated = lastUpdated;
+            mVCards = vCards;
+        }
+
+        /**
+         * Returns the cached vCard of the contact at {@code index}, or null if it has to be
+         * composed.
+         */
+        String get(int index) {
+            return mVCards[index];
+        }
+
+        /**
+         * Returns the IDs of the contacts that have to be composed, in order.
+         */
+        long[] getMissingContactIds() {
+            long[] contactIds = new long[mContactIds.length];
+            int count = 0;
+            for (int i = 0; i < mContactIds.length; i++) {
+                if (mVCards[i] == null) {
+                    contactIds[count++] = mContactIds[i];
+                }
+            }
+            return Arrays.copyOf(contactIds, count);
+        }
+
+        /**
+         * Caches the composed vCard of the contact at {@code index}.
+         */
+        void put(int index, String vCard) {
+            if (vCard == null || vCard.isEmpty() || vCard.length() > MAX_ENTRY_SIZE
+                    || mLastUpdated[index] == null) {
+                return;
+            }
+            synchronized (VCardCache.this) {
+                if (mDbIdentifier != VCardCache.this.mDbIdentifier) {
+                    return;
+                }
+            }
+            mEntries.put(new Key(mContactIds[index], mVCardType),
+                    new Entry(mLastUpdated[index], vCard));
+        }
+    }
+
+    /**
+     * Looks up the vCards of {@code contactIds} composed as {@code vCardType}, dropping the ones
+     * of contacts that changed since.
+     */
+    Lookup lookup(ContentResolver resolver, long[] contactIds, int vCardType) {
+        long dbIdentifier = BluetoothPbapUtils.sDbIdentifier.get();
+        synchronized (this) {
+            if (dbIdentifier != mDbIdentifier) {
+                mEntries.evictAll();
+                mDbIdentifier = dbIdentifier;
+            }
+        }
+        Map<Long, Long> lastUpdated = queryLastUpdated(resolver, contactIds);
+        Long[] contactLastUpdated = new Long[contactIds.length];
+        String[] vCards = new String[contactIds.length];
+        for (int i = 0; i < contactIds.length; i++) {
+            contactLastUpdated[i] = lastUpdated.get(contactIds[i]);
+            if (contactLastUpdated[i] == null) {
+                continue;
+            }
+            Key key = new Key(contactIds[i], vCardType);
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.mLastUpdated == contactLastUpdated[i]) {
+                vCards[i] = entry.mVCard;
+            } else {
+                mEntries.remove(key);
+            }
+        }
+        return new Lookup(dbIdentifier, vCardType, contactIds, contactLastUpdated, vCards);
+    }
+
+    private static Map<Long, Long> queryLastUpdated(ContentResolver resolver,
+            long[] contactIds) {
+        Map<Long, Long> lastUpdated = new HashMap<>();
+        if (contactIds.length == 0) {
+            return lastUpdated;
+        }
+        String selection = null;
+        if (contactIds.length <= MAX_SELECTED_CONTACTS) {
+            StringBuilder sb = new StringBuilder(Contacts._ID + " IN (");
+            for (int i = 0; i < contactIds.length; i++) {
+                sb.append(i == 0 ? "" : ",").append(contactIds[i]);
+            }
+            selection = sb.append(')').toString();
+        }
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver,
+                Contacts.CONTENT_URI, LAST_UPDATED_PROJECTION, selection, null, null);
+        if (cursor == null) {
+            Log.w(TAG, "Failed to query contacts last updated timestamps");
+            return lastUpdated;
+        }
+        try {
+            int idColumn = cursor.getColumnIndex(Contacts._ID);
+            int lastUpdatedColumn = cursor.getColumnIndex(Contacts.CONTACT_LAST_UPDATED_TIMESTAMP);
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(lastUpdatedColumn)) {
+                    lastUpdated.put(cursor.getLong(idColumn), cursor.getLong(lastUpdatedColumn));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return lastUpdated;
+    }
+
+    void clear() {
+        mEntries.evictAll();
+    }
+
+    void dump(StringBuilder sb) {
+        sb.append("  vCard cache: size=").append(mEntries.size())
+                .append(", hits=").append(mEntries.hitCount())
+                .append(", misses=").append(mEntries.missCount())
+                .append(", evictions=").append(mEntries.evictionCount())
+                .append("\n");
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Number of vCards to pull per phonebook request, adapted so that a batch downloads in about
+ * {@link #TARGET_BATCH_MILLIS}.
+ *
+ * Larger batches download faster, while smaller ones lose less when a download fails or the
+ * link is torn down. The size is halved after each failed batch.
+ */
+final class AdaptiveBatchSize {
+    @VisibleForTesting
+    static final int INITIAL_SIZE = 250;
+    @VisibleForTesting
+    static final int MIN_SIZE = 50;
+    @VisibleForTesting
+    static final int MAX_SIZE = 1000;
+    @VisibleForTesting
+    static final long TARGET_BATCH_MILLIS = 2000;
+
+    private int mSize = INITIAL_SIZE;
+
+    int get() {
+        return mSize;
+    }
+
+    /**
+     * Adapts the size to the throughput of a batch of {@code count} vCards downloaded in
+     * {@code elapsedMillis}. The size changes by at most a factor of 2 per batch.
+     */
+    void onBatchDownloaded(int count, long elapsedMillis) {
+        if (count <= 0) {
+            return;
+        }
+        long targetSize = count * TARGET_BATCH_MILLIS / Math.max(1, elapsedMillis);
+        targetSize = Math.max(mSize / 2, Math.min(2L * mSize, targetSize));
+        mSize = (int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, targetSize));
+    }
+
+    void onBatchFailed() {
+        mSize = Math.max(MIN_SIZE, mSize / 2);
+    }
+}
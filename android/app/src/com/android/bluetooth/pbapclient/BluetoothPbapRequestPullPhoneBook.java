@@ -116,6 +116,10 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
         return mResponse.getList();
     }
 
+    public ArrayList<String> getHashes() {
+        return mResponse.getHashes();
+    }
+
     public int getNewMissedCalls() {
         return mNewMissedCalls;
     }
@@ -31,6 +31,10 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    // Null if the PSE does not support them, PBAP v1.2.3 Sec. 5.1.4.9 and 5.1.4.10
+    private byte[] mPrimaryVersionCounter;
+    private byte[] mDatabaseIdentifier;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -59,9 +63,23 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+        if (oap.exists(OAP_TAGID_PRIMARY_VERSION_COUNTER)) {
+            mPrimaryVersionCounter = oap.getByteArray(OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        }
+        if (oap.exists(OAP_TAGID_DATABASE_IDENTIFIER)) {
+            mDatabaseIdentifier = oap.getByteArray(OAP_TAGID_DATABASE_IDENTIFIER);
+        }
     }
 
     public int getSize() {
         return mSize;
     }
+
+    public byte[] getPrimaryVersionCounter() {
+        return mPrimaryVersionCounter;
+    }
+
+    public byte[] getDatabaseIdentifier() {
+        return mDatabaseIdentifier;
+    }
 }
@@ -23,19 +23,34 @@ import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardEntryConstructor;
 import com.android.vcard.VCardEntryCounter;
 import com.android.vcard.VCardEntryHandler;
+import com.android.vcard.VCardInterpreter;
 import com.android.vcard.VCardParser;
 import com.android.vcard.VCardParser_V21;
 import com.android.vcard.VCardParser_V30;
+import com.android.vcard.VCardProperty;
 import com.android.vcard.exception.VCardException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
 
 class BluetoothPbapVcardList {
 
+    private static final String HASH_ALGORITHM = "SHA-256";
+
     private final ArrayList<VCardEntry> mCards = new ArrayList<VCardEntry>();
+    // Hash of each card in mCards, identifying the card across downloads
+    private final ArrayList<String> mHashes = new ArrayList<String>();
     private final Account mAccount;
+    private final CardHasher mHasher = new CardHasher();
 
     class CardEntryHandler implements VCardEntryHandler {
         @Override
@@ -45,6 +60,7 @@ class BluetoothPbapVcardList {
         @Override
         public void onEntryCreated(VCardEntry entry) {
             mCards.add(entry);
+            mHashes.add(mHasher.getLastHash());
         }
 
         @Override
@@ -52,6 +68,74 @@ class BluetoothPbapVcardList {
         }
     }
 
+    /**
+     * Hashes the properties of each card as they are parsed. Interpreters are called in order, so
+     * this one has to be added before the VCardEntryConstructor for the hash of a card to be
+     * available when the card is created.
+     */
+    static class CardHasher implements VCardInterpreter {
+        // Cards can be nested, the properties of a nested card are part of its parent's hash
+        private final Deque<MessageDigest> mDigests = new ArrayDeque<>();
+        private String mLastHash;
+
+        @Override
+        public void onVCardStarted() {
+        }
+
+        @Override
+        public void onVCardEnded() {
+        }
+
+        @Override
+        public void onEntryStarted() {
+            try {
+                mDigests.push(MessageDigest.getInstance(HASH_ALGORITHM));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onEntryEnded() {
+            mLastHash = toHexString(mDigests.pop().digest());
+        }
+
+        @Override
+        public void onPropertyCreated(VCardProperty property) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(property.getName());
+            // Parameters are sorted, their order in the card does not matter
+            Map<String, Collection<String>> parameters =
+                    new TreeMap<>(property.getParameterMap());
+            for (Map.Entry<String, Collection<String>> parameter : parameters.entrySet()) {
+                sb.append(';').append(parameter.getKey()).append('=')
+                        .append(parameter.getValue());
+            }
+            sb.append(':').append(property.getRawValue()).append('\n');
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] byteValue = property.getByteValue();
+            for (MessageDigest digest : mDigests) {
+                digest.update(bytes);
+                if (byteValue != null) {
+                    digest.update(byteValue);
+                }
+            }
+        }
+
+        String getLastHash() {
+            return mLastHash;
+        }
+
+        private static String toHexString(byte[] bytes) {
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+    }
+
     BluetoothPbapVcardList(Account account, InputStream in, byte format) throws IOException {
         mAccount = account;
         parse(in, format);
@@ -73,6 +157,7 @@ class BluetoothPbapVcardList {
 
         constructor.addEntryHandler(handler);
 
+        parser.addInterpreter(mHasher);
         parser.addInterpreter(constructor);
         parser.addInterpreter(counter);
 
@@ -91,6 +176,13 @@ class BluetoothPbapVcardList {
         return mCards;
     }
 
+    /**
+     * Returns the hash of each card of {@link #getList()}, in the same order.
+     */
+    public ArrayList<String> getHashes() {
+        return mHashes;
+    }
+
     public VCardEntry getFirst() {
         return mCards.get(0);
     }
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
 import android.util.Log;
@@ -32,6 +33,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.ObexAppParameters;
 import com.android.bluetooth.R;
+import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -40,6 +42,7 @@ import com.android.vcard.VCardEntry;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /* Bluetooth/pbapclient/PbapClientConnectionHandler is responsible
@@ -48,10 +51,8 @@ import java.util.HashMap;
  * controlling state machine.
  */
 class PbapClientConnectionHandler extends Handler {
-    // Tradeoff: larger BATCH_SIZE leads to faster download rates, while smaller
-    // BATCH_SIZE is less prone to IO Exceptions if there is a download in
-    // progress when Bluetooth stack is torn down.
-    private static final int DEFAULT_BATCH_SIZE = 250;
+    // Consecutive failed batches after which a phonebook download is given up
+    private static final int MAX_FAILED_BATCHES = 3;
 
     // Upper limit on the indices of the vcf cards/entries, inclusive,
     // i.e., valid indices are [0, 1, ... , UPPER_LIMIT]
@@ -86,6 +87,8 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
 
@@ -137,6 +140,16 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    // Tradeoff: larger batches lead to faster download rates, while smaller batches are less
+    // prone to IO Exceptions if there is a download in progress when Bluetooth stack is torn down.
+    private final AdaptiveBatchSize mBatchSize = new AdaptiveBatchSize();
+    private volatile String mLastDownloadStats = null;
+    // Set by abort(). The interrupt it also sends is cleared by the IO it interrupts.
+    private volatile boolean mAborted = false;
+    // Contacts are kept in the account between connections and only the changes of the phonebook
+    // are applied on the next download
+    private final boolean mKeepContacts;
+    private final PhonebookSyncState mSyncState;
 
     /**
      * Constructs PCEConnectionHandler object
@@ -152,6 +165,9 @@ class PbapClientConnectionHandler extends Handler {
         mAccountManager = AccountManager.get(mPbapClientStateMachine.getContext());
         mAccount =
                 new Account(mDevice.getAddress(), mContext.getString(R.string.pbap_account_type));
+        mKeepContacts = mContext.getResources().getBoolean(
+                R.bool.pbap_client_keep_contacts_between_connections);
+        mSyncState = new PhonebookSyncState(mContext, mDevice.getAddress());
     }
 
     public static class Builder {
@@ -240,7 +256,9 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount();
+                if (!mKeepContacts || mDevice.getBondState() != BluetoothDevice.BOND_BONDED) {
+                    removeAccount();
+                }
                 removeCallLog();
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
@@ -340,8 +358,14 @@ class PbapClientConnectionHandler extends Handler {
                 ObexAppParameters oap = new ObexAppParameters();
 
                 if (mPseRec.getProfileVersion() >= PBAP_V1_2) {
+                    int supportedFeatures = PBAP_SUPPORTED_FEATURE;
+                    if (mKeepContacts) {
+                        // Used to skip the download of folders that did not change
+                        supportedFeatures |= PBAP_FEATURE_DATABASE_IDENTIFIER
+                                | PBAP_FEATURE_FOLDER_VERSION_COUNTERS;
+                    }
                     oap.add(BluetoothPbapRequest.OAP_TAGID_PBAP_SUPPORTED_FEATURES,
-                            PBAP_SUPPORTED_FEATURE);
+                            supportedFeatures);
                 }
 
                 oap.addToHeaderSet(connectionRequest);
@@ -366,6 +390,7 @@ class PbapClientConnectionHandler extends Handler {
     void abort() {
         // Perform forced cleanup, it is ok if the handler throws an exception this will free the
         // handler to complete what it is doing and finish with cleanup.
+        mAborted = true;
         closeSocket();
         this.getLooper().getThread().interrupt();
     }
@@ -387,15 +412,21 @@ class PbapClientConnectionHandler extends Handler {
 
     @VisibleForTesting
     void downloadContacts(String path) {
+        PhonebookBatchInserter inserter = null;
+        PhonebookDiff diff = null;
+        BluetoothPbapRequestPullPhoneBookSize requestPbSize = null;
+        boolean downloadComplete = false;
+        long downloadMillis = 0;
+        int downloadedContacts = 0;
         try {
             PhonebookPullRequest processor =
                     new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
                             mAccount);
+            processor.path = path;
 
-            // Download contacts in batches of size DEFAULT_BATCH_SIZE
-            BluetoothPbapRequestPullPhoneBookSize requestPbSize =
-                    new BluetoothPbapRequestPullPhoneBookSize(path,
-                            PBAP_REQUESTED_FIELDS);
+            // Download contacts in batches, sized by mBatchSize
+            requestPbSize = new BluetoothPbapRequestPullPhoneBookSize(path,
+                    PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
 
             int numberOfContactsRemaining = requestPbSize.getSize();
@@ -409,15 +440,51 @@ class PbapClientConnectionHandler extends Handler {
                 numberOfContactsRemaining -= 1;
             }
 
+            if (mKeepContacts) {
+                // If the raw contacts can't be loaded, all vcards are inserted and the contacts
+                // already in the account are replaced by the next download
+                diff = new PhonebookDiff(mContext.getContentResolver(), mAccount, path);
+                if (diff.load() && diff.getLocalCount() == Math.max(0, numberOfContactsRemaining)
+                        && mSyncState.isUnchanged(path, requestPbSize.getDatabaseIdentifier(),
+                                requestPbSize.getPrimaryVersionCounter())) {
+                    mLastDownloadStats = path + ": unchanged, kept "
+                            + diff.getLocalCount() + " contacts";
+                    if (DBG) {
+                        Log.d(TAG, "Skipped download of " + mLastDownloadStats);
+                    }
+                    return;
+                }
+                // Downloaded again unless this download completes
+                mSyncState.clear(path);
+            }
+
+            // Each batch is inserted while the next one downloads
+            inserter = new PhonebookBatchInserter(processor);
+            inserter.start();
+            int failedBatches = 0;
             while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
                 int numberOfContactsToDownload =
-                        Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
+                        Math.min(Math.min(mBatchSize.get(), numberOfContactsRemaining),
                         UPPER_LIMIT - startOffset + 1);
                 BluetoothPbapRequestPullPhoneBook request =
                         new BluetoothPbapRequestPullPhoneBook(path, mAccount,
                                 PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
                                 numberOfContactsToDownload, startOffset);
+                long start = SystemClock.elapsedRealtime();
                 request.execute(mObexSession);
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                downloadMillis += elapsed;
+                if (!request.isSuccess()) {
+                    // Retry the same contacts with a smaller batch
+                    mBatchSize.onBatchFailed();
+                    if (++failedBatches >= MAX_FAILED_BATCHES) {
+                        Log.w(TAG, "Download contacts failed at offset " + startOffset);
+                        break;
+                    }
+                    continue;
+                }
+                failedBatches = 0;
+                mBatchSize.onBatchDownloaded(numberOfContactsToDownload, elapsed);
                 ArrayList<VCardEntry> vcards = request.getList();
                 if (path == FAV_PATH) {
                     // mark each vcard as a favorite
@@ -425,8 +492,22 @@ class PbapClientConnectionHandler extends Handler {
                         v.setStarred(true);
                     }
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
+                if (diff != null) {
+                    // Only insert the vcards that are not in the account yet
+                    ArrayList<String> hashes = request.getHashes();
+                    ArrayList<VCardEntry> newVcards = new ArrayList<>();
+                    ArrayList<String> newHashes = new ArrayList<>();
+                    for (int i = 0; i < vcards.size(); i++) {
+                        if (diff.isNew(hashes.get(i))) {
+                            newVcards.add(vcards.get(i));
+                            newHashes.add(hashes.get(i));
+                        }
+                    }
+                    inserter.add(newVcards, newHashes);
+                } else {
+                    inserter.add(vcards, null);
+                }
+                downloadedContacts += vcards.size();
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
@@ -434,11 +515,55 @@ class PbapClientConnectionHandler extends Handler {
             if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
                 Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
             }
+            downloadComplete = numberOfContactsRemaining <= 0;
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Download contacts interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (inserter != null) {
+                finishInserting(inserter);
+                mLastDownloadStats = path + ": " + downloadedContacts + " contacts, download "
+                        + downloadMillis + " ms, insert " + inserter.getInsertMillis() + " ms in "
+                        + inserter.getInsertedBatches() + " batches, waited for insert "
+                        + inserter.getWaitMillis() + " ms, next batch size " + mBatchSize.get();
+                if (diff != null) {
+                    mLastDownloadStats += ", kept " + diff.getMatchedCount() + " contacts";
+                    // Contacts missing from an incomplete download may still be in the folder
+                    if (downloadComplete && !isAborted()) {
+                        mLastDownloadStats += ", deleted " + diff.deleteUnmatched()
+                                + " contacts";
+                        mSyncState.setSynced(path, requestPbSize.getDatabaseIdentifier(),
+                                requestPbSize.getPrimaryVersionCounter());
+                    }
+                }
+                if (DBG) {
+                    Log.d(TAG, "Downloaded " + mLastDownloadStats);
+                }
+            }
+        }
+    }
+
+    // Inserts the batches already downloaded, unless the download was aborted. Either way, no
+    // contact is inserted once this returns.
+    @VisibleForTesting
+    void finishInserting(PhonebookBatchInserter inserter) {
+        if (isAborted()) {
+            inserter.cancel();
+            return;
+        }
+        try {
+            inserter.finish();
+        } catch (InterruptedException e) {
+            inserter.cancel();
         }
     }
 
+    private boolean isAborted() {
+        return mAborted || Thread.currentThread().isInterrupted();
+    }
+
     @VisibleForTesting
     void downloadCallLog(String path, HashMap<String, Integer> callCounter) {
         try {
@@ -463,11 +588,19 @@ class PbapClientConnectionHandler extends Handler {
             }
             return true;
         }
+        if (mKeepContacts && Arrays.asList(mAccountManager.getAccountsByType(mAccount.type))
+                .contains(mAccount)) {
+            if (DBG) {
+                Log.d(TAG, "Reusing account " + mAccount);
+            }
+            return true;
+        }
         return false;
     }
 
     @VisibleForTesting
     void removeAccount() {
+        PhonebookSyncState.clear(mContext, mAccount.name);
         if (mAccountManager.removeAccountExplicitly(mAccount)) {
             if (DBG) {
                 Log.d(TAG, "Removed account " + mAccount);
@@ -494,6 +627,10 @@ class PbapClientConnectionHandler extends Handler {
         }
     }
 
+    void dump(StringBuilder sb) {
+        ProfileService.println(sb, "Last phonebook download: " + mLastDownloadStats);
+    }
+
     @VisibleForTesting
     boolean isRepositorySupported(int mask) {
         if (mPseRec == null) {
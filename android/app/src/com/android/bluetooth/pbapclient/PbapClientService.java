@@ -142,6 +142,8 @@ public class PbapClientService extends ProfileService {
         // To remove call logs when PBAP was never connected while calls were made,
         // we also listen for HFP to become disconnected.
         filter.addAction(BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED);
+        // To remove the contacts kept between connections when the device is unbonded.
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         try {
             registerReceiver(mPbapBroadcastReceiver, filter);
         } catch (Exception e) {
@@ -221,22 +223,72 @@ public class PbapClientService extends ProfileService {
             return;
         }
 
-        // Find all accounts that match the type "pbap" and delete them.
+        // Find all accounts that match the type "pbap" and delete them, except the ones of bonded
+        // devices if their contacts are kept between connections.
         AccountManager accountManager = AccountManager.get(this);
         Account[] accounts =
                 accountManager.getAccountsByType(getString(R.string.pbap_account_type));
         if (VDBG) Log.v(TAG, "Found " + accounts.length + " unclean accounts");
+        boolean keepContacts = isKeepingContacts();
         for (Account acc : accounts) {
+            if (keepContacts && isBonded(acc.name)) {
+                if (DBG) Log.d(TAG, "Keeping contacts of " + acc);
+                continue;
+            }
             Log.w(TAG, "Deleting " + acc);
-            try {
-                getContentResolver().delete(CallLog.Calls.CONTENT_URI,
-                        CallLog.Calls.PHONE_ACCOUNT_ID + "=?", new String[]{acc.name});
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Call Logs could not be deleted, they may not exist yet.");
+            removeAccount(accountManager, acc);
+        }
+    }
+
+    private void removeAccount(AccountManager accountManager, Account acc) {
+        try {
+            getContentResolver().delete(CallLog.Calls.CONTENT_URI,
+                    CallLog.Calls.PHONE_ACCOUNT_ID + "=?", new String[]{acc.name});
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Call Logs could not be deleted, they may not exist yet.");
+        }
+        // The device ID is the name of the account.
+        PhonebookSyncState.clear(this, acc.name);
+        accountManager.removeAccountExplicitly(acc);
+    }
+
+    /**
+     * Removes the account of {@code device} once it is unbonded, if its contacts were kept
+     * between connections. The account of a connected device is removed when it disconnects.
+     */
+    @VisibleForTesting
+    void removeUnbondedAccount(BluetoothDevice device) {
+        if (!isKeepingContacts() || mPbapClientStateMachineMap.containsKey(device)
+                || !isAuthenticationServiceReady()) {
+            return;
+        }
+        Account account = new Account(device.getAddress(), getString(R.string.pbap_account_type));
+        AccountManager accountManager = AccountManager.get(this);
+        for (Account acc : accountManager.getAccountsByType(account.type)) {
+            if (acc.equals(account)) {
+                Log.i(TAG, "Deleting " + acc + " of unbonded device");
+                removeAccount(accountManager, acc);
+            }
+        }
+    }
+
+    private boolean isKeepingContacts() {
+        return getResources().getBoolean(R.bool.pbap_client_keep_contacts_between_connections);
+    }
+
+    private boolean isBonded(String address) {
+        AdapterService adapterService = AdapterService.getAdapterService();
+        BluetoothDevice[] bondedDevices =
+                adapterService == null ? null : adapterService.getBondedDevices();
+        if (bondedDevices == null) {
+            return false;
+        }
+        for (BluetoothDevice device : bondedDevices) {
+            if (device.getAddress().equals(address)) {
+                return true;
             }
-            // The device ID is the name of the account.
-            accountManager.removeAccountExplicitly(acc);
         }
+        return false;
     }
 
     private void removeHfpCallLog(String accountName, Context context) {
@@ -314,6 +366,13 @@ public class PbapClientService extends ProfileService {
                     // HFP client stores entries in calllog.db by BD_ADDR and component name
                     removeHfpCallLog(device.getAddress(), context);
                 }
+            } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                        BluetoothDevice.ERROR);
+                if (device != null && bondState == BluetoothDevice.BOND_NONE) {
+                    removeUnbondedAccount(device);
+                }
             }
         }
     }
@@ -450,5 +450,8 @@ class PbapClientStateMachine extends StateMachine {
     public void dump(StringBuilder sb) {
         ProfileService.println(sb, "mCurrentDevice: " + mCurrentDevice.getAddress() + "("
                 + Utils.getName(mCurrentDevice) + ") " + this.toString());
+        if (mConnectionHandler != null) {
+            mConnectionHandler.dump(sb);
+        }
     }
 }
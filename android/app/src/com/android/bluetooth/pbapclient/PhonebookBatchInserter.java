@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.vcard.VCardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Inserts downloaded phonebook batches with a {@link PhonebookPullRequest} on its own thread, so
+ * that the next batch is downloaded while the previous one is inserted.
+ *
+ * At most {@link #MAX_PENDING_BATCHES} batches wait to be inserted, adding more blocks until the
+ * insert thread catches up.
+ */
+final class PhonebookBatchInserter {
+    private static final String TAG = "PbapPbBatchInserter";
+    private static final boolean VDBG = Utils.VDBG;
+
+    @VisibleForTesting
+    static final int MAX_PENDING_BATCHES = 1;
+
+    private static final class Batch {
+        final List<VCardEntry> mEntries;
+        // Null if the entries are not diffed against the next download
+        final List<String> mHashes;
+
+        Batch(List<VCardEntry> entries, List<String> hashes) {
+            mEntries = entries;
+            mHashes = hashes;
+        }
+    }
+
+    // Compared by reference, queued after the last batch
+    private static final Batch END_OF_BATCHES = new Batch(new ArrayList<>(), null);
+
+    private final PhonebookPullRequest mProcessor;
+    private final BlockingQueue<Batch> mBatches =
+            new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+    private final Thread mThread = new Thread(this::insertBatches, "PBAP PCE insert");
+
+    // Set by cancel(), the insert thread stops before the next batch. Interrupting it is not
+    // enough, as an insert that is interrupted may clear the interrupt status.
+    private volatile boolean mCancelled = false;
+
+    // Written by the insert thread, read once it is done
+    private volatile long mInsertMillis = 0;
+    private volatile int mInsertedBatches = 0;
+    // Time the caller was blocked by the insert thread
+    private long mWaitMillis = 0;
+
+    PhonebookBatchInserter(PhonebookPullRequest processor) {
+        mProcessor = processor;
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * Queues {@code batch} to be inserted, waiting while {@link #MAX_PENDING_BATCHES} batches are
+     * already queued.
+     *
+     * @param hashes the hash of each entry of {@code batch}, see
+     *     {@link PhonebookPullRequest#setResults(List, List)}, or null
+     */
+    void add(List<VCardEntry> batch, List<String> hashes) throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        mBatches.put(new Batch(batch, hashes));
+        mWaitMillis += SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Waits until all queued batches are inserted.
+     */
+    void finish() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        mBatches.put(END_OF_BATCHES);
+        mThread.join();
+        mWaitMillis += SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Stops inserting, dropping the queued batches, and waits until the insert thread is done, so
+     * that no contact is written once this returns.
+     */
+    void cancel() {
+        mCancelled = true;
+        mBatches.clear();
+        mThread.interrupt();
+        // The caller may itself be interrupted, still wait for the current insert to stop
+        boolean interrupted = Thread.interrupted();
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void insertBatches() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            while (!mCancelled) {
+                Batch batch = mBatches.take();
+                if (batch == END_OF_BATCHES || mCancelled) {
+                    return;
+                }
+                long start = SystemClock.elapsedRealtime();
+                mProcessor.setResults(batch.mEntries, batch.mHashes);
+                mProcessor.onPullComplete();
+                mInsertMillis += SystemClock.elapsedRealtime() - start;
+                mInsertedBatches++;
+                if (VDBG) {
+                    Log.v(TAG, "Inserted batch of " + batch.mEntries.size() + " entries in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for a batch");
+        }
+    }
+
+    long getInsertMillis() {
+        return mInsertMillis;
+    }
+
+    int getInsertedBatches() {
+        return mInsertedBatches;
+    }
+
+    long getWaitMillis() {
+        return mWaitMillis;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches the vCards downloaded from a phonebook folder against the raw contacts inserted in the
+ * account by the previous download of the folder, so that only new vCards are inserted and only
+ * the raw contacts of vCards no longer in the folder are deleted.
+ *
+ * vCards are matched by the hash of their content, stored with their raw contact by
+ * {@link PhonebookPullRequest}. A changed vCard is deleted and inserted again.
+ */
+final class PhonebookDiff {
+    private static final String TAG = "PbapPbDiff";
+    private static final boolean DBG = Utils.DBG;
+
+    // Raw contacts are deleted as the sync adapter of the account so they are removed right away
+    static final Uri RAW_CONTACTS_URI = RawContacts.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+            .build();
+
+    @VisibleForTesting
+    static final int MAX_DELETED_PER_QUERY = 100;
+
+    private static final String[] PROJECTION = new String[] {RawContacts._ID, RawContacts.SYNC1};
+
+    private final ContentResolver mResolver;
+    private final Account mAccount;
+    private final String mPath;
+
+    // IDs of the raw contacts not matched by a downloaded vCard yet, by hash
+    private final Map<String, ArrayDeque<Long>> mUnmatched = new HashMap<>();
+    // IDs of the raw contacts inserted without a hash, which can't be matched
+    private final List<Long> mUntagged = new ArrayList<>();
+    private int mLocalCount = 0;
+    private int mMatchedCount = 0;
+
+    PhonebookDiff(ContentResolver resolver, Account account, String path) {
+        mResolver = resolver;
+        mAccount = account;
+        mPath = path;
+    }
+
+    /**
+     * Loads the raw contacts of the folder, returns false if they could not be queried.
+     */
+    boolean load() {
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                RawContacts.CONTENT_URI, PROJECTION,
+                RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=? AND "
+                        + RawContacts.DELETED + "=0 AND (" + RawContacts.SYNC2 + "=? OR "
+                        + RawContacts.SYNC2 + " IS NULL)",
+                new String[] {mAccount.name, mAccount.type, mPath}, null);
+        if (cursor == null) {
+            Log.w(TAG, "Failed to query raw contacts of " + mPath);
+            return false;
+        }
+        try {
+            int idColumn = cursor.getColumnIndex(RawContacts._ID);
+            int hashColumn = cursor.getColumnIndex(RawContacts.SYNC1);
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idColumn);
+                String hash = cursor.getString(hashColumn);
+                if (hash == null) {
+                    mUntagged.add(id);
+                    continue;
+                }
+                mUnmatched.computeIfAbsent(hash, k -> new ArrayDeque<>()).add(id);
+                mLocalCount++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (DBG) {
+            Log.d(TAG, "Loaded " + mLocalCount + " raw contacts of " + mPath + ", "
+                    + mUntagged.size() + " untagged");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of raw contacts previously inserted from the folder, or -1 if some raw
+     * contacts of the account were inserted without a hash and have to be replaced.
+     */
+    int getLocalCount() {
+        return mUntagged.isEmpty() ? mLocalCount : -1;
+    }
+
+    /**
+     * Returns whether the downloaded vCard with {@code hash} has to be inserted. Otherwise it
+     * matches a raw contact of the folder, which is kept.
+     */
+    boolean isNew(String hash) {
+        ArrayDeque<Long> ids = hash == null ? null : mUnmatched.get(hash);
+        if (ids == null || ids.isEmpty()) {
+            return true;
+        }
+        ids.poll();
+        mMatchedCount++;
+        return false;
+    }
+
+    int getMatchedCount() {
+        return mMatchedCount;
+    }
+
+    /**
+     * Deletes the raw contacts not matched by a downloaded vCard. Must only be called once the
+     * whole folder was downloaded, returns the number of deleted raw contacts.
+     */
+    int deleteUnmatched() {
+        List<Long> ids = new ArrayList<>(mUntagged);
+        for (ArrayDeque<Long> unmatched : mUnmatched.values()) {
+            ids.addAll(unmatched);
+        }
+        int deleted = 0;
+        for (int start = 0; start < ids.size(); start += MAX_DELETED_PER_QUERY) {
+            if (Thread.currentThread().isInterrupted()) {
+                Log.w(TAG, "Interrupted while deleting raw contacts of " + mPath);
+                break;
+            }
+            List<Long> chunk = ids.subList(start,
+                    Math.min(ids.size(), start + MAX_DELETED_PER_QUERY));
+            StringBuilder selection = new StringBuilder(RawContacts._ID + " IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "" : ",").append(chunk.get(i));
+            }
+            selection.append(')');
+            deleted += BluetoothMethodProxy.getInstance().contentResolverDelete(mResolver,
+                    RAW_CONTACTS_URI, selection.toString(), null);
+        }
+        mUntagged.clear();
+        mUnmatched.clear();
+        return deleted;
+    }
+}
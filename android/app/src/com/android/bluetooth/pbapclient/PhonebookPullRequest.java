@@ -22,12 +22,14 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class PhonebookPullRequest extends PullRequest {
     @VisibleForTesting
@@ -37,6 +39,8 @@ public class PhonebookPullRequest extends PullRequest {
 
     private final Account mAccount;
     private final Context mContext;
+    // Hash of each entry, stored with its raw contact, see PhonebookDiff
+    private List<String> mHashes;
     public boolean complete = false;
 
     public PhonebookPullRequest(Context context, Account account) {
@@ -45,6 +49,14 @@ public class PhonebookPullRequest extends PullRequest {
         path = PbapClientConnectionHandler.PB_PATH;
     }
 
+    /**
+     * Sets the entries to insert with their hashes, which are stored with the inserted raw
+     * contacts along with {@link #path} so that the next download of the folder can be diffed.
+     */
+    public void setResults(List<VCardEntry> results, List<String> hashes) {
+        setResults(results);
+        mHashes = hashes;
+    }
 
     @Override
     public void onPullComplete() {
@@ -62,7 +74,8 @@ public class PhonebookPullRequest extends PullRequest {
             ArrayList<ContentProviderOperation> currentContactOperations;
             // Group insert operations together to minimize inter process communication and improve
             // processing time.
-            for (VCardEntry e : mEntries) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                VCardEntry e = mEntries.get(i);
                 if (Thread.currentThread().isInterrupted()) {
                     Log.e(TAG, "Interrupted durring insert.");
                     break;
@@ -70,12 +83,14 @@ public class PhonebookPullRequest extends PullRequest {
                 int numberOfOperations = insertOperations.size();
                 // Append current vcard to list of insert operations.
                 e.constructInsertOperations(contactsProvider, insertOperations);
+                addSyncOperation(insertOperations, numberOfOperations, i);
                 if (insertOperations.size() >= MAX_OPS) {
                     // If we have exceded the limit to the insert operation remove the latest vcard
                     // and submit.
                     insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
                     contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
                     insertOperations = e.constructInsertOperations(contactsProvider, null);
+                    addSyncOperation(insertOperations, 0, i);
                     if (insertOperations.size() >= MAX_OPS) {
                         // Current VCard has more than 500 attributes, drop the card.
                         insertOperations.clear();
@@ -96,4 +111,19 @@ public class PhonebookPullRequest extends PullRequest {
             complete = true;
         }
     }
+
+    // Stores the hash and folder of the entry at entryIndex in the raw contact inserted by the
+    // operation at rawContactIndex, which VCardEntry adds first unless the entry is ignorable.
+    private void addSyncOperation(ArrayList<ContentProviderOperation> operations,
+            int rawContactIndex, int entryIndex) {
+        if (mHashes == null || operations.size() <= rawContactIndex) {
+            return;
+        }
+        operations.add(ContentProviderOperation.newUpdate(PhonebookDiff.RAW_CONTACTS_URI)
+                .withSelection(RawContacts._ID + "=?", new String[1])
+                .withSelectionBackReference(0, rawContactIndex)
+                .withValue(RawContacts.SYNC1, mHashes.get(entryIndex))
+                .withValue(RawContacts.SYNC2, path)
+                .build());
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+
+/**
+ * Database identifier and primary folder version counter, PBAP v1.2.3 Sec. 5.1.4.9 and 5.1.4.10,
+ * of each phonebook folder of a device as of its last complete download.
+ *
+ * The folder did not change since if the PSE still reports the same values, so it does not have
+ * to be downloaded again as long as its contacts were kept in the account.
+ */
+final class PhonebookSyncState {
+    private static final String PREFERENCES_NAME = "pbap_client_sync_state";
+
+    private final SharedPreferences mPreferences;
+    private final String mAddress;
+
+    PhonebookSyncState(Context context, String address) {
+        mPreferences = getPreferences(context);
+        mAddress = address;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns whether {@code path} was completely downloaded at these versions. Always false if
+     * the PSE does not report them.
+     */
+    boolean isUnchanged(String path, byte[] databaseIdentifier, byte[] primaryVersionCounter) {
+        String versions = toString(databaseIdentifier, primaryVersionCounter);
+        return versions != null && versions.equals(mPreferences.getString(getKey(path), null));
+    }
+
+    /**
+     * Records that {@code path} was completely downloaded at these versions.
+     */
+    void setSynced(String path, byte[] databaseIdentifier, byte[] primaryVersionCounter) {
+        String versions = toString(databaseIdentifier, primaryVersionCounter);
+        if (versions == null) {
+            clear(path);
+            return;
+        }
+        mPreferences.edit().putString(getKey(path), versions).apply();
+    }
+
+    /**
+     * Forgets the versions of {@code path}, which is downloaded entirely next time.
+     */
+    void clear(String path) {
+        mPreferences.edit().remove(getKey(path)).apply();
+    }
+
+    /**
+     * Forgets the versions of all folders of {@code address}.
+     */
+    static void clear(Context context, String address) {
+        SharedPreferences preferences = getPreferences(context);
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(address + "/")) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    private String getKey(String path) {
+        return mAddress + "/" + path;
+    }
+
+    private static String toString(byte[] databaseIdentifier, byte[] primaryVersionCounter) {
+        if (databaseIdentifier == null || primaryVersionCounter == null) {
+            return null;
+        }
+        return Arrays.toString(databaseIdentifier) + Arrays.toString(primaryVersionCounter);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+
+/**
+ * Benchmarks for parsing full batch scan reports with {@link BatchScanRecordCursor}.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class BatchScanPerfTest {
+    private static final int NUM_RECORDS = 100;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public ScanCorpus mCorpus;
+
+    private byte[] mBatchRecord;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<ScanCorpus> corpora() {
+        return ScanCorpus.all();
+    }
+
+    @Before
+    public void setUp() {
+        // Full records hold at most 255 bytes of advertising data.
+        int advLength = Math.min(mCorpus.mAdvData.length, 255);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            // Reversed address, address type, tx power, rssi and timestamp.
+            out.write(new byte[] {(byte) i, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, 0x7F,
+                    (byte) -54, 0x01, 0x00}, 0, 11);
+            out.write(advLength);
+            out.write(mCorpus.mAdvData, 0, advLength);
+            // No scan response.
+            out.write(0);
+        }
+        mBatchRecord = out.toByteArray();
+    }
+
+    @Test
+    public void parseFullResults() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            BatchScanRecordCursor cursor =
+                    new BatchScanRecordCursor(false, NUM_RECORDS, mBatchRecord, 0L);
+            while (cursor.hasNext()) {
+                cursor.next();
+            }
+        }
+    }
+}
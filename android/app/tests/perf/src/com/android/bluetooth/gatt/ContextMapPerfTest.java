@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+/**
+ * Benchmarks for the {@link ContextMap} lookups done by {@link GattService} to dispatch a
+ * callback to the app owning a connection, with many registered apps and connections.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ContextMapPerfTest {
+    private static final int NUM_APPS = 100;
+    private static final int NUM_CONNECTIONS = 50;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private ContextMap<Void, Void> mContextMap;
+    private String[] mAddresses;
+
+    @Before
+    public void setUp() {
+        mContextMap = new ContextMap<>();
+        for (int i = 1; i <= NUM_APPS; i++) {
+            ContextMap<Void, Void>.App app =
+                    mContextMap.new App(UUID.randomUUID(), null, null, "app" + i, null);
+            app.id = i;
+            mContextMap.add(app);
+        }
+        mAddresses = new String[NUM_CONNECTIONS + 1];
+        for (int connId = 1; connId <= NUM_CONNECTIONS; connId++) {
+            mAddresses[connId] = String.format("00:01:02:03:04:%02X", connId);
+            mContextMap.addConnection(appIdOf(connId), connId, mAddresses[connId]);
+        }
+    }
+
+    private static int appIdOf(int connId) {
+        return NUM_APPS - connId;
+    }
+
+    @Test
+    public void getByConnId_everyConnection() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int connId = 1; connId <= NUM_CONNECTIONS; connId++) {
+                mContextMap.getByConnId(connId);
+            }
+        }
+    }
+
+    @Test
+    public void connIdByAddress_everyConnection() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int connId = 1; connId <= NUM_CONNECTIONS; connId++) {
+                mContextMap.connIdByAddress(appIdOf(connId), mAddresses[connId]);
+            }
+        }
+    }
+
+    @Test
+    public void getConnectionByApp_everyApp() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int id = 1; id <= NUM_APPS; id++) {
+                mContextMap.getConnectionByApp(id);
+            }
+        }
+    }
+}
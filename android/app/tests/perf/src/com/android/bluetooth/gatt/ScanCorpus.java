@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Advertising payloads replayed by the scan path benchmarks, modeled on reports captured in
+ * crowded environments.
+ */
+class ScanCorpus {
+    static final String ADDRESS = "00:01:02:03:04:05";
+
+    static final int EVENT_TYPE_LEGACY = 0x1b;
+    static final int EVENT_TYPE_EXTENDED = 0x01;
+
+    static final int APPLE_COMPANY_ID = 0x004C;
+    static final int EDDYSTONE_UUID_16 = 0xFEAA;
+
+    final String mName;
+    final int mEventType;
+    final byte[] mAdvData;
+
+    private ScanCorpus(String name, int eventType, byte[] advData) {
+        mName = name;
+        mEventType = eventType;
+        mAdvData = advData;
+    }
+
+    boolean isLegacy() {
+        return (mEventType & 0x10) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    /**
+     * Legacy iBeacon advertisement with a short name in the scan response, padded to the 62 bytes
+     * the stack reports for legacy events.
+     */
+    static ScanCorpus legacy() {
+        byte[] data = concat(
+                ad(0x01, 0x06),
+                ad(0xFF, 0x4C, 0x00, 0x02, 0x15,
+                        0xE2, 0xC5, 0x6D, 0xB5, 0xDF, 0xFB, 0x48, 0xD2,
+                        0xB0, 0x60, 0xD0, 0xF5, 0xA7, 0x10, 0x96, 0xE0,
+                        0x00, 0x01, 0x00, 0x02, 0xC5),
+                ad(0x09, 'B', 'e', 'a', 'c', 'o', 'n'));
+        return new ScanCorpus("legacy", EVENT_TYPE_LEGACY,
+                Arrays.copyOf(data, ScanReport.LEGACY_ADV_DATA_LENGTH));
+    }
+
+    /**
+     * Extended advertisement carrying service UUIDs, Eddystone service data, a name and a large
+     * manufacturer payload.
+     */
+    static ScanCorpus extended() {
+        int[] payload = new int[180];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = i;
+        }
+        return new ScanCorpus("extended", EVENT_TYPE_EXTENDED, concat(
+                ad(0x01, 0x06),
+                ad(0x03, 0xAA, 0xFE, 0x0F, 0x18, 0x0A, 0x18),
+                ad(0x16, 0xAA, 0xFE, 0x10, 0x00, 0x03, 'e', 'x', 'a', 'm', 'p', 'l', 'e'),
+                ad(0x09, 'E', 'x', 't', 'e', 'n', 'd', 'e', 'd'),
+                ad(0xFF, prepend(payload, 0xE0, 0x00))));
+    }
+
+    /**
+     * Extended advertisement packed with manufacturer specific data from many companies.
+     */
+    static ScanCorpus denseManufacturerData() {
+        byte[][] structures = new byte[11][];
+        for (int i = 0; i < structures.length; i++) {
+            int[] payload = new int[18];
+            Arrays.fill(payload, i);
+            structures[i] = ad(0xFF, prepend(payload, 0x10 + i, 0x00));
+        }
+        return new ScanCorpus("denseManufacturerData", EVENT_TYPE_EXTENDED, concat(structures));
+    }
+
+    static List<ScanCorpus> all() {
+        return Arrays.asList(legacy(), extended(), denseManufacturerData());
+    }
+
+    private static int[] prepend(int[] data, int... head) {
+        int[] result = Arrays.copyOf(head, head.length + data.length);
+        System.arraycopy(data, 0, result, head.length, data.length);
+        return result;
+    }
+
+    private static byte[] ad(int type, int... data) {
+        byte[] structure = new byte[data.length + 2];
+        structure[0] = (byte) (data.length + 1);
+        structure[1] = (byte) type;
+        for (int i = 0; i < data.length; i++) {
+            structure[i + 2] = (byte) data[i];
+        }
+        return structure;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Benchmarks for matching one advertising report against the software filters of many scan
+ * clients, as done by {@link GattService} for every report received from the stack.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanDispatchPerfTest {
+    private static final ParcelUuid EDDYSTONE_UUID =
+            ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB");
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public ScanCorpus mCorpus;
+
+    @Parameterized.Parameter(1)
+    public int mNumClients;
+
+    private List<ScanClient> mClients;
+    private ScanFilterIndex mIndex;
+
+    @Parameterized.Parameters(name = "{0}_{1}clients")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (ScanCorpus corpus : ScanCorpus.all()) {
+            for (int numClients : new int[] {1, 10, 50}) {
+                parameters.add(new Object[] {corpus, numClients});
+            }
+        }
+        return parameters;
+    }
+
+    @Before
+    public void setUp() {
+        mClients = new ArrayList<>();
+        ScanSettings settings = new ScanSettings.Builder().build();
+        for (int i = 0; i < mNumClients; i++) {
+            ScanFilter.Builder filter = new ScanFilter.Builder();
+            if (i == 0) {
+                filter.setManufacturerData(ScanCorpus.APPLE_COMPANY_ID, new byte[0]);
+            } else if (i % 5 == 0) {
+                filter.setServiceUuid(EDDYSTONE_UUID);
+            } else {
+                filter.setManufacturerData(0x1000 + i, new byte[0]);
+            }
+            mClients.add(new ScanClient(i + 1, settings,
+                    Collections.singletonList(filter.build())));
+        }
+        mIndex = ScanFilterIndex.build(mClients);
+    }
+
+    private ScanResult newResult() {
+        return new ScanReport(mCorpus.mEventType, ScanCorpus.ADDRESS, 1, 0, 0xff, 127, -54, 0,
+                mCorpus.mAdvData, 0L).getResult(mCorpus.isLegacy());
+    }
+
+    @Test
+    public void matchEveryClient() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanResult result = newResult();
+            for (ScanClient client : mClients) {
+                GattService.matchesFilters(client, result, null);
+            }
+        }
+    }
+
+    @Test
+    public void matchIndexedCandidates() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanResult result = newResult();
+            Set<ScanClient> candidates = null;
+            // The same narrowing GattService#onScanResultInternal does before matching filters.
+            for (ScanClient client : mClients) {
+                if (mIndex.isIndexed(client)) {
+                    if (candidates == null) {
+                        candidates = mIndex.getCandidates(result, null);
+                    }
+                    if (!candidates.contains(client)) {
+                        continue;
+                    }
+                }
+                GattService.matchesFilters(client, result, null);
+            }
+        }
+    }
+}
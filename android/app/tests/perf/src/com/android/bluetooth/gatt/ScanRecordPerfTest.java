@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanRecord;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+
+/**
+ * Benchmarks for decoding advertising data into a {@link ScanRecord}.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanRecordPerfTest {
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public ScanCorpus mCorpus;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<ScanCorpus> corpora() {
+        return ScanCorpus.all();
+    }
+
+    @Test
+    public void parseFromBytes() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytes(mCorpus.mAdvData);
+        }
+    }
+
+    @Test
+    public void parseFromBytesLazy() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytesLazy(mCorpus.mAdvData);
+        }
+    }
+
+    @Test
+    public void parseFromBytesLazy_getManufacturerSpecificData() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytesLazy(mCorpus.mAdvData)
+                    .getManufacturerSpecificData(ScanCorpus.APPLE_COMPANY_ID);
+        }
+    }
+}
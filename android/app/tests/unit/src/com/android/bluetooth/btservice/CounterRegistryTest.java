@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link CounterRegistry}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CounterRegistryTest {
+
+    private static List<String> drain(CounterRegistry registry) {
+        List<String> drained = new ArrayList<>();
+        registry.drain((key, value) -> drained.add(key + "=" + value));
+        return drained;
+    }
+
+    @Test
+    public void drain_returnsSumsInKeyOrderAndResets() {
+        CounterRegistry registry = new CounterRegistry();
+        registry.add(1000, 2);
+        registry.add(-5, 1);
+        registry.add(1000, 3);
+        registry.add(7, 4);
+
+        assertThat(drain(registry)).containsExactly("-5=1", "7=4", "1000=5").inOrder();
+        assertThat(drain(registry)).isEmpty();
+
+        registry.add(7, 1);
+        assertThat(drain(registry)).containsExactly("7=1");
+    }
+
+    @Test
+    public void add_saturatesOnOverflow() {
+        CounterRegistry registry = new CounterRegistry();
+
+        assertThat(registry.add(1, Long.MAX_VALUE - 1)).isTrue();
+        assertThat(registry.add(1, 2)).isFalse();
+
+        assertThat(drain(registry)).containsExactly("1=" + Long.MAX_VALUE);
+    }
+
+    @Test
+    public void add_concurrentUpdates() throws Exception {
+        CounterRegistry registry = new CounterRegistry();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    registry.add(i % 10, 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<String> drained = drain(registry);
+        assertThat(drained).hasSize(10);
+        for (int key = 0; key < 10; key++) {
+            assertThat(drained.get(key)).isEqualTo(key + "=400");
+        }
+    }
+
+    @Test
+    public void dump_printsPendingCounters() {
+        CounterRegistry registry = new CounterRegistry();
+        registry.add(3, 12);
+
+        StringWriter out = new StringWriter();
+        registry.dump(new PrintWriter(out), "  ");
+
+        assertThat(out.toString()).startsWith("  3: 12 (");
+    }
+}
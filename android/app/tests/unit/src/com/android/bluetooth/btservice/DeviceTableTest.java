@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.Utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link DeviceTable}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DeviceTableTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    @Test
+    public void toKey_bytesAndStringAgree() {
+        long key = DeviceTable.toKey(Utils.getBytesFromAddress(ADDRESS));
+
+        assertThat(key).isEqualTo(0x001122AABBCCL);
+        assertThat(DeviceTable.toKey(ADDRESS)).isEqualTo(key);
+        assertThat(DeviceTable.toKey(ADDRESS.toLowerCase())).isEqualTo(key);
+    }
+
+    @Test
+    public void toKey_malformed() {
+        assertThat(DeviceTable.toKey((byte[]) null)).isEqualTo(DeviceTable.INVALID_KEY);
+        assertThat(DeviceTable.toKey(new byte[5])).isEqualTo(DeviceTable.INVALID_KEY);
+        assertThat(DeviceTable.toKey("00:11:22:AA:BB")).isEqualTo(DeviceTable.INVALID_KEY);
+        assertThat(DeviceTable.toKey("00:11:22:AA:BB:CG")).isEqualTo(DeviceTable.INVALID_KEY);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        DeviceTable<String> table = new DeviceTable<>(2);
+        table.put(1, "one");
+        table.put(2, "two");
+        // Touch the first entry so the second one is the least recently used.
+        table.get(1);
+
+        assertThat(table.put(3, "three")).isEqualTo("two");
+        assertThat(table.get(1)).isEqualTo("one");
+        assertThat(table.get(2)).isNull();
+        assertThat(table.get(3)).isEqualTo("three");
+    }
+
+    @Test
+    public void setPinned_entryIsNotEvicted() {
+        DeviceTable<String> table = new DeviceTable<>(1);
+        table.put(1, "bonded");
+        table.setPinned(1, true);
+
+        table.put(2, "two");
+        table.put(3, "three");
+
+        assertThat(table.get(1)).isEqualTo("bonded");
+        assertThat(table.get(2)).isNull();
+        assertThat(table.size()).isEqualTo(2);
+
+        table.setPinned(1, false);
+        assertThat(table.isPinned(1)).isFalse();
+        assertThat(table.get(1)).isEqualTo("bonded");
+    }
+
+    @Test
+    public void putAlias_resolvesToMainEntry() {
+        DeviceTable<String> table = new DeviceTable<>(4);
+        table.put(1, "main");
+        table.put(2, "secondary");
+        table.putAlias(2, 1);
+
+        assertThat(table.get(2)).isEqualTo("main");
+
+        // Falls back to the alias' own entry once the main one is gone.
+        table.clear();
+        table.put(2, "secondary");
+        assertThat(table.get(2)).isEqualTo("secondary");
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test cases for {@link IdentityAddressCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IdentityAddressCacheTest {
+
+    private static final String RANDOM_ADDRESS = "4A:11:22:AA:BB:CC";
+    private static final String IDENTITY_ADDRESS = "00:11:22:33:44:55";
+
+    @Test
+    public void getIdentityAddress_known() {
+        IdentityAddressCache cache = new IdentityAddressCache();
+        cache.put(RANDOM_ADDRESS, IDENTITY_ADDRESS);
+
+        assertThat(cache.getIdentityAddress(RANDOM_ADDRESS)).isEqualTo(IDENTITY_ADDRESS);
+        assertThat(cache.getIdentityAddress(RANDOM_ADDRESS.toLowerCase()))
+                .isEqualTo(IDENTITY_ADDRESS);
+    }
+
+    @Test
+    public void getIdentityAddress_unknown_returnsAddress() {
+        IdentityAddressCache cache = new IdentityAddressCache();
+        cache.put(RANDOM_ADDRESS, IDENTITY_ADDRESS);
+        cache.remove(RANDOM_ADDRESS);
+
+        assertThat(cache.getIdentityAddress(RANDOM_ADDRESS)).isEqualTo(RANDOM_ADDRESS);
+    }
+
+    @Test
+    public void getIdentityAddress_invalid_throws() {
+        IdentityAddressCache cache = new IdentityAddressCache();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> cache.getIdentityAddress("00:11:22:33:44"));
+    }
+
+    @Test
+    public void dump_countsHitsAndMisses() {
+        IdentityAddressCache cache = new IdentityAddressCache();
+        cache.put(RANDOM_ADDRESS, IDENTITY_ADDRESS);
+        cache.getIdentityAddress(RANDOM_ADDRESS);
+        cache.getIdentityAddress(IDENTITY_ADDRESS);
+        cache.getIdentityAddress(IDENTITY_ADDRESS);
+
+        StringWriter out = new StringWriter();
+        cache.dump(new PrintWriter(out));
+
+        assertThat(out.toString()).contains("1 entries, hits=1, misses=2");
+    }
+}
@@ -388,6 +388,25 @@ public class MetricsLoggerTest {
         Assert.assertTrue(mTestableMetricsLogger.mTestableDeviceNames.isEmpty());
 
     }
+
+    @Test
+    public void testDeviceNameCacheClearedWithBloomfilter() {
+        initTestingBloomfitler();
+
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "My Pixel 7");
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "my  pixel 7");
+        Assert.assertEquals(2,
+                mTestableMetricsLogger.mTestableDeviceNames.get("pixel7").intValue());
+
+        // Nothing matches an empty bloomfilter, even names matched before
+        mTestableMetricsLogger.setBloomfilter(
+                BloomFilter.create(Funnels.byteArrayFunnel(), 10));
+        Assert.assertFalse(
+                mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "My Pixel 7"));
+        Assert.assertEquals(2,
+                mTestableMetricsLogger.mTestableDeviceNames.get("pixel7").intValue());
+    }
+
     private void initTestingBloomfitler() {
         byte[] bloomfilterData = DeviceBloomfilterGenerator.hexStringToByteArray(
                 DeviceBloomfilterGenerator.BLOOM_FILTER_DEFAULT);
@@ -104,6 +104,8 @@ public final class DatabaseManagerTest {
         when(mAdapterService.getPackageManager()).thenReturn(
                 InstrumentationRegistry.getTargetContext().getPackageManager());
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Write updates as soon as the handler thread runs
+        mDatabaseManager.mWriteDelayMs = 0;
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -651,6 +653,53 @@ public final class DatabaseManagerTest {
         TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
     }
 
+    @Test
+    public void testUpdatesCoalescedUntilCleanup() {
+        // Keep the updates pending until cleanup
+        mDatabaseManager.mWriteDelayMs = 60000;
+
+        mDatabaseManager.setConnection(mTestDevice, true);
+        mDatabaseManager.setConnection(mTestDevice2, false);
+        mDatabaseManager.setConnection(mTestDevice, true);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        // Only mTestDevice is bonded, the pending update of mTestDevice2 is dropped
+        mDatabaseManager.cleanup();
+
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(TEST_BT_ADDR, list.get(0).getAddress());
+        Assert.assertTrue(list.get(0).is_active_a2dp_device);
+    }
+
+    @Test
+    public void testGetMostRecentlyConnectedDevicesInList() {
+        mDatabaseManager.setConnection(mTestDevice, false);
+        mDatabaseManager.setConnection(mTestDevice2, false);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        Assert.assertEquals(mTestDevice2, mDatabaseManager.getMostRecentlyConnectedDevicesInList(
+                List.of(mTestDevice, mTestDevice2, mTestDevice3)));
+        Assert.assertNull(mDatabaseManager.getMostRecentlyConnectedDevicesInList(
+                List.of(mTestDevice3)));
+
+        mDatabaseManager.setConnection(mTestDevice, false);
+        Assert.assertEquals(mTestDevice, mDatabaseManager.getMostRecentlyConnectedDevicesInList(
+                List.of(mTestDevice, mTestDevice2)));
+        Assert.assertEquals(mTestDevice, mDatabaseManager.getMostRecentlyConnectedDevices().get(0));
+
+        // Unbonding removes the device from the recency order
+        mDatabaseManager.bondStateChanged(mTestDevice, BluetoothDevice.BOND_NONE);
+        Assert.assertEquals(List.of(mTestDevice2),
+                mDatabaseManager.getMostRecentlyConnectedDevices());
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testDatabaseMigration_100_101() throws IOException {
         // Create a database with version 100
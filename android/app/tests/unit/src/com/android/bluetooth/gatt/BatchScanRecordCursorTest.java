@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link BatchScanRecordCursor}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanRecordCursorTest {
+
+    private static final long NOW_NANOS = 1_000_000_000_000L;
+
+    @Test
+    public void truncatedRecords() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, (byte) 0xC4, 0x02, 0x00,
+                0x0F, 0x0E, 0x0D, 0x0C, 0x0B, 0x0A, 0x00, 0x00, (byte) 0xB0, 0x00, 0x00};
+        BatchScanRecordCursor cursor =
+                new BatchScanRecordCursor(true, 2, batchRecord, NOW_NANOS);
+
+        assertThat(cursor.hasNext()).isTrue();
+        ScanResult first = cursor.next();
+        assertThat(first.getDevice().getAddress()).isEqualTo("01:02:03:04:05:06");
+        assertThat(first.getRssi()).isEqualTo(-60);
+        assertThat(first.getTimestampNanos()).isEqualTo(NOW_NANOS - 100_000_000L);
+
+        assertThat(cursor.hasNext()).isTrue();
+        ScanResult second = cursor.next();
+        assertThat(second.getDevice().getAddress()).isEqualTo("0A:0B:0C:0D:0E:0F");
+        assertThat(second.getScanRecord()).isSameInstanceAs(first.getScanRecord());
+        assertThat(cursor.hasNext()).isFalse();
+    }
+
+    @Test
+    public void fullRecord_combinesAdvertisementAndScanResponse() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, (byte) 0xC4, 0x00, 0x00,
+                0x03, 0x02, 0x01, 0x06, // advertising packet
+                0x02, 0x01, 0x0A, // scan response packet
+        };
+        BatchScanRecordCursor cursor =
+                new BatchScanRecordCursor(false, 1, batchRecord, NOW_NANOS);
+
+        assertThat(cursor.hasNext()).isTrue();
+        ScanResult result = cursor.next();
+        assertThat(result.getDevice().getAddress()).isEqualTo("01:02:03:04:05:06");
+        assertThat(result.getScanRecord().getBytes())
+                .isEqualTo(new byte[] {0x02, 0x01, 0x06, 0x01, 0x0A});
+        assertThat(cursor.hasNext()).isFalse();
+    }
+
+    @Test
+    public void fullRecord_overrunningReport_isDropped() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, (byte) 0xC4, 0x00, 0x00,
+                0x1F, 0x02, 0x01, 0x06};
+        BatchScanRecordCursor cursor =
+                new BatchScanRecordCursor(false, 1, batchRecord, NOW_NANOS);
+
+        assertThat(cursor.hasNext()).isFalse();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link CongestionQueue}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CongestionQueueTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+
+    private static CallbackInfo newWrite(int handle, byte[] value) {
+        return new CallbackInfo.Builder(ADDRESS, 0).setHandle(handle).setValue(value).build();
+    }
+
+    @Test
+    public void poll_returnsCallbacksInOrder() {
+        CongestionQueue queue = new CongestionQueue();
+        CallbackInfo first = new CallbackInfo.Builder(ADDRESS, 0).build();
+        CallbackInfo second = new CallbackInfo.Builder(ADDRESS, 1).build();
+
+        queue.add(first);
+        queue.add(second);
+
+        assertThat(queue.poll()).isSameInstanceAs(first);
+        assertThat(queue.poll()).isSameInstanceAs(second);
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.getHighWaterMark()).isEqualTo(2);
+    }
+
+    @Test
+    public void add_sameHandle_coalescesWithNewest() {
+        CongestionQueue queue = new CongestionQueue();
+        byte[] latest = new byte[] {0x02};
+
+        queue.add(newWrite(3, new byte[] {0x01}));
+        queue.add(newWrite(3, latest));
+
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.getCoalescedCount()).isEqualTo(1);
+        assertThat(queue.poll().value).isSameInstanceAs(latest);
+    }
+
+    @Test
+    public void add_notificationsAreNotCoalesced() {
+        CongestionQueue queue = new CongestionQueue();
+
+        queue.add(new CallbackInfo.Builder(ADDRESS, 0).build());
+        queue.add(new CallbackInfo.Builder(ADDRESS, 0).build());
+
+        assertThat(queue.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void add_full_dropsOldest() {
+        CongestionQueue queue = new CongestionQueue(2);
+
+        queue.add(newWrite(1, null));
+        queue.add(newWrite(2, null));
+        queue.add(newWrite(3, null));
+
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.getDroppedCount()).isEqualTo(1);
+        assertThat(queue.poll().handle).isEqualTo(2);
+        assertThat(queue.poll().handle).isEqualTo(3);
+    }
+}
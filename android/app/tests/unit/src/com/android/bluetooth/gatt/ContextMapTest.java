@@ -52,7 +52,6 @@ import java.util.UUID;
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class ContextMapTest {
-
     private GattService mService;
 
     @Rule
@@ -113,6 +112,86 @@ public class ContextMapTest {
         assertThat(contextMapByName.name).isEqualTo(appName);
     }
 
+    @Test
+    public void connections_lookupsFollowAddAndRemove() {
+        ContextMap<Void, Void> contextMap = new ContextMap<>();
+        UUID uuid = UUID.randomUUID();
+        ContextMap<Void, Void>.App app = contextMap.add(uuid, null, null, null, mService);
+        app.id = 7;
+        String address = "00:01:02:03:04:05";
+
+        contextMap.addConnection(app.id, 3, address);
+
+        assertThat(contextMap.getByUuid(uuid)).isSameInstanceAs(app);
+        assertThat(contextMap.getByConnId(3)).isSameInstanceAs(app);
+        assertThat(contextMap.addressByConnId(3)).isEqualTo(address);
+        assertThat(contextMap.connIdByAddress(app.id, address.toLowerCase())).isEqualTo(3);
+
+        contextMap.removeConnection(app.id, 3);
+
+        assertThat(contextMap.getByConnId(3)).isNull();
+        assertThat(contextMap.connIdByAddress(app.id, address)).isNull();
+
+        contextMap.remove(uuid);
+
+        assertThat(contextMap.getById(7)).isNull();
+        assertThat(contextMap.getByUuid(uuid)).isNull();
+    }
+
+    @Test
+    public void connections_twoConnectionsFromOneAppToOneDevice_bothAreKept() {
+        ContextMap<Void, Void> contextMap = new ContextMap<>();
+        ContextMap<Void, Void>.App app =
+                contextMap.add(UUID.randomUUID(), null, null, null, mService);
+        app.id = 7;
+        String address = "00:01:02:03:04:05";
+
+        contextMap.addConnection(app.id, 3, address);
+        contextMap.addConnection(app.id, 4, address);
+
+        assertThat(contextMap.getConnectionByApp(app.id)).hasSize(2);
+        assertThat(contextMap.connIdByAddress(app.id, address)).isEqualTo(3);
+
+        contextMap.removeConnection(app.id, 4);
+
+        assertThat(contextMap.getConnectionByApp(app.id)).hasSize(1);
+        assertThat(contextMap.getConnectionByApp(app.id).get(0).connId).isEqualTo(3);
+        assertThat(contextMap.connIdByAddress(app.id, address)).isEqualTo(3);
+        assertThat(contextMap.getByConnId(3)).isSameInstanceAs(app);
+
+        contextMap.removeConnection(app.id, 3);
+
+        assertThat(contextMap.getConnectionByApp(app.id)).isEmpty();
+        assertThat(contextMap.connIdByAddress(app.id, address)).isNull();
+    }
+
+    @Test
+    public void connections_manyAppsAndConnections_lookupsResolveEachConnection() {
+        final int numApps = 100;
+        final int numConnections = 50;
+        ContextMap<Void, Void> contextMap = new ContextMap<>();
+        for (int i = 1; i <= numApps; i++) {
+            contextMap.add(UUID.randomUUID(), null, null, null, mService).id = i;
+        }
+        for (int connId = 1; connId <= numConnections; connId++) {
+            contextMap.addConnection(numApps - connId, connId,
+                    String.format("00:01:02:03:04:%02X", connId));
+        }
+
+        for (int connId = 1; connId <= numConnections; connId++) {
+            String address = String.format("00:01:02:03:04:%02X", connId);
+            ContextMap<Void, Void>.App app = contextMap.getByConnId(connId);
+
+            assertThat(app).isNotNull();
+            assertThat(app.id).isEqualTo(numApps - connId);
+            assertThat(contextMap.addressByConnId(connId)).isEqualTo(address);
+            assertThat(contextMap.connIdByAddress(app.id, address)).isEqualTo(connId);
+            assertThat(contextMap.getByConnId(connId)).isSameInstanceAs(contextMap.getById(app.id));
+        }
+        assertThat(contextMap.getByConnId(numConnections + 1)).isNull();
+        assertThat(contextMap.connIdByAddress(numApps, "00:01:02:03:04:01")).isNull();
+    }
+
     @Test
     public void advertisingSetAndData() {
         ContextMap contextMap = new ContextMap<>();
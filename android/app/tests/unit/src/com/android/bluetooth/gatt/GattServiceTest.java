@@ -409,6 +409,15 @@ public class GattServiceTest {
         verify(mClientMap).remove(clientIf);
     }
 
+    @Test
+    public void onWriteCharacteristic_afterDisconnect_doesNotCrash() throws Exception {
+        int connId = 1;
+        doReturn(null).when(mClientMap).addressByConnId(connId);
+        doReturn(null).when(mClientMap).getByConnId(connId);
+
+        mService.onWriteCharacteristic(connId, /*status=*/ 0, /*handle=*/ 2, new byte[0]);
+    }
+
     @Test
     public void registerScanner() throws Exception {
         IScannerCallback callback = mock(IScannerCallback.class);
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothStatusCodes;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link GattWriteLimiter}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattWriteLimiterTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+
+    private final GattWriteLimiter mLimiter = new GattWriteLimiter();
+
+    @Test
+    public void tryAcquire_unknownDevice_notConnected() {
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1))
+                .isEqualTo(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED);
+    }
+
+    @Test
+    public void tryAcquire_depthOne_busyUntilWriteCompletes() {
+        mLimiter.addDevice(ADDRESS);
+
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+
+        mLimiter.onWriteComplete(ADDRESS, 1);
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+    }
+
+    @Test
+    public void tryAcquire_pipelinesUpToDepth() {
+        mLimiter.addDevice(ADDRESS);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(mLimiter.tryAcquire(ADDRESS, 1, 4)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+        }
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(4);
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 4))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+
+        mLimiter.onWriteComplete(ADDRESS, 1);
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(3);
+    }
+
+    @Test
+    public void tryAcquire_devicesAreIndependent() {
+        mLimiter.addDevice(ADDRESS);
+        mLimiter.addDevice(OTHER_ADDRESS);
+
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+        assertThat(mLimiter.tryAcquire(OTHER_ADDRESS, 2, 1))
+                .isEqualTo(BluetoothStatusCodes.SUCCESS);
+    }
+
+    @Test
+    public void removeConnection_releasesItsWrites() {
+        mLimiter.addDevice(ADDRESS);
+        mLimiter.tryAcquire(ADDRESS, 1, 2);
+        mLimiter.tryAcquire(ADDRESS, 2, 2);
+
+        mLimiter.removeConnection(ADDRESS, 1);
+
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(1);
+        // A late completion for the removed connection must not release the other one.
+        mLimiter.onWriteComplete(ADDRESS, 1);
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(1);
+    }
+
+    @Test
+    public void removeDevice_notConnected() {
+        mLimiter.addDevice(ADDRESS);
+        mLimiter.tryAcquire(ADDRESS, 1, 1);
+
+        mLimiter.removeDevice(ADDRESS);
+
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(0);
+        assertThat(mLimiter.tryAcquire(ADDRESS, 1, 1))
+                .isEqualTo(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED);
+    }
+
+    @Test
+    public void onWriteComplete_afterDisconnect_isIgnored() {
+        mLimiter.addDevice(ADDRESS);
+        mLimiter.tryAcquire(ADDRESS, 1, 1);
+        mLimiter.removeDevice(ADDRESS);
+
+        // The address of a connection that went away is no longer known
+        mLimiter.onWriteComplete(null, 1);
+        mLimiter.onWriteComplete(ADDRESS, 1);
+
+        assertThat(mLimiter.getDepth(null)).isEqualTo(0);
+        assertThat(mLimiter.getDepth(ADDRESS)).isEqualTo(0);
+    }
+
+    @Test
+    public void dump_reportsPerDeviceStats() {
+        mLimiter.addDevice(ADDRESS);
+        mLimiter.tryAcquire(ADDRESS, 1, 2);
+        mLimiter.tryAcquire(ADDRESS, 1, 2);
+        mLimiter.tryAcquire(ADDRESS, 1, 2);
+        mLimiter.onWriteComplete(ADDRESS, 1);
+
+        StringBuilder sb = new StringBuilder();
+        mLimiter.dump(sb);
+
+        assertThat(sb.toString()).contains(ADDRESS + ": depth=1, maxDepth=2, writes=1, busy=1");
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+/**
+ * Test cases for {@link HandleMap}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class HandleMapTest {
+
+    private static final int SERVER_IF = 5;
+    private static final UUID SERVICE_UUID = UUID.randomUUID();
+    private static final UUID CHAR_UUID = UUID.randomUUID();
+
+    // Adds a service at serviceHandle with numChars characteristics, each with one descriptor.
+    private static void addService(HandleMap handleMap, int serviceHandle, int numChars) {
+        handleMap.addService(SERVER_IF, serviceHandle, SERVICE_UUID, 0, 0, false);
+        int handle = serviceHandle;
+        for (int i = 0; i < numChars; i++) {
+            handleMap.addCharacteristic(SERVER_IF, ++handle, CHAR_UUID, serviceHandle);
+            handleMap.addDescriptor(SERVER_IF, ++handle, CHAR_UUID, serviceHandle);
+        }
+    }
+
+    @Test
+    public void getByHandle_manyAttributes() {
+        HandleMap handleMap = new HandleMap();
+        addService(handleMap, 1, 200);
+
+        for (int handle = 1; handle <= 401; handle++) {
+            assertThat(handleMap.getByHandle(handle).handle).isEqualTo(handle);
+        }
+        assertThat(handleMap.getByHandle(402)).isNull();
+        assertThat(handleMap.getByHandle(4).type).isEqualTo(HandleMap.TYPE_CHARACTERISTIC);
+        assertThat(handleMap.getByHandle(5).charHandle).isEqualTo(4);
+    }
+
+    @Test
+    public void checkServiceExists() {
+        HandleMap handleMap = new HandleMap();
+        addService(handleMap, 10, 1);
+
+        assertThat(handleMap.checkServiceExists(SERVICE_UUID, 10)).isTrue();
+        assertThat(handleMap.checkServiceExists(CHAR_UUID, 10)).isFalse();
+        assertThat(handleMap.checkServiceExists(SERVICE_UUID, 11)).isFalse();
+    }
+
+    @Test
+    public void deleteService_removesItsAttributesOnly() {
+        HandleMap handleMap = new HandleMap();
+        addService(handleMap, 10, 2);
+        addService(handleMap, 20, 2);
+
+        handleMap.deleteService(SERVER_IF, 10);
+
+        assertThat(handleMap.getByHandle(10)).isNull();
+        assertThat(handleMap.getByHandle(12)).isNull();
+        assertThat(handleMap.getByHandle(22).serviceHandle).isEqualTo(20);
+        assertThat(handleMap.getServices(SERVER_IF)).hasSize(1);
+        assertThat(handleMap.getServices(SERVER_IF).get(0).handle).isEqualTo(20);
+    }
+
+    @Test
+    public void setStarted_updatesServiceEntry() {
+        HandleMap handleMap = new HandleMap();
+        addService(handleMap, 10, 1);
+
+        handleMap.setStarted(SERVER_IF + 1, 10, true);
+        assertThat(handleMap.getByHandle(10).started).isFalse();
+
+        handleMap.setStarted(SERVER_IF, 10, true);
+        assertThat(handleMap.getByHandle(10).started).isTrue();
+    }
+
+    @Test
+    public void getByRequestId() {
+        HandleMap handleMap = new HandleMap();
+        addService(handleMap, 10, 1);
+
+        handleMap.addRequest(3, 11);
+
+        assertThat(handleMap.getByRequestId(3).handle).isEqualTo(11);
+        handleMap.deleteRequest(3);
+        assertThat(handleMap.getByRequestId(3)).isNull();
+    }
+}
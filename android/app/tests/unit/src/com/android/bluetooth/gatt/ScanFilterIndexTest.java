@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    // Flags, 16-bit service UUID 0xFEAA and manufacturer data for company 0x004C.
+    private static final byte[] ADV_DATA = new byte[] {0x02, 0x01, 0x06, 0x03, 0x03,
+            (byte) 0xAA, (byte) 0xFE, 0x05, (byte) 0xFF, 0x4C, 0x00, 0x01, 0x02};
+
+    private static ScanClient newClient(int scannerId, List<ScanFilter> filters) {
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(), filters);
+    }
+
+    private static ScanResult newResult() {
+        return new ScanReport(0x1b, ADDRESS, 1, 0, 0xff, 127, -54, 0, ADV_DATA, 0L)
+                .getResult(false);
+    }
+
+    @Test
+    public void getCandidates_returnsOnlyClientsWithMatchingKeys() {
+        ScanClient unfiltered = newClient(1, null);
+        ScanClient byAddress = newClient(2, Collections.singletonList(
+                new ScanFilter.Builder().setDeviceAddress(ADDRESS).build()));
+        ScanClient byManufacturer = newClient(3, Collections.singletonList(
+                new ScanFilter.Builder().setManufacturerData(0x004C, new byte[0]).build()));
+        ScanClient byServiceUuid = newClient(4, Collections.singletonList(
+                new ScanFilter.Builder().setServiceUuid(
+                        ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB")).build()));
+        ScanClient otherManufacturer = newClient(5, Collections.singletonList(
+                new ScanFilter.Builder().setManufacturerData(0x00E0, new byte[0]).build()));
+
+        ScanFilterIndex index = ScanFilterIndex.build(Arrays.asList(unfiltered, byAddress,
+                byManufacturer, byServiceUuid, otherManufacturer));
+        Set<ScanClient> candidates = index.getCandidates(newResult(), null);
+
+        assertThat(candidates).containsExactly(unfiltered, byAddress, byManufacturer,
+                byServiceUuid);
+        assertThat(index.size()).isEqualTo(5);
+        assertThat(index.getUnconditionalCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getCandidates_matchesOriginalAddressIgnoringCase() {
+        String identityAddress = "AA:BB:CC:DD:EE:FF";
+        ScanClient byIdentity = newClient(1, Collections.singletonList(
+                new ScanFilter.Builder().setDeviceAddress(identityAddress).build()));
+
+        ScanFilterIndex index = ScanFilterIndex.build(Collections.singletonList(byIdentity));
+
+        assertThat(index.getCandidates(newResult(), null)).isEmpty();
+        assertThat(index.getCandidates(newResult(), identityAddress.toLowerCase()))
+                .containsExactly(byIdentity);
+    }
+
+    @Test
+    public void build_filterWithoutIndexableField_isUnconditional() {
+        ScanClient byName = newClient(1, Collections.singletonList(
+                new ScanFilter.Builder().setDeviceName("name").build()));
+
+        ScanFilterIndex index = ScanFilterIndex.build(Collections.singletonList(byName));
+
+        assertThat(index.isIndexed(byName)).isTrue();
+        assertThat(index.isIndexed(newClient(2, null))).isFalse();
+        assertThat(index.getCandidates(newResult(), null)).containsExactly(byName);
+    }
+}
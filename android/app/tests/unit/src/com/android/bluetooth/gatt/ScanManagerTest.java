@@ -32,6 +32,7 @@ import static org.mockito.Mockito.when;
 
 import android.app.ActivityManager;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.Binder;
@@ -565,4 +566,26 @@ public class ScanManagerTest {
             assertThat(client.settings.getScanMode()).isEqualTo(ScanMode);
         }
     }
+
+    @Test
+    public void testStopScanDropsCoalescedScanResults() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Start scan
+        ScanClient client = createScanClient(0, false, SCAN_MODE_LOW_LATENCY);
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+        assertThat(mScanManager.getRegularScanQueue().contains(client)).isTrue();
+        // Hold a result for longer than the test
+        ScanResult result = new ScanReport(0x1b, "00:01:02:03:04:05", 1, 0, 0xff, 127, -54, 0,
+                new byte[] {0x02, 0x01, 0x06}, 0L).getResult(false);
+        mService.mScanResultCoalescer.add(client, result, DELAY_DEFAULT_SCAN_TIMEOUT_MS, 100);
+        assertThat(mService.mScanResultCoalescer.getPendingScannerCount()).isEqualTo(1);
+
+        // Stop scan through ScanManager directly, as done when a callback fails
+        mScanManager.stopScan(client.scannerId);
+        TestUtils.waitForLooperToBeIdle(mHandler.getLooper());
+
+        assertThat(mScanManager.getRegularScanQueue().contains(client)).isFalse();
+        assertThat(mService.mScanResultCoalescer.getPendingScannerCount()).isEqualTo(0);
+    }
 }
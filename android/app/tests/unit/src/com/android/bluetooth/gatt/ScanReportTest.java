@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link ScanReport}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanReportTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final byte[] ADV_DATA = new byte[] {0x02, 0x01, 0x06, 0x03, 0x03,
+            (byte) 0xAA, (byte) 0xFE};
+
+    private static ScanReport newReport() {
+        return new ScanReport(0x1b, ADDRESS, 1, 0, 0xff, 127, -54, 0, ADV_DATA, 1000L);
+    }
+
+    @Test
+    public void getResult_sameVariant_isSharedAndCounted() {
+        ScanReport report = newReport();
+
+        ScanResult first = report.getResult(false);
+        ScanResult second = report.getResult(false);
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(report.getParsesAvoided()).isEqualTo(1);
+        assertThat(first.getDevice().getAddress()).isEqualTo(ADDRESS);
+        assertThat(first.getTimestampNanos()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void getResult_legacyVariant_isPaddedToFixedSize() {
+        ScanReport report = newReport();
+
+        ScanResult legacy = report.getResult(true);
+        ScanResult extended = report.getResult(false);
+
+        assertThat(legacy).isNotSameInstanceAs(extended);
+        assertThat(legacy.getScanRecord().getBytes())
+                .hasLength(ScanReport.LEGACY_ADV_DATA_LENGTH);
+        assertThat(extended.getScanRecord().getBytes()).isEqualTo(ADV_DATA);
+        assertThat(legacy.getDevice()).isSameInstanceAs(extended.getDevice());
+        assertThat(report.getParsesAvoided()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.le.ScanResult;
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for {@link ScanResultCoalescer}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanResultCoalescerTest {
+
+    private static final long TIMEOUT_MS = 1000;
+    private static final byte[] ADV_DATA = new byte[] {0x02, 0x01, 0x06};
+
+    @Mock private GattService mService;
+
+    private HandlerThread mThread;
+    private ScanResultCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mThread = new HandlerThread("ScanResultCoalescerTest");
+        mThread.start();
+        mCoalescer = new ScanResultCoalescer(mService, mThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mCoalescer.cleanup();
+        mThread.quitSafely();
+    }
+
+    private static ScanResult newResult(String address) {
+        return new ScanReport(0x1b, address, 1, 0, 0xff, 127, -54, 0, ADV_DATA, 0L)
+                .getResult(false);
+    }
+
+    @Test
+    public void add_deliversInOrderAfterWindow() {
+        ScanClient client = new ScanClient(1);
+        ScanResult first = newResult("00:01:02:03:04:05");
+        ScanResult second = newResult("00:01:02:03:04:06");
+
+        mCoalescer.add(client, first, 50, 10);
+        mCoalescer.add(client, second, 50, 10);
+
+        ArgumentCaptor<ArrayList<ScanResult>> captor = ArgumentCaptor.forClass(ArrayList.class);
+        verify(mService, timeout(TIMEOUT_MS)).deliverCoalescedScanResults(eq(client),
+                captor.capture());
+        assertThat(captor.getValue()).containsExactly(first, second).inOrder();
+    }
+
+    @Test
+    public void add_maxResultsReached_deliversBeforeWindow() {
+        ScanClient client = new ScanClient(1);
+
+        mCoalescer.add(client, newResult("00:01:02:03:04:05"), 60_000, 2);
+        mCoalescer.add(client, newResult("00:01:02:03:04:06"), 60_000, 2);
+
+        verify(mService, timeout(TIMEOUT_MS)).deliverCoalescedScanResults(eq(client), any());
+    }
+
+    @Test
+    public void removeScanner_dropsPendingResults() {
+        ScanClient client = new ScanClient(1);
+
+        mCoalescer.add(client, newResult("00:01:02:03:04:05"), 50, 10);
+        mCoalescer.removeScanner(client.scannerId);
+
+        verify(mService, after(200).never()).deliverCoalescedScanResults(any(), any());
+    }
+
+    @Test
+    public void add_withReusedScannerId_dropsResultsOfOldClient() {
+        ScanClient oldClient = new ScanClient(1);
+        ScanClient newClient = new ScanClient(1);
+        ScanResult result = newResult("00:01:02:03:04:06");
+
+        mCoalescer.add(oldClient, newResult("00:01:02:03:04:05"), 50, 10);
+        mCoalescer.add(newClient, result, 50, 10);
+
+        ArgumentCaptor<ArrayList<ScanResult>> captor = ArgumentCaptor.forClass(ArrayList.class);
+        verify(mService, timeout(TIMEOUT_MS)).deliverCoalescedScanResults(same(newClient),
+                captor.capture());
+        assertThat(captor.getValue()).containsExactly(result);
+        verify(mService, after(200).never()).deliverCoalescedScanResults(same(oldClient), any());
+    }
+}
@@ -64,9 +64,11 @@ import org.mockito.Spy;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -142,6 +144,8 @@ public class BluetoothMapContentObserverTest {
     private BluetoothMapContentObserver mObserver;
     private BluetoothMapFolderElement mFolders;
     private BluetoothMapFolderElement mCurrentFolder;
+    // SMS listed by setUpMsgListQueries()
+    private final List<Long> mSmsIds = new ArrayList<>();
 
     static class ExceptionTestProvider extends MockContentProvider {
         HashSet<String> mContents = new HashSet<String>();
@@ -1606,6 +1610,153 @@ public class BluetoothMapContentObserverTest {
                 TEST_READ_FLAG_ONE);
     }
 
+    @Test
+    public void handleMsgListChangesSms_newRowsOnly_queriesAboveHighWaterMark() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                isNull(), any(), any());
+        mObserver.setMsgListSms(new HashMap<>(), true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+        // Reconcile the whole table first to learn the high water mark
+        mObserver.handleMsgListChangesSms();
+
+        MatrixCursor newRows = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        newRows.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ZERO});
+        doReturn(newRows).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                eq(Sms._ID + " > " + TEST_HANDLE_ONE), any(), any());
+
+        mObserver.handleMsgListChangesSms(true);
+
+        // The message below the high water mark is kept, not reported as deleted
+        Assert.assertEquals(2, mObserver.getMsgListSms().size());
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_ONE).flagRead,
+                TEST_READ_FLAG_ONE);
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_TWO).flagRead,
+                TEST_READ_FLAG_ZERO);
+    }
+
+    @Test
+    public void scheduleMsgListChanges_withinChangeDelay_runsOneDiffPass() {
+        setUpMsgListQueries();
+
+        doReturn(1000L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        doReturn(1050L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        mObserver.scheduleMsgListChanges(Mms.CONTENT_URI);
+
+        // A single pass is pending for the whole burst, nothing has been queried yet
+        Assert.assertTrue(mObserver.mHandler.hasCallbacks(mObserver.mHandleMsgListChanges));
+        verify(mMapMethodProxy, never()).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                any(), any(), any());
+
+        runPendingMsgListChanges();
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(), any(),
+                any(), any());
+        Assert.assertFalse(mObserver.mHandler.hasCallbacks(mObserver.mHandleMsgListChanges));
+        Assert.assertEquals(1, mObserver.getMsgListSms().size());
+    }
+
+    @Test
+    public void handlePendingMsgListChanges_newMessage_onlyQueriesNewRows() {
+        setUpMsgListQueries();
+
+        // The first pass reconciles the whole table
+        doReturn(1000L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        runPendingMsgListChanges();
+
+        // A message arriving after a quiet period is found above the high water mark
+        mSmsIds.add(TEST_HANDLE_TWO);
+        doReturn(60000L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        runPendingMsgListChanges();
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                eq(Sms._ID + " > " + TEST_HANDLE_ONE), any(), any());
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                isNull(), any(), any());
+        Assert.assertFalse(mObserver.mHandler.hasCallbacks(mObserver.mReconcileMsgList));
+        Assert.assertEquals(2, mObserver.getMsgListSms().size());
+    }
+
+    @Test
+    public void handlePendingMsgListChanges_withoutNewMessage_reconcilesOncePerInterval() {
+        setUpMsgListQueries();
+
+        doReturn(1000L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        runPendingMsgListChanges();
+
+        // Nothing new, the change is an update or a deletion: reconcile at the end of the interval
+        doReturn(1500L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        runPendingMsgListChanges();
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                eq(Sms._ID + " > " + TEST_HANDLE_ONE), any(), any());
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                isNull(), any(), any());
+        Assert.assertTrue(mObserver.mHandler.hasCallbacks(mObserver.mReconcileMsgList));
+
+        // Changes until then share the pending reconcile pass
+        doReturn(1800L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.scheduleMsgListChanges(Sms.CONTENT_URI);
+        runPendingMsgListChanges();
+        Assert.assertTrue(mObserver.mHandler.hasCallbacks(mObserver.mReconcileMsgList));
+
+        // Run the reconcile pass as the handler would at the end of the interval
+        doReturn(3000L).when(mMapMethodProxy).systemClockElapsedRealtime();
+        mObserver.mHandler.removeCallbacks(mObserver.mReconcileMsgList);
+        mObserver.reconcileMsgList();
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), eq(Sms.CONTENT_URI),
+                any(), isNull(), any(), any());
+    }
+
+    /**
+     * Lists the inbox SMS of mSmsIds in the SMS table, only those above the high water mark for
+     * new row queries, and an empty MMS table.
+     */
+    private void setUpMsgListQueries() {
+        doReturn(null).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        doAnswer(invocation -> new MatrixCursor(new String[] {Mms._ID})).when(mMapMethodProxy)
+                .contentResolverQuery(any(), eq(Mms.CONTENT_URI), any(), any(), any(), any());
+        doAnswer(invocation -> {
+            String selection = invocation.getArgument(3);
+            long highWaterMark = selection == null ? -1
+                    : Long.parseLong(selection.substring((Sms._ID + " > ").length()));
+            MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE,
+                    Sms.THREAD_ID, Sms.READ});
+            for (long id : mSmsIds) {
+                if (id > highWaterMark) {
+                    cursor.addRow(new Object[] {id, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                            TEST_READ_FLAG_ONE});
+                }
+            }
+            return cursor;
+        }).when(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(), any(),
+                any(), any());
+        mSmsIds.add(TEST_HANDLE_ONE);
+        mObserver.setMsgListSms(new HashMap<>(), true);
+        mObserver.setMsgListMms(new HashMap<>(), true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+    }
+
+    /**
+     * Runs the pending message list pass as the handler would once CHANGE_DELAY_MS has elapsed.
+     */
+    private void runPendingMsgListChanges() {
+        Assert.assertTrue(mObserver.mHandler.hasCallbacks(mObserver.mHandleMsgListChanges));
+        mObserver.mHandler.removeCallbacks(mObserver.mHandleMsgListChanges);
+        mObserver.handlePendingMsgListChanges();
+    }
+
     @Test
     public void handleMmsSendIntent_withMnsClientNotConnected() {
         when(mClient.isConnected()).thenReturn(false);
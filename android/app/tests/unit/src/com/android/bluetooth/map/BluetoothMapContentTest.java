@@ -1347,6 +1347,42 @@ public class BluetoothMapContentTest {
         assertThat(emailElement.getDeliveryStatus()).isEqualTo(TEST_DELIVERY_STATE);
     }
 
+    @Test
+    public void msgListing_withSmsAndMmsCursors_mergesByDateFromOffset() {
+        when(mParams.getParameterMask()).thenReturn((long) BluetoothMapContent.MASK_DATETIME);
+        when(mParams.getFilterMessageType()).thenReturn(TEST_NO_FILTER);
+        when(mParams.getMaxListCount()).thenReturn(2);
+        when(mParams.getStartOffset()).thenReturn(1);
+
+        mCurrentFolder.setHasSmsMmsContent(true);
+        mCurrentFolder.setFolderId(TEST_ID);
+
+        MatrixCursor smsCursor = new MatrixCursor(new String[] {BaseColumns._ID, Telephony.Sms.TYPE,
+                Telephony.Sms.READ, Telephony.Sms.DATE, Telephony.Sms.THREAD_ID});
+        smsCursor.addRow(new Object[] {1L, TEST_SENT_NO, TEST_READ_FALSE, 4000L, TEST_THREAD_ID});
+        smsCursor.addRow(new Object[] {2L, TEST_SENT_NO, TEST_READ_TRUE, 2000L, TEST_THREAD_ID});
+        doReturn(smsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.SMS_PROJECTION), any(), any(), any());
+        // MMS dates are in seconds
+        MatrixCursor mmsCursor = new MatrixCursor(new String[] {BaseColumns._ID,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.READ, Telephony.Mms.DATE,
+                Telephony.Mms.THREAD_ID});
+        mmsCursor.addRow(new Object[] {3L, TEST_SENT_NO, TEST_READ_TRUE, 3L, TEST_THREAD_ID});
+        mmsCursor.addRow(new Object[] {4L, TEST_SENT_NO, TEST_READ_TRUE, 1L, TEST_THREAD_ID});
+        doReturn(mmsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.MMS_PROJECTION), any(), any(), any());
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mCurrentFolder, mParams);
+
+        assertThat(listing.getCount()).isEqualTo(2);
+        assertThat(listing.getList().get(0).getHandle()).isEqualTo(3L);
+        assertThat(listing.getList().get(0).getType()).isEqualTo(TYPE.MMS);
+        assertThat(listing.getList().get(1).getHandle()).isEqualTo(2L);
+        assertThat(listing.getList().get(1).getDateTime()).isEqualTo(2000L);
+        // The skipped first message is unread
+        assertThat(listing.hasUnread()).isTrue();
+    }
+
     @Test
     public void msgListing_withImCursorOnly() {
         when(mParams.getParameterMask()).thenReturn(
@@ -31,6 +31,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
@@ -136,6 +137,15 @@ public class BluetoothMapMessageListingTest {
         assertThat(listing.getList().get(1).getReadBool()).isTrue();
     }
 
+    @Test
+    public void encodeToStream_matchesEncodeToByteArray() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out, true, TEST_VERSION);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode(true, TEST_VERSION));
+    }
+
     /**
      * Decodes the encoded xml document then append the BluetoothMapMessageListingElements to the
      * given BluetoothMapMessageListing object.
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.database.MatrixCursor;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.Locale;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ContactNameCacheTest {
+    private static final long TEST_ID = 1;
+    private static final String TEST_NAME = "Test Name";
+    private static final String TEST_PHONE = "test_phone";
+    private static final long TEST_OTHER_ID = 2;
+    private static final String TEST_OTHER_NAME = "Other Name";
+
+    @Spy
+    private BluetoothMethodProxy mMapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private final MockContentResolver mResolver = new MockContentResolver();
+    private final ContactNameCache mCache = ContactNameCache.getInstance();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMapMethodProxy);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.unregister();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    private void mockContactQuery(boolean found) {
+        if (found) {
+            mockContactQuery(new Object[] {TEST_ID, TEST_NAME});
+        } else {
+            mockContactQuery();
+        }
+    }
+
+    /**
+     * Lists the given contact rows for the phone number, in order, keeping only those whose name
+     * matches the "like" selection argument if there is one.
+     */
+    private void mockContactQuery(Object[]... rows) {
+        doAnswer(invocation -> {
+            String[] selectionArgs = invocation.getArgument(4);
+            MatrixCursor cursor = new MatrixCursor(SmsMmsContacts.CONTACT_PROJECTION);
+            for (Object[] row : rows) {
+                if (selectionArgs == null || ((String) row[1]).toLowerCase(Locale.US).matches(
+                        selectionArgs[0].toLowerCase(Locale.US).replace("%", ".*"))) {
+                    cursor.addRow(row);
+                }
+            }
+            return cursor;
+        }).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void getContact_whenRegistered_queriesOnce() {
+        mockContactQuery(true);
+        mCache.register(mResolver);
+
+        assertThat(mCache.getContact(TEST_PHONE, mResolver).getName()).isEqualTo(TEST_NAME);
+        assertThat(mCache.getContact(TEST_PHONE, mResolver).getName()).isEqualTo(TEST_NAME);
+
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContact_withoutContact_isCached() {
+        mockContactQuery(false);
+        mCache.register(mResolver);
+
+        assertThat(mCache.getContact(TEST_PHONE, mResolver)).isNull();
+        assertThat(mCache.getContact(TEST_PHONE, mResolver)).isNull();
+
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContact_afterInvalidate_queriesAgain() {
+        mockContactQuery(true);
+        mCache.register(mResolver);
+        mCache.getContact(TEST_PHONE, mResolver);
+
+        mCache.invalidate();
+        mCache.getContact(TEST_PHONE, mResolver);
+
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContact_whenNotRegistered_isNotCached() {
+        mockContactQuery(true);
+
+        mCache.getContact(TEST_PHONE, mResolver);
+        mCache.getContact(TEST_PHONE, mResolver);
+
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContact_withFilter_appliesFilterToCachedContact() {
+        mockContactQuery(true);
+        mCache.register(mResolver);
+
+        assertThat(mCache.getContact(TEST_PHONE, mResolver, "test*name").getName())
+                .isEqualTo(TEST_NAME);
+        assertThat(mCache.getContact(TEST_PHONE, mResolver, "other")).isNull();
+
+        // Only the filter not matching the cached contact is looked up in the provider
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContact_withFilter_matchesOtherContactSharingTheNumber() {
+        mockContactQuery(new Object[] {TEST_OTHER_ID, TEST_OTHER_NAME},
+                new Object[] {TEST_ID, TEST_NAME});
+        mCache.register(mResolver);
+
+        assertThat(mCache.getContact(TEST_PHONE, mResolver).getId()).isEqualTo(TEST_OTHER_ID);
+        assertThat(mCache.getContact(TEST_PHONE, mResolver, "test*name").getId())
+                .isEqualTo(TEST_ID);
+        assertThat(mCache.getContact(TEST_PHONE, mResolver, "other").getId())
+                .isEqualTo(TEST_OTHER_ID);
+
+        // The first contact of the number stays cached
+        assertThat(mCache.getContact(TEST_PHONE, mResolver).getId()).isEqualTo(TEST_OTHER_ID);
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+}
@@ -20,6 +20,8 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.notNull;
 
 import android.content.ContentResolver;
 import android.database.MatrixCursor;
@@ -44,7 +46,7 @@ public class SmsMmsContactsTest {
     private static final String TEST_NAME = "test_name";
     private static final String TEST_PHONE_NUMBER = "111-1111-1111";
     private static final String TEST_PHONE = "test_phone";
-    private static final String TEST_CONTACT_NAME_FILTER = "test_contact_name_filter";
+    private static final String TEST_CONTACT_NAME_FILTER = "test*name";
 
     @Mock
     private ContentResolver mResolver;
@@ -119,22 +121,19 @@ public class SmsMmsContactsTest {
         cursor.addRow(new Object[]{TEST_ID, TEST_PHONE_NUMBER});
         doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
                 any(), any());
-        MapContact contact = MapContact.create(TEST_ID, TEST_PHONE);
 
-        mContacts.mNames.put(TEST_PHONE, contact);
         mContacts.fillPhoneCache(mResolver);
         assertThat(mContacts.getPhoneNumber(mResolver, TEST_ID)).isEqualTo(TEST_PHONE_NUMBER);
         mContacts.clearCache();
 
         doReturn(null).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
                 any(), any());
-        assertThat(mContacts.mNames).isEmpty();
         assertThat(mContacts.getPhoneNumber(mResolver, TEST_ID)).isEqualTo(null);
     }
 
     @Test
     public void getContactNameFromPhone_withNonNullCursor() {
-        MatrixCursor cursor = new MatrixCursor(new String[]{"COL_CONTACT_ID", "COL_CONTACT_NAME"});
+        MatrixCursor cursor = new MatrixCursor(SmsMmsContacts.CONTACT_PROJECTION);
         cursor.addRow(new Object[]{TEST_ID, TEST_NAME});
         doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
                 any(), any());
@@ -162,28 +161,26 @@ public class SmsMmsContactsTest {
     }
 
     @Test
-    public void getContactNameFromPhone_withNonNullContact_andZeroId() {
-        long zeroId = 0;
-        MapContact contact = MapContact.create(zeroId, TEST_PHONE);
-        mContacts.mNames.put(TEST_PHONE, contact);
-
-        assertThat(mContacts.getContactNameFromPhone(TEST_PHONE, mResolver,
-                TEST_CONTACT_NAME_FILTER)).isNull();
-    }
-
-    @Test
-    public void getContactNameFromPhone_withNonNullContact_andNullFilter() {
-        MapContact contact = MapContact.create(TEST_ID, TEST_PHONE);
-        mContacts.mNames.put(TEST_PHONE, contact);
+    public void getContactNameFromPhone_withNullFilter() {
+        MatrixCursor cursor = new MatrixCursor(SmsMmsContacts.CONTACT_PROJECTION);
+        cursor.addRow(new Object[]{TEST_ID, TEST_NAME});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
 
-        assertThat(mContacts.getContactNameFromPhone(TEST_PHONE, mResolver, null)).isEqualTo(
-                contact);
+        MapContact expected = MapContact.create(TEST_ID, TEST_NAME);
+        assertThat(mContacts.getContactNameFromPhone(TEST_PHONE, mResolver, null).toString())
+                .isEqualTo(expected.toString());
     }
 
     @Test
-    public void getContactNameFromPhone_withNonNullContact_andNonMatchingFilter() {
-        MapContact contact = MapContact.create(TEST_ID, TEST_PHONE);
-        mContacts.mNames.put(TEST_PHONE, contact);
+    public void getContactNameFromPhone_withNonMatchingFilter() {
+        MatrixCursor cursor = new MatrixCursor(SmsMmsContacts.CONTACT_PROJECTION);
+        cursor.addRow(new Object[]{TEST_ID, TEST_NAME});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                isNull(), any());
+        // The provider finds no contact of the number matching the filter
+        doReturn(new MatrixCursor(SmsMmsContacts.CONTACT_PROJECTION)).when(mMapMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), notNull(), any());
         String nonMatchingFilter = "non_matching_filter";
 
         assertThat(mContacts.getContactNameFromPhone(TEST_PHONE, mResolver,
@@ -32,6 +32,7 @@ import androidx.test.runner.AndroidJUnit4;
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.ContactCursorFilter;
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.PropertySelector;
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.VCardFilter;
+import com.android.bluetooth.pbap.BluetoothPbapVcardManager.VCardStreamFilter;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -150,6 +151,47 @@ public class BluetoothPbapVcardManagerNestedClassesTest {
         assertThat(selector.checkVCardSelector(vCard, "1")).isFalse();
     }
 
+    @Test
+    public void VCardStreamFilter_apply_matchesFilterAndStripTelephoneNumber() {
+        final String separator = System.getProperty("line.separator");
+        String vCard = "BEGIN:VCARD\r" + separator
+                + "FN:Test \u00e9\ud83d\ude00\r" + separator
+                + "EMAIL:android@android.com\r" + separator
+                + "NOTE:first line\r" + separator
+                + " second line\r" + separator
+                + "TEL;TYPE=CELL:+1-(588)-328-382\r" + separator
+                + "X-ANDROID-CUSTOM:vnd.android.cursor.item/nickname\r" + separator
+                + "X-IRMC-CALL-DATETIME:20170314T173942\r" + separator
+                + "END:VCARD\r" + separator;
+
+        byte[] emailExcludeFilter = new byte[] {(byte) 0xFE, (byte) 0xFF};
+        VCardStreamFilter vCardStreamFilter = new VCardStreamFilter(emailExcludeFilter,
+                /*vCardType21=*/ true, /*stripTelephoneNumbers=*/ true, /*selector=*/ null,
+                /*selectorOperator=*/ null);
+        String expectedVCard = new BluetoothPbapVcardManager(mContext).stripTelephoneNumber(
+                new VCardFilter(emailExcludeFilter).apply(vCard, /*vCardType21=*/ true));
+
+        assertThat(vCardStreamFilter.apply(vCard)).isTrue();
+        assertThat(vCardStreamFilter.getEncoded()).isEqualTo(expectedVCard);
+    }
+
+    @Test
+    public void VCardStreamFilter_apply_whenNotSelected_returnsFalse() {
+        final String separator = System.getProperty("line.separator");
+        String vCard = "FN:Test Full Name" + separator
+                + "EMAIL:android@android.com:" + separator
+                + "TEL:0123456789" + separator;
+
+        byte[] fullNameAndOrganizationSelector = new byte[] {0x01, 0x00, 0x02};
+        VCardStreamFilter vCardStreamFilter = new VCardStreamFilter(/*filter=*/ null,
+                /*vCardType21=*/ false, /*stripTelephoneNumbers=*/ false,
+                fullNameAndOrganizationSelector, "1");
+
+        assertThat(vCardStreamFilter.isSelected(vCard)).isFalse();
+        assertThat(vCardStreamFilter.apply(vCard)).isFalse();
+        assertThat(vCardStreamFilter.getEncoded()).isEmpty();
+    }
+
     @Test
     public void ContactCursorFilter_filterByOffset() {
         Cursor contactCursor = mock(Cursor.class);
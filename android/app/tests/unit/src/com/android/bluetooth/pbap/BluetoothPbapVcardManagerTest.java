@@ -20,15 +20,24 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
 import android.provider.CallLog;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.SmallTest;
@@ -36,6 +45,8 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.R;
+import com.android.vcard.VCardComposer;
+import com.android.vcard.VCardConfig;
 
 import org.junit.After;
 import org.junit.Before;
@@ -343,4 +354,74 @@ public class BluetoothPbapVcardManagerTest {
 
         assertThat(BluetoothPbapVcardManager.getNameFromVCard(vCard)).isEqualTo("Test Name");
     }
+
+    @Test
+    public void getVCard_doesNotCacheContactsThatFailedToLoad() throws Exception {
+        final long loadedContactId = 1;
+        final long deletedContactId = 2;
+        final long failedContactId = 3;
+        final long[] contactIds = {loadedContactId, deletedContactId, failedContactId};
+        final String vcard = "BEGIN:VCARD\r\nFN:Test Name\r\nEND:VCARD\r\n";
+        final String[] entityProjection = new String[] {RawContacts._ID, RawContacts.CONTACT_ID,
+                RawContactsEntity.DATA_ID, Data.MIMETYPE, Data.DATA1, Data.DATA2, Data.DATA3,
+                Data.DATA4, Data.DATA5, Data.DATA6, Data.DATA7, Data.DATA8, Data.DATA9,
+                Data.DATA10, Data.DATA11, Data.DATA12, Data.DATA13, Data.DATA14, Data.DATA15,
+                Data.SYNC1, Data.SYNC2, Data.SYNC3, Data.SYNC4};
+        // All contacts have a timestamp. Only the first one has entities, and the chunk of the
+        // last one fails to load.
+        doAnswer(invocation -> {
+            Uri uri = invocation.getArgument(1);
+            String[] selectionArgs = invocation.getArgument(4);
+            if (Contacts.CONTENT_URI.equals(uri)) {
+                MatrixCursor cursor = new MatrixCursor(
+                        new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
+                for (long contactId : contactIds) {
+                    cursor.addRow(new Object[] {contactId, 1000L});
+                }
+                return cursor;
+            }
+            if (Arrays.asList(selectionArgs).contains(String.valueOf(failedContactId))) {
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(entityProjection);
+            Object[] row = new Object[entityProjection.length];
+            row[0] = loadedContactId;
+            row[1] = loadedContactId;
+            row[2] = loadedContactId;
+            row[3] = StructuredName.CONTENT_ITEM_TYPE;
+            row[4] = "Test Name";
+            cursor.addRow(row);
+            return cursor;
+        }).when(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+        VCardComposer composer = mock(VCardComposer.class);
+        doReturn(vcard).when(composer).buildVCard(any());
+        ContentResolver resolver = mContext.getContentResolver();
+        VCardCache cache = VCardCache.getInstance();
+        int vcardType = VCardConfig.VCARD_TYPE_V30_GENERIC;
+        cache.clear();
+
+        try {
+            VCardCache.Lookup lookup = cache.lookup(resolver, contactIds, vcardType);
+            try (RawContactEntityLoader loader = new RawContactEntityLoader(resolver,
+                    new long[] {loadedContactId, deletedContactId})) {
+                assertThat(BluetoothPbapVcardManager.getVCard(lookup, 0, loader, composer))
+                        .isEqualTo(vcard);
+                assertThat(BluetoothPbapVcardManager.getVCard(lookup, 1, loader, composer))
+                        .isEmpty();
+            }
+            try (RawContactEntityLoader loader = new RawContactEntityLoader(resolver,
+                    new long[] {failedContactId})) {
+                assertThat(BluetoothPbapVcardManager.getVCard(lookup, 2, loader, composer))
+                        .isNull();
+            }
+
+            // The next pull only gets the vCard of the loaded contact from the cache
+            VCardCache.Lookup nextLookup = cache.lookup(resolver, contactIds, vcardType);
+            assertThat(nextLookup.get(0)).isEqualTo(vcard);
+            assertThat(nextLookup.getMissingContactIds()).asList()
+                    .containsExactly(deletedContactId, failedContactId).inOrder();
+        } finally {
+            cache.clear();
+        }
+    }
 }
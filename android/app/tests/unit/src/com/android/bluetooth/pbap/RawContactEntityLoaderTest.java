@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RawContactEntityLoaderTest {
+    private static final String[] ENTITY_PROJECTION = new String[] {RawContacts._ID,
+            RawContacts.CONTACT_ID, RawContactsEntity.DATA_ID, Data.MIMETYPE, Data.DATA1,
+            Data.DATA2, Data.DATA3, Data.DATA4, Data.DATA5, Data.DATA6, Data.DATA7, Data.DATA8,
+            Data.DATA9, Data.DATA10, Data.DATA11, Data.DATA12, Data.DATA13, Data.DATA14,
+            Data.DATA15, Data.SYNC1, Data.SYNC2, Data.SYNC3, Data.SYNC4};
+    // Contacts with this id have no raw contact entities
+    private static final long EMPTY_CONTACT_ID = 2;
+
+    @Spy
+    private BluetoothMethodProxy mPbapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private final MockContentResolver mResolver = new MockContentResolver();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mPbapMethodProxy);
+
+        // Returns a structured name data row for each queried contact
+        doAnswer(invocation -> {
+            String[] selectionArgs = invocation.getArgument(4);
+            MatrixCursor cursor = new MatrixCursor(ENTITY_PROJECTION);
+            for (String arg : selectionArgs) {
+                long contactId = Long.parseLong(arg);
+                if (contactId == EMPTY_CONTACT_ID) {
+                    continue;
+                }
+                Object[] row = new Object[ENTITY_PROJECTION.length];
+                row[0] = contactId;
+                row[1] = contactId;
+                row[2] = contactId;
+                row[3] = StructuredName.CONTENT_ITEM_TYPE;
+                row[4] = "name" + contactId;
+                cursor.addRow(row);
+            }
+            return cursor;
+        }).when(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void next_queriesOncePerChunk() throws Exception {
+        int count = RawContactEntityLoader.CONTACTS_PER_QUERY + 1;
+        long[] contactIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            contactIds[i] = i + 1;
+        }
+
+        try (RawContactEntityLoader loader = new RawContactEntityLoader(mResolver, contactIds)) {
+            for (long contactId = 1; contactId <= count; contactId++) {
+                Map<String, List<ContentValues>> entities = loader.next();
+                if (contactId == EMPTY_CONTACT_ID) {
+                    // Skipped as deleted rather than sent as a blank vCard
+                    assertThat(entities).isNull();
+                    continue;
+                }
+                List<ContentValues> names = entities.get(StructuredName.CONTENT_ITEM_TYPE);
+                assertThat(names).hasSize(1);
+                assertThat(names.get(0).getAsString(Data.DATA1)).isEqualTo("name" + contactId);
+            }
+            assertThat(loader.next()).isNull();
+        }
+
+        verify(mPbapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void next_whenQueryReturnsNull_fails() {
+        doReturn(null).when(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        try (RawContactEntityLoader loader =
+                new RawContactEntityLoader(mResolver, new long[] {1, 3})) {
+            assertThrows(ExecutionException.class, loader::next);
+        }
+    }
+}
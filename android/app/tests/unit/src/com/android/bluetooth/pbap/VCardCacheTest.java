@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.Contacts;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.vcard.VCardConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class VCardCacheTest {
+    private static final long TEST_CONTACT_ID = 1;
+    private static final long TEST_OTHER_CONTACT_ID = 2;
+    private static final int TEST_VCARD_TYPE = VCardConfig.VCARD_TYPE_V30_GENERIC;
+    private static final String TEST_VCARD = "BEGIN:VCARD\r\nFN:Test Name\r\nEND:VCARD\r\n";
+
+    @Spy
+    private BluetoothMethodProxy mPbapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private final MockContentResolver mResolver = new MockContentResolver();
+    private final VCardCache mCache = VCardCache.getInstance();
+    private long mLastUpdated = 1000;
+    private long mSavedDbIdentifier;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mPbapMethodProxy);
+        mSavedDbIdentifier = BluetoothPbapUtils.sDbIdentifier.get();
+        mCache.clear();
+
+        doAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(
+                    new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
+            cursor.addRow(new Object[] {TEST_CONTACT_ID, mLastUpdated});
+            cursor.addRow(new Object[] {TEST_OTHER_CONTACT_ID, mLastUpdated});
+            return cursor;
+        }).when(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.clear();
+        BluetoothPbapUtils.sDbIdentifier.set(mSavedDbIdentifier);
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    private VCardCache.Lookup lookup() {
+        return mCache.lookup(mResolver, new long[] {TEST_CONTACT_ID, TEST_OTHER_CONTACT_ID},
+                TEST_VCARD_TYPE);
+    }
+
+    @Test
+    public void lookup_afterPut_returnsCachedVCard() {
+        lookup().put(0, TEST_VCARD);
+
+        VCardCache.Lookup lookup = lookup();
+
+        assertThat(lookup.get(0)).isEqualTo(TEST_VCARD);
+        assertThat(lookup.get(1)).isNull();
+        assertThat(lookup.getMissingContactIds()).asList().containsExactly(TEST_OTHER_CONTACT_ID);
+    }
+
+    @Test
+    public void lookup_whenContactUpdated_returnsNull() {
+        lookup().put(0, TEST_VCARD);
+
+        mLastUpdated++;
+
+        assertThat(lookup().get(0)).isNull();
+    }
+
+    @Test
+    public void lookup_whenDbIdentifierChanged_returnsNull() {
+        lookup().put(0, TEST_VCARD);
+
+        BluetoothPbapUtils.sDbIdentifier.incrementAndGet();
+
+        assertThat(lookup().get(0)).isNull();
+    }
+
+    @Test
+    public void lookup_withOtherVCardType_returnsNull() {
+        lookup().put(0, TEST_VCARD);
+
+        VCardCache.Lookup lookup = mCache.lookup(mResolver, new long[] {TEST_CONTACT_ID},
+                VCardConfig.VCARD_TYPE_V21_GENERIC);
+
+        assertThat(lookup.get(0)).isNull();
+    }
+}
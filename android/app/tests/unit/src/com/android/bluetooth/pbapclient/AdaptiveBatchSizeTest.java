@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveBatchSizeTest {
+    private final AdaptiveBatchSize mBatchSize = new AdaptiveBatchSize();
+
+    @Test
+    public void onBatchDownloaded_whenFast_growsUpToMaxSize() {
+        for (int i = 0; i < 10; i++) {
+            mBatchSize.onBatchDownloaded(mBatchSize.get(), /*elapsedMillis=*/ 1);
+        }
+
+        assertThat(mBatchSize.get()).isEqualTo(AdaptiveBatchSize.MAX_SIZE);
+    }
+
+    @Test
+    public void onBatchDownloaded_whenSlow_shrinksByAtMostHalf() {
+        mBatchSize.onBatchDownloaded(AdaptiveBatchSize.INITIAL_SIZE,
+                AdaptiveBatchSize.TARGET_BATCH_MILLIS * 10);
+
+        assertThat(mBatchSize.get()).isEqualTo(AdaptiveBatchSize.INITIAL_SIZE / 2);
+    }
+
+    @Test
+    public void onBatchDownloaded_atTarget_keepsSize() {
+        mBatchSize.onBatchDownloaded(AdaptiveBatchSize.INITIAL_SIZE,
+                AdaptiveBatchSize.TARGET_BATCH_MILLIS);
+
+        assertThat(mBatchSize.get()).isEqualTo(AdaptiveBatchSize.INITIAL_SIZE);
+    }
+
+    @Test
+    public void onBatchFailed_shrinksDownToMinSize() {
+        for (int i = 0; i < 10; i++) {
+            mBatchSize.onBatchFailed();
+        }
+
+        assertThat(mBatchSize.get()).isEqualTo(AdaptiveBatchSize.MIN_SIZE);
+    }
+}
@@ -22,6 +22,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 
 import org.junit.Before;
@@ -49,4 +50,32 @@ public class BluetoothPbapRequestPullPhoneBookSizeTest {
             assertWithMessage("Exception should not happen.").fail();
         }
     }
+
+    @Test
+    public void readResponseHeaders_withVersionCounters() {
+        byte[] databaseIdentifier = new byte[16];
+        databaseIdentifier[15] = 1;
+        byte[] primaryVersionCounter = new byte[16];
+        primaryVersionCounter[15] = 2;
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PHONEBOOK_SIZE, (short) 3);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, primaryVersionCounter);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_DATABASE_IDENTIFIER, databaseIdentifier);
+        HeaderSet headerSet = new HeaderSet();
+        oap.addToHeaderSet(headerSet);
+
+        mRequest.readResponseHeaders(headerSet);
+
+        assertThat(mRequest.getSize()).isEqualTo(3);
+        assertThat(mRequest.getPrimaryVersionCounter()).isEqualTo(primaryVersionCounter);
+        assertThat(mRequest.getDatabaseIdentifier()).isEqualTo(databaseIdentifier);
+    }
+
+    @Test
+    public void readResponseHeaders_withoutVersionCounters_returnsNull() {
+        mRequest.readResponseHeaders(new HeaderSet());
+
+        assertThat(mRequest.getPrimaryVersionCounter()).isNull();
+        assertThat(mRequest.getDatabaseIdentifier()).isNull();
+    }
 }
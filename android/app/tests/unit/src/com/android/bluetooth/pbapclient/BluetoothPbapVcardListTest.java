@@ -16,6 +16,8 @@
 
 package com.android.bluetooth.pbapclient;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 
@@ -27,14 +29,21 @@ import androidx.test.runner.AndroidJUnit4;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class BluetoothPbapVcardListTest {
 
     private static final Account ACCOUNT = mock(Account.class);
+    private static final String VCARD_JOHN = "BEGIN:VCARD\r\nVERSION:3.0\r\nN:Doe;John;;;\r\n"
+            + "FN:John Doe\r\nTEL;TYPE=CELL:123\r\nEND:VCARD\r\n";
+    private static final String VCARD_JANE = "BEGIN:VCARD\r\nVERSION:3.0\r\nN:Doe;Jane;;;\r\n"
+            + "FN:Jane Doe\r\nTEL;TYPE=CELL:123\r\nEND:VCARD\r\n";
 
     @Test
     public void constructor_withMockInputStream_throwsIOException() {
@@ -45,4 +54,20 @@ public class BluetoothPbapVcardListTest {
         assertThrows(IOException.class, () ->
                 new BluetoothPbapVcardList(ACCOUNT, is, PbapClientConnectionHandler.VCARD_TYPE_21));
     }
+
+    @Test
+    public void getHashes_matchIdenticalCardsOnly() throws Exception {
+        String vcards = VCARD_JOHN + VCARD_JANE + VCARD_JOHN;
+        InputStream is = new ByteArrayInputStream(vcards.getBytes(StandardCharsets.UTF_8));
+
+        BluetoothPbapVcardList list =
+                new BluetoothPbapVcardList(ACCOUNT, is, PbapClientConnectionHandler.VCARD_TYPE_30);
+
+        List<String> hashes = list.getHashes();
+        assertThat(list.getCount()).isEqualTo(3);
+        assertThat(hashes).hasSize(3);
+        assertThat(hashes).doesNotContain(null);
+        assertThat(hashes.get(2)).isEqualTo(hashes.get(0));
+        assertThat(hashes.get(1)).isNotEqualTo(hashes.get(0));
+    }
 }
@@ -53,6 +53,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class PbapClientConnectionHandlerTest {
@@ -169,6 +172,23 @@ public class PbapClientConnectionHandlerTest {
         assertThat(mHandler.getSocket()).isNull();
     }
 
+    @Test
+    public void finishInserting_afterAbort_cancelsInsert() throws Exception {
+        // Never started, so finishing instead of cancelling would wait for the queued batch
+        PhonebookBatchInserter inserter = new PhonebookBatchInserter(
+                new PhonebookPullRequest(mTargetContext, mock(Account.class)));
+        inserter.add(new ArrayList<>(), /*hashes=*/ null);
+        mHandler.abort();
+
+        // Called off the handler thread, so without the interrupt the abort sent to it
+        Thread finisher = new Thread(() -> mHandler.finishInserting(inserter));
+        finisher.start();
+        finisher.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertThat(finisher.isAlive()).isFalse();
+        assertThat(inserter.getInsertedBatches()).isEqualTo(0);
+    }
+
     @Test
     public void removeCallLog_doesNotCrash() {
         ContentResolver res = mock(ContentResolver.class);
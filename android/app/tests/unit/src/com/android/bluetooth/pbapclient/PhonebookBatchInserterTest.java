@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.accounts.Account;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.vcard.VCardEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookBatchInserterTest {
+    private final List<List<VCardEntry>> mInsertedBatches = new ArrayList<>();
+    private final List<Thread> mInsertThreads = new ArrayList<>();
+    private final CountDownLatch mInsertStarted = new CountDownLatch(1);
+    private final CountDownLatch mInsertInterrupted = new CountDownLatch(1);
+    // If not null, inserts wait for it and ignore interrupts, as an interrupted IO would
+    private CountDownLatch mReleaseInsert = null;
+
+    private final PhonebookPullRequest mProcessor = new PhonebookPullRequest(
+            InstrumentationRegistry.getInstrumentation().getTargetContext(),
+            mock(Account.class)) {
+        @Override
+        public void onPullComplete() {
+            synchronized (mInsertedBatches) {
+                mInsertedBatches.add(mEntries);
+                mInsertThreads.add(Thread.currentThread());
+            }
+            mInsertStarted.countDown();
+            while (mReleaseInsert != null) {
+                try {
+                    mReleaseInsert.await();
+                    return;
+                } catch (InterruptedException e) {
+                    mInsertInterrupted.countDown();
+                }
+            }
+        }
+    };
+
+    @Test
+    public void finish_insertsAllBatchesInOrderOnInsertThread() throws Exception {
+        List<VCardEntry> firstBatch = new ArrayList<>();
+        List<VCardEntry> secondBatch = new ArrayList<>();
+        List<VCardEntry> thirdBatch = new ArrayList<>();
+        PhonebookBatchInserter inserter = new PhonebookBatchInserter(mProcessor);
+        inserter.start();
+
+        inserter.add(firstBatch, /*hashes=*/ null);
+        inserter.add(secondBatch, /*hashes=*/ null);
+        inserter.add(thirdBatch, /*hashes=*/ null);
+        inserter.finish();
+
+        synchronized (mInsertedBatches) {
+            assertThat(mInsertedBatches).containsExactly(firstBatch, secondBatch, thirdBatch)
+                    .inOrder();
+            assertThat(mInsertThreads).doesNotContain(Thread.currentThread());
+        }
+        assertThat(inserter.getInsertedBatches()).isEqualTo(3);
+    }
+
+    @Test
+    public void cancel_stopsInsertThread() throws Exception {
+        PhonebookBatchInserter inserter = new PhonebookBatchInserter(mProcessor);
+        inserter.start();
+
+        inserter.cancel();
+        inserter.add(new ArrayList<>(), /*hashes=*/ null);
+
+        synchronized (mInsertedBatches) {
+            assertThat(mInsertedBatches).isEmpty();
+        }
+    }
+
+    @Test
+    public void cancel_waitsForInsertIgnoringInterrupt_andDropsQueuedBatches() throws Exception {
+        mReleaseInsert = new CountDownLatch(1);
+        List<VCardEntry> firstBatch = new ArrayList<>();
+        PhonebookBatchInserter inserter = new PhonebookBatchInserter(mProcessor);
+        inserter.start();
+        inserter.add(firstBatch, /*hashes=*/ null);
+        mInsertStarted.await();
+        inserter.add(new ArrayList<>(), /*hashes=*/ null);
+
+        Thread canceller = new Thread(inserter::cancel);
+        canceller.start();
+        mInsertInterrupted.await();
+
+        // The insert thread dropped its interrupt, cancel() still waits for the insert
+        assertThat(canceller.isAlive()).isTrue();
+        mReleaseInsert.countDown();
+        canceller.join();
+
+        synchronized (mInsertedBatches) {
+            assertThat(mInsertedBatches).containsExactly(firstBatch);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.verify;
+
+import android.accounts.Account;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.RawContacts;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookDiffTest {
+    private static final Account TEST_ACCOUNT = new Account("00:01:02:03:04:05", "test.pbap");
+    private static final String TEST_HASH = "hash";
+    private static final String TEST_OTHER_HASH = "otherHash";
+
+    @Spy
+    private BluetoothMethodProxy mMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private final MockContentResolver mResolver = new MockContentResolver();
+    private PhonebookDiff mDiff;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
+
+        // Two raw contacts with the same hash, one with another hash and one without hash
+        doAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(
+                    new String[] {RawContacts._ID, RawContacts.SYNC1});
+            cursor.addRow(new Object[] {10L, TEST_HASH});
+            cursor.addRow(new Object[] {20L, TEST_HASH});
+            cursor.addRow(new Object[] {30L, TEST_OTHER_HASH});
+            cursor.addRow(new Object[] {40L, null});
+            return cursor;
+        }).when(mMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+        doReturn(0).when(mMethodProxy).contentResolverDelete(any(), any(), any(), any());
+
+        mDiff = new PhonebookDiff(mResolver, TEST_ACCOUNT, PbapClientConnectionHandler.PB_PATH);
+        assertThat(mDiff.load()).isTrue();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void getLocalCount_withRawContactsWithoutHash_returnsInvalidCount() {
+        assertThat(mDiff.getLocalCount()).isEqualTo(-1);
+    }
+
+    @Test
+    public void isNew_matchesEachRawContactOnce() {
+        assertThat(mDiff.isNew(TEST_HASH)).isFalse();
+        assertThat(mDiff.isNew(TEST_HASH)).isFalse();
+        assertThat(mDiff.isNew(TEST_HASH)).isTrue();
+        assertThat(mDiff.isNew("newHash")).isTrue();
+        assertThat(mDiff.isNew(null)).isTrue();
+
+        assertThat(mDiff.getMatchedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void deleteUnmatched_deletesUnmatchedRawContacts() {
+        mDiff.isNew(TEST_HASH);
+
+        mDiff.deleteUnmatched();
+
+        ArgumentCaptor<String> selection = ArgumentCaptor.forClass(String.class);
+        verify(mMethodProxy).contentResolverDelete(any(), eq(PhonebookDiff.RAW_CONTACTS_URI),
+                selection.capture(), isNull());
+        String prefix = RawContacts._ID + " IN (";
+        assertThat(selection.getValue()).startsWith(prefix);
+        List<Long> ids = new ArrayList<>();
+        for (String id : selection.getValue()
+                .substring(prefix.length(), selection.getValue().length() - 1).split(",")) {
+            ids.add(Long.parseLong(id));
+        }
+        assertThat(ids).containsExactly(20L, 30L, 40L);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookSyncStateTest {
+    private static final String TEST_ADDRESS = "00:01:02:03:04:05";
+    private static final byte[] TEST_DATABASE_IDENTIFIER = new byte[] {0, 1};
+    private static final byte[] TEST_VERSION_COUNTER = new byte[] {0, 2};
+    private static final byte[] TEST_OTHER_VERSION_COUNTER = new byte[] {0, 3};
+
+    private Context mTargetContext;
+    private PhonebookSyncState mSyncState;
+
+    @Before
+    public void setUp() {
+        mTargetContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSyncState = new PhonebookSyncState(mTargetContext, TEST_ADDRESS);
+    }
+
+    @After
+    public void tearDown() {
+        PhonebookSyncState.clear(mTargetContext, TEST_ADDRESS);
+    }
+
+    @Test
+    public void isUnchanged_afterSetSynced_matchesSameVersionsOnly() {
+        mSyncState.setSynced(PbapClientConnectionHandler.PB_PATH, TEST_DATABASE_IDENTIFIER,
+                TEST_VERSION_COUNTER);
+
+        assertThat(mSyncState.isUnchanged(PbapClientConnectionHandler.PB_PATH,
+                TEST_DATABASE_IDENTIFIER, TEST_VERSION_COUNTER)).isTrue();
+        assertThat(mSyncState.isUnchanged(PbapClientConnectionHandler.PB_PATH,
+                TEST_DATABASE_IDENTIFIER, TEST_OTHER_VERSION_COUNTER)).isFalse();
+        assertThat(mSyncState.isUnchanged(PbapClientConnectionHandler.FAV_PATH,
+                TEST_DATABASE_IDENTIFIER, TEST_VERSION_COUNTER)).isFalse();
+    }
+
+    @Test
+    public void isUnchanged_withoutVersions_returnsFalse() {
+        mSyncState.setSynced(PbapClientConnectionHandler.PB_PATH, null, null);
+
+        assertThat(mSyncState.isUnchanged(PbapClientConnectionHandler.PB_PATH, null, null))
+                .isFalse();
+    }
+
+    @Test
+    public void isUnchanged_afterClear_returnsFalse() {
+        mSyncState.setSynced(PbapClientConnectionHandler.PB_PATH, TEST_DATABASE_IDENTIFIER,
+                TEST_VERSION_COUNTER);
+
+        PhonebookSyncState.clear(mTargetContext, TEST_ADDRESS);
+
+        assertThat(mSyncState.isUnchanged(PbapClientConnectionHandler.PB_PATH,
+                TEST_DATABASE_IDENTIFIER, TEST_VERSION_COUNTER)).isFalse();
+    }
+}
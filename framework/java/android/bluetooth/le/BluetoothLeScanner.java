@@ -563,6 +563,26 @@ public final class BluetoothLeScanner {
         @Override
         public void onBatchScanResults(final List<ScanResult> results) {
             Attributable.setAttributionSource(results, mAttributionSource);
+            if (mSettings.getReportDelayMillis() == 0) {
+                // Results of a scan without report delay may be coalesced by the service, hand
+                // them back one by one as the app expects.
+                synchronized (this) {
+                    if (mScannerId <= 0) {
+                        return;
+                    }
+                }
+                Handler handler = new Handler(Looper.getMainLooper());
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (ScanResult result : results) {
+                            mScanCallback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES,
+                                    result);
+                        }
+                    }
+                });
+                return;
+            }
             Handler handler = new Handler(Looper.getMainLooper());
             handler.post(new Runnable() {
                 @Override
@@ -314,35 +314,64 @@ public final class ScanRecord {
      */
     public static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
-    // Flags of the advertising data.
-    private final int mAdvertiseFlags;
+    // Raw bytes of scan record.
+    private final byte[] mBytes;
 
+    // Offsets of the length byte of each AD structure in mBytes. Only set for lazily parsed
+    // records whose structures are all well formed, null otherwise.
     @Nullable
-    private final List<ParcelUuid> mServiceUuids;
-    @Nullable
-    private final List<ParcelUuid> mServiceSolicitationUuids;
+    private final int[] mFieldOffsets;
+
+    // Decoded fields of the scan record, set on first use for lazily parsed records.
+    private volatile Fields mFields;
 
-    private final SparseArray<byte[]> mManufacturerSpecificData;
+    /**
+     * Holds the fields decoded from the raw bytes of a scan record.
+     */
+    private static final class Fields {
+        // Flags of the advertising data.
+        final int mAdvertiseFlags;
 
-    private final Map<ParcelUuid, byte[]> mServiceData;
+        @Nullable
+        final List<ParcelUuid> mServiceUuids;
+        @Nullable
+        final List<ParcelUuid> mServiceSolicitationUuids;
 
-    // Transmission power level(in dB).
-    private final int mTxPowerLevel;
+        final SparseArray<byte[]> mManufacturerSpecificData;
 
-    // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
+        final Map<ParcelUuid, byte[]> mServiceData;
 
-    // Raw bytes of scan record.
-    private final byte[] mBytes;
+        // Transmission power level(in dB).
+        final int mTxPowerLevel;
 
-    private final HashMap<Integer, byte[]> mAdvertisingDataMap;
+        // Local name of the Bluetooth LE device.
+        final String mDeviceName;
+
+        final HashMap<Integer, byte[]> mAdvertisingDataMap;
+
+        Fields(List<ParcelUuid> serviceUuids,
+                List<ParcelUuid> serviceSolicitationUuids,
+                SparseArray<byte[]> manufacturerData,
+                Map<ParcelUuid, byte[]> serviceData,
+                int advertiseFlags, int txPowerLevel,
+                String localName, HashMap<Integer, byte[]> advertisingDataMap) {
+            mServiceSolicitationUuids = serviceSolicitationUuids;
+            mServiceUuids = serviceUuids;
+            mManufacturerSpecificData = manufacturerData;
+            mServiceData = serviceData;
+            mDeviceName = localName;
+            mAdvertiseFlags = advertiseFlags;
+            mTxPowerLevel = txPowerLevel;
+            mAdvertisingDataMap = advertisingDataMap;
+        }
+    }
 
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
      * Returns -1 if the flag field is not set.
      */
     public int getAdvertiseFlags() {
-        return mAdvertiseFlags;
+        return fields().mAdvertiseFlags;
     }
 
     /**
@@ -350,7 +379,7 @@ public final class ScanRecord {
      * bluetooth GATT services.
      */
     public List<ParcelUuid> getServiceUuids() {
-        return mServiceUuids;
+        return fields().mServiceUuids;
     }
 
     /**
@@ -359,7 +388,7 @@ public final class ScanRecord {
      */
     @NonNull
     public List<ParcelUuid> getServiceSolicitationUuids() {
-        return mServiceSolicitationUuids;
+        return fields().mServiceSolicitationUuids;
     }
 
     /**
@@ -367,7 +396,7 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
-        return mManufacturerSpecificData;
+        return fields().mManufacturerSpecificData;
     }
 
     /**
@@ -376,17 +405,33 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        if (mManufacturerSpecificData == null) {
+        if (mFields == null && mFieldOffsets != null) {
+            // Only decode the matching structure. The last one wins, as when fully parsed.
+            int found = -1;
+            for (int offset : mFieldOffsets) {
+                if ((mBytes[offset + 1] & 0xFF) == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA
+                        && (((mBytes[offset + 3] & 0xFF) << 8) + (mBytes[offset + 2] & 0xFF))
+                                == manufacturerId) {
+                    found = offset;
+                }
+            }
+            if (found < 0) {
+                return null;
+            }
+            return extractBytes(mBytes, found + 4, (mBytes[found] & 0xFF) - 3);
+        }
+        SparseArray<byte[]> manufacturerSpecificData = fields().mManufacturerSpecificData;
+        if (manufacturerSpecificData == null) {
             return null;
         }
-        return mManufacturerSpecificData.get(manufacturerId);
+        return manufacturerSpecificData.get(manufacturerId);
     }
 
     /**
      * Returns a map of service UUID and its corresponding service data.
      */
     public Map<ParcelUuid, byte[]> getServiceData() {
-        return mServiceData;
+        return fields().mServiceData;
     }
 
     /**
@@ -395,10 +440,32 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
-        if (serviceDataUuid == null || mServiceData == null) {
+        if (serviceDataUuid == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        if (mFields == null && mFieldOffsets != null) {
+            // Only decode the matching structure. The last one wins, as when fully parsed.
+            int found = -1;
+            int foundUuidLength = 0;
+            for (int offset : mFieldOffsets) {
+                int uuidLength = getServiceDataUuidLength(mBytes[offset + 1] & 0xFF);
+                if (uuidLength > 0 && serviceDataUuid.equals(BluetoothUuid.parseUuidFrom(
+                        extractBytes(mBytes, offset + 2, uuidLength)))) {
+                    found = offset;
+                    foundUuidLength = uuidLength;
+                }
+            }
+            if (found < 0) {
+                return null;
+            }
+            return extractBytes(mBytes, found + 2 + foundUuidLength,
+                    (mBytes[found] & 0xFF) - 1 - foundUuidLength);
+        }
+        Map<ParcelUuid, byte[]> serviceData = fields().mServiceData;
+        if (serviceData == null) {
+            return null;
+        }
+        return serviceData.get(serviceDataUuid);
     }
 
     /**
@@ -409,7 +476,7 @@ public final class ScanRecord {
      * <code>pathloss = txPowerLevel - rssi</code>
      */
     public int getTxPowerLevel() {
-        return mTxPowerLevel;
+        return fields().mTxPowerLevel;
     }
 
     /**
@@ -417,7 +484,22 @@ public final class ScanRecord {
      */
     @Nullable
     public String getDeviceName() {
-        return mDeviceName;
+        if (mFields == null && mFieldOffsets != null) {
+            // Only decode the matching structure. The last one wins, as when fully parsed.
+            int found = -1;
+            for (int offset : mFieldOffsets) {
+                int fieldType = mBytes[offset + 1] & 0xFF;
+                if (fieldType == DATA_TYPE_LOCAL_NAME_SHORT
+                        || fieldType == DATA_TYPE_LOCAL_NAME_COMPLETE) {
+                    found = offset;
+                }
+            }
+            if (found < 0) {
+                return null;
+            }
+            return new String(extractBytes(mBytes, found + 2, (mBytes[found] & 0xFF) - 1));
+        }
+        return fields().mDeviceName;
     }
 
 
@@ -427,7 +509,7 @@ public final class ScanRecord {
      * (https://www.bluetooth.com/specifications/assigned-numbers/)
      */
     public @NonNull Map<Integer, byte[]> getAdvertisingDataMap() {
-        return mAdvertisingDataMap;
+        return fields().mAdvertisingDataMap;
     }
 
     /**
@@ -458,21 +540,20 @@ public final class ScanRecord {
         return false;
     }
 
-    private ScanRecord(List<ParcelUuid> serviceUuids,
-            List<ParcelUuid> serviceSolicitationUuids,
-            SparseArray<byte[]> manufacturerData,
-            Map<ParcelUuid, byte[]> serviceData,
-            int advertiseFlags, int txPowerLevel,
-            String localName, HashMap<Integer, byte[]> advertisingDataMap, byte[] bytes) {
-        mServiceSolicitationUuids = serviceSolicitationUuids;
-        mServiceUuids = serviceUuids;
-        mManufacturerSpecificData = manufacturerData;
-        mServiceData = serviceData;
-        mDeviceName = localName;
-        mAdvertiseFlags = advertiseFlags;
-        mTxPowerLevel = txPowerLevel;
-        mAdvertisingDataMap = advertisingDataMap;
+    private ScanRecord(byte[] bytes, int[] fieldOffsets, Fields fields) {
         mBytes = bytes;
+        mFieldOffsets = fieldOffsets;
+        mFields = fields;
+    }
+
+    private Fields fields() {
+        Fields fields = mFields;
+        if (fields == null) {
+            // Decoding is idempotent, so a concurrent first use at worst decodes twice.
+            fields = decode(mBytes);
+            mFields = fields;
+        }
+        return fields;
     }
 
     /**
@@ -491,7 +572,99 @@ public final class ScanRecord {
         if (scanRecord == null) {
             return null;
         }
+        return new ScanRecord(scanRecord, null, decode(scanRecord));
+    }
 
+    /**
+     * Wrap scan record bytes in a {@link ScanRecord} that is only parsed on demand.
+     * <p>
+     * Only the offsets of the AD structures are computed up front. Fields are decoded the first
+     * time a getter needs them, and the manufacturer specific data, service data and local name
+     * lookups by key only decode the matching structure. The getters return the same values as
+     * for {@link #parseFromBytes}.
+     *
+     * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
+     * @hide
+     */
+    public static ScanRecord parseFromBytesLazy(byte[] scanRecord) {
+        if (scanRecord == null) {
+            return null;
+        }
+        return new ScanRecord(scanRecord, indexFields(scanRecord), null);
+    }
+
+    /**
+     * Returns the offsets of the AD structures in {@code scanRecord}, or null if any structure
+     * is malformed in a way that makes {@link #decode} discard the parsed fields.
+     */
+    private static int[] indexFields(byte[] scanRecord) {
+        int count = 0;
+        int pos = 0;
+        while (pos < scanRecord.length) {
+            int length = scanRecord[pos] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            if (pos + length >= scanRecord.length
+                    || !isWellFormed(scanRecord[pos + 1] & 0xFF, length - 1)) {
+                return null;
+            }
+            count++;
+            pos += length + 1;
+        }
+        int[] offsets = new int[count];
+        pos = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = pos;
+            pos += (scanRecord[pos] & 0xFF) + 1;
+        }
+        return offsets;
+    }
+
+    // Check the field is long enough for what decode() reads from it.
+    private static boolean isWellFormed(int fieldType, int dataLength) {
+        switch (fieldType) {
+            case DATA_TYPE_FLAGS:
+            case DATA_TYPE_TX_POWER_LEVEL:
+                return dataLength >= 1;
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                return dataLength % BluetoothUuid.UUID_BYTES_16_BIT == 0;
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                return dataLength % BluetoothUuid.UUID_BYTES_32_BIT == 0;
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                return dataLength % BluetoothUuid.UUID_BYTES_128_BIT == 0;
+            case DATA_TYPE_SERVICE_DATA_16_BIT:
+            case DATA_TYPE_SERVICE_DATA_32_BIT:
+            case DATA_TYPE_SERVICE_DATA_128_BIT:
+                return dataLength >= getServiceDataUuidLength(fieldType);
+            case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                return dataLength >= 2;
+            default:
+                return true;
+        }
+    }
+
+    // Returns the UUID length of a service data field type, or 0 for any other field type.
+    private static int getServiceDataUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_DATA_16_BIT:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_DATA_32_BIT:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_DATA_128_BIT:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    private static Fields decode(byte[] scanRecord) {
         int currentPos = 0;
         int advertiseFlag = -1;
         List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
@@ -558,13 +731,7 @@ public final class ScanRecord {
                     case DATA_TYPE_SERVICE_DATA_16_BIT:
                     case DATA_TYPE_SERVICE_DATA_32_BIT:
                     case DATA_TYPE_SERVICE_DATA_128_BIT:
-                        int serviceUuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
-                        if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_32_BIT;
-                        } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_128_BIT;
-                        }
-
+                        int serviceUuidLength = getServiceDataUuidLength(fieldType);
                         byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
                                 serviceUuidLength);
                         ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
@@ -592,26 +759,28 @@ public final class ScanRecord {
             if (serviceUuids.isEmpty()) {
                 serviceUuids = null;
             }
-            return new ScanRecord(serviceUuids, serviceSolicitationUuids, manufacturerData,
-                    serviceData, advertiseFlag, txPowerLevel, localName, advertisingDataMap,
-                    scanRecord);
+            return new Fields(serviceUuids, serviceSolicitationUuids, manufacturerData,
+                    serviceData, advertiseFlag, txPowerLevel, localName, advertisingDataMap);
         } catch (Exception e) {
             Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
             // As the record is invalid, ignore all the parsed results for this packet
             // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecord(null, null, null, null, -1, Integer.MIN_VALUE, null,
-                    advertisingDataMap, scanRecord);
+            return new Fields(null, null, null, null, -1, Integer.MIN_VALUE, null,
+                    advertisingDataMap);
         }
     }
 
     @Override
     public String toString() {
-        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags + ", mServiceUuids=" + mServiceUuids
-                + ", mServiceSolicitationUuids=" + mServiceSolicitationUuids
+        Fields fields = fields();
+        return "ScanRecord [mAdvertiseFlags=" + fields.mAdvertiseFlags
+                + ", mServiceUuids=" + fields.mServiceUuids
+                + ", mServiceSolicitationUuids=" + fields.mServiceSolicitationUuids
                 + ", mManufacturerSpecificData=" + BluetoothLeUtils.toString(
-                mManufacturerSpecificData)
-                + ", mServiceData=" + BluetoothLeUtils.toString(mServiceData)
-                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + mDeviceName + "]";
+                fields.mManufacturerSpecificData)
+                + ", mServiceData=" + BluetoothLeUtils.toString(fields.mServiceData)
+                + ", mTxPowerLevel=" + fields.mTxPowerLevel
+                + ", mDeviceName=" + fields.mDeviceName + "]";
     }
 
     // Parse service UUIDs.
@@ -154,6 +154,51 @@ public class ScanRecordTest extends TestCase {
                 0x50, 0x64 }, data.getServiceData().get(uuid2));
     }
 
+    @SmallTest
+    public void testLazyParser() {
+        byte[] scanRecord = new byte[] {
+                0x02, 0x01, 0x1a, // advertising flags
+                0x05, 0x02, 0x0b, 0x11, 0x0a, 0x11, // 16 bit service uuids
+                0x04, 0x09, 0x50, 0x65, 0x64, // name
+                0x02, 0x0A, (byte) 0xec, // tx power level
+                0x05, 0x16, 0x0b, 0x11, 0x50, 0x64, // service data
+                0x05, (byte) 0xff, (byte) 0xe0, 0x00, 0x02, 0x15, // manufacturer specific data
+                0x03, 0x50, 0x01, 0x02, // an unknown data type won't cause trouble
+        };
+        ParcelUuid uuid2 = ParcelUuid.fromString("0000110B-0000-1000-8000-00805F9B34FB");
+
+        // Lookups by key before anything else is decoded.
+        ScanRecord data = ScanRecord.parseFromBytesLazy(scanRecord);
+        assertEquals("Ped", data.getDeviceName());
+        assertArrayEquals(new byte[] {
+                0x02, 0x15 }, data.getManufacturerSpecificData(0x00E0));
+        assertNull(data.getManufacturerSpecificData(0x004C));
+        assertArrayEquals(new byte[] {
+                0x50, 0x64 }, data.getServiceData(uuid2));
+        assertNull(data.getServiceData(
+                ParcelUuid.fromString("0000110A-0000-1000-8000-00805F9B34FB")));
+
+        // Full decode gives the same fields as the eager parser.
+        ScanRecord eager = ScanRecord.parseFromBytes(scanRecord);
+        assertEquals(eager.getAdvertiseFlags(), data.getAdvertiseFlags());
+        assertEquals(eager.getServiceUuids(), data.getServiceUuids());
+        assertEquals(eager.getTxPowerLevel(), data.getTxPowerLevel());
+        assertEquals(eager.toString(), data.toString());
+        assertSame(scanRecord, data.getBytes());
+    }
+
+    @SmallTest
+    public void testLazyParser_malformedRecord() {
+        byte[] scanRecord = new byte[] {
+                0x05, (byte) 0xff, (byte) 0xe0, 0x00, 0x02, 0x15, // manufacturer specific data
+                0x05, 0x16, 0x0b, 0x11, // truncated service data
+        };
+        ScanRecord data = ScanRecord.parseFromBytesLazy(scanRecord);
+        assertNull(data.getManufacturerSpecificData(0x00E0));
+        assertNull(data.getManufacturerSpecificData());
+        assertNull(ScanRecord.parseFromBytes(scanRecord).getManufacturerSpecificData(0x00E0));
+    }
+
     // Assert two byte arrays are equal.
     private static void assertArrayEquals(byte[] expected, byte[] actual) {
         if (!Arrays.equals(expected, actual)) {